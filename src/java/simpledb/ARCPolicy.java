@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * ARCPolicy is the Adaptive Replacement Cache policy. Cached pages are
+ * split between those hit once since they were read and those hit again,
+ * each managed as LRU, and the ids of as many evicted pages are kept in a
+ * ghost list for each. A page read again while its id is in a ghost list
+ * shows that list's side was given too little of the pool, and moves the
+ * target size of the pages hit once towards it, so the split adapts to
+ * the mix of scans and repeated reads.
+ */
+public class ARCPolicy implements ReplacementPolicy {
+
+    private final int numPages;
+    // Target number of cached pages hit once
+    private double target;
+
+    // Cached pages hit once and hit again, least recently used first
+    private final LinkedHashMap<PageId, Boolean> once = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> again
+        = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    // Ids of pages evicted from once and again, oldest first
+    private final LinkedHashMap<PageId, Boolean> onceGhosts = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> againGhosts = new LinkedHashMap<PageId, Boolean>();
+
+    /**
+     * @param numPages number of pages in the pool
+     */
+    public ARCPolicy(int numPages) {
+        this.numPages = Math.max(1, numPages);
+    }
+
+    public void admit(PageId pid) {
+        if(once.containsKey(pid) || again.containsKey(pid)){
+            access(pid);
+        }else if(onceGhosts.remove(pid) != null){
+            target = Math.min(numPages, target
+                    + Math.max(1.0, againGhosts.size() / (onceGhosts.size() + 1.0)));
+            again.put(pid, Boolean.TRUE);
+        }else if(againGhosts.remove(pid) != null){
+            target = Math.max(0, target
+                    - Math.max(1.0, onceGhosts.size() / (againGhosts.size() + 1.0)));
+            again.put(pid, Boolean.TRUE);
+        }else{
+            once.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void access(PageId pid) {
+        if(once.remove(pid) != null)
+            again.put(pid, Boolean.TRUE);
+        else
+            again.get(pid);
+    }
+
+    public void remove(PageId pid) {
+        once.remove(pid);
+        again.remove(pid);
+    }
+
+    public PageId evict(Filter filter) {
+        boolean fromOnce = !once.isEmpty()
+                && (once.size() > target || again.isEmpty());
+        PageId pid = evict(fromOnce ? once : again, filter);
+        if(pid == null)
+            pid = evict(fromOnce ? again : once, filter);
+        // Each side and its ghosts stay within the pool, and all lists
+        // within two pools
+        TwoQueuePolicy.trim(onceGhosts, Math.max(0, numPages - once.size()));
+        TwoQueuePolicy.trim(againGhosts, Math.max(0,
+                2 * numPages - once.size() - again.size() - onceGhosts.size()));
+        return pid;
+    }
+
+    private PageId evict(LinkedHashMap<PageId, Boolean> pages, Filter filter) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while(it.hasNext()){
+            PageId pid = it.next();
+            if(filter.canEvict(pid)){
+                it.remove();
+                (pages == once ? onceGhosts : againGhosts).put(pid, Boolean.TRUE);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return once.size() + again.size();
+    }
+
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.LinkedList;
+
+/**
+ * AccessStrategy is a hint to the BufferPool that a transaction reads many
+ * pages once, as a scan of a large table does. The pages the BufferPool
+ * reads in for such a transaction are kept on a small ring, and once the
+ * ring is full each new page takes the place of the oldest page on it
+ * rather than one chosen by the replacement policy, so the scan uses a
+ * few pages of the pool over and over and leaves the pages other
+ * transactions use alone.
+ * <p>
+ * A page is only recycled if it is still the copy the strategy read, is
+ * clean and is not waiting to be written; otherwise it is left to the
+ * replacement policy, and the new page is cached like any other. Pages
+ * the scan finds in the pool are used where they are.
+ * <p>
+ * A strategy belongs to one scan, and is only used by the BufferPool
+ * under its lock.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, AccessStrategy)
+ */
+public class AccessStrategy {
+
+    /** Most pages on the ring of a scan */
+    public static final int RING_PAGES = 32;
+
+    private final int ringPages;
+    // Pages read in through this strategy, oldest first
+    private final LinkedList<Page> ring = new LinkedList<Page>();
+
+    /**
+     * @param ringPages number of pages on the ring
+     */
+    public AccessStrategy(int ringPages) {
+        if(ringPages <= 0)
+            throw new IllegalArgumentException("Bad ring size: " + ringPages);
+        this.ringPages = ringPages;
+    }
+
+    /**
+     * Returns the strategy for a scan of the given number of pages, or null
+     * if the scan is small enough to go through the pool like any other
+     * read, as when the whole table fits in the pool and stays cached for
+     * the next scan. The ring is a quarter of the pool at most, but always
+     * has room for the pages read ahead of the scan.
+     *
+     * @param scanPages number of pages the scan reads
+     * @param readAhead number of pages read ahead of the scan
+     * @return the strategy, or null
+     */
+    public static AccessStrategy forScan(int scanPages, int readAhead) {
+        int poolPages = Database.getBufferPool().getNumPages();
+        if(scanPages <= poolPages)
+            return null;
+        return new AccessStrategy(Math.max(Math.min(RING_PAGES, poolPages / 4),
+                readAhead + 2));
+    }
+
+    /**
+     * @return the number of pages on the ring
+     */
+    public int getRingPages() {
+        return ringPages;
+    }
+
+    /**
+     * Adds a page read in through this strategy to the ring
+     *
+     * @param page the page read
+     */
+    void add(Page page) {
+        ring.addLast(page);
+    }
+
+    /**
+     * Takes the oldest page off the ring if the ring is full, for the next
+     * page to take its place
+     *
+     * @return the page, or null if the ring has room left
+     */
+    Page next() {
+        if(ring.size() < ringPages)
+            return null;
+        return ring.removeFirst();
+    }
+
+}
@@ -0,0 +1,435 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree,
+ * ordered by one of their fields, the key. Lookups and range scans on the
+ * key read only the pages on the path to the first matching tuple and the
+ * leaves that hold the matches.
+ * <p>
+ * Page 0 of the file is a {@link BTreeRootPtrPage} holding the number of
+ * the root page. The other pages are {@link BTreeInternalPage}s, which
+ * hold keys and child pointers, and {@link BTreeLeafPage}s, which hold the
+ * tuples and are linked from left to right. All pages go through the
+ * BufferPool and are locked like the pages of a HeapFile: searches take
+ * shared locks on the path they follow, and inserts take exclusive locks
+ * on the leaf and on any pages they split. A full page is split in two
+ * and a new root is added when the root splits.
+ * <p>
+ * Deletes only remove the tuple from its leaf; pages are never merged, so
+ * a leaf may be left empty and is skipped by scans.
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int pageSize;
+
+    private transient RandomAccessFile raf;
+    // Pages added by transactions, which reach the file when written
+    private int allocatedPages;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file, with pages
+     * of the default page size.
+     *
+     * @param f the file that stores the pages
+     * @param td the tuple desc of the file
+     * @param keyField the index of the field the tuples are ordered by
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        this(f, td, keyField, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the pages
+     * @param td the tuple desc of the file
+     * @param keyField the index of the field the tuples are ordered by
+     * @param pageSize bytes per page of the file
+     * @throws IllegalArgumentException if fewer than two tuples or two keys
+     *         fit on a page
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField, int pageSize) {
+        if(keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("No key field " + keyField);
+        if(BTreeLeafPage.numSlots(pageSize, td) < 2
+                || BTreeInternalPage.maxKeys(pageSize, td.getFieldType(keyField)) < 2)
+            throw new IllegalArgumentException("Pages of " + pageSize
+                    + " bytes are too small for a B+ tree of " + td);
+        this.file = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the File backing this BTreeFile on disk
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this BTreeFile, the hash of the
+     *         absolute name of its file
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the index of the field the tuples are ordered by
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of pages in the file, including the root pointer
+     *         and pages added that are not written yet
+     */
+    public synchronized int numPages() {
+        return Math.max((int) (file.length() / pageSize), allocatedPages);
+    }
+
+    private synchronized RandomAccessFile getRaf() throws IOException {
+        if(raf == null)
+            raf = new RandomAccessFile(file, "rw");
+        return raf;
+    }
+
+    /**
+     * Reads a page of the file. Pages past the end of the file are read as
+     * empty leaves.
+     *
+     * @param pid Page ID
+     * @return Page the read page
+     */
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[pageSize];
+        long offset = (long) pageSize * pid.pageNumber();
+        try{
+            synchronized(this){
+                RandomAccessFile in = getRaf();
+                if(offset < in.length()){
+                    in.seek(offset);
+                    in.read(data);
+                }
+            }
+            return BTreePage.create((BTreePageId) pid, data);
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        writeData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private synchronized void writeData(int pageNumber, byte[] data)
+            throws IOException {
+        RandomAccessFile out = getRaf();
+        out.seek((long) pageSize * pageNumber);
+        out.write(data);
+    }
+
+    /**
+     * Writes the root pointer and an empty root leaf to a new file
+     */
+    private synchronized void init() throws IOException {
+        if(getRaf().length() > 0)
+            return;
+        writeData(0, BTreeRootPtrPage.createPageData(pageSize, 1));
+        writeData(1, BTreeLeafPage.createPageData(pageSize));
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNumber,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(getId(), pageNumber), perm);
+    }
+
+    /**
+     * Adds a page to the end of the file and locks it for writing. The
+     * page is only in memory until the BufferPool caches it as a dirty
+     * page of the transaction, so it is written, logged and reverted like
+     * the pages it changes.
+     */
+    private BTreePage newPage(TransactionId tid, byte[] data)
+            throws IOException, TransactionAbortedException {
+        int pageNumber;
+        synchronized(this){
+            pageNumber = numPages();
+            allocatedPages = pageNumber + 1;
+        }
+        BTreePageId pid = new BTreePageId(getId(), pageNumber);
+        Database.getBufferPool().lockPage(tid, pid, Permissions.READ_WRITE);
+        return BTreePage.create(pid, data);
+    }
+
+    /**
+     * Finds the leftmost leaf that may hold the key, with shared locks on
+     * the pages on the way.
+     *
+     * @param tid the transaction searching
+     * @param key the key, or null for the first leaf
+     * @param path if not null, receives the page numbers of the internal
+     *        pages on the way, from the root down
+     * @return the leaf
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key,
+            List<Integer> path) throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0,
+                Permissions.READ_ONLY);
+        int pageNumber = rootPtr.getRoot();
+        while(true){
+            BTreePage page = getPage(tid, pageNumber, Permissions.READ_ONLY);
+            if(page instanceof BTreeLeafPage)
+                return (BTreeLeafPage) page;
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            if(path != null)
+                path.add(pageNumber);
+            pageNumber = internal.getChild(internal.findChild(key));
+        }
+    }
+
+    /**
+     * Inserts the tuple into the leaf for its key, splitting the leaf and
+     * its parents as needed.
+     *
+     * @param tid The transaction performing the update
+     * @param t The tuple to add. Its RecordId is set to where it is stored.
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        init();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        Field key = t.getField(keyField);
+        List<Integer> path = new ArrayList<Integer>();
+        BTreeLeafPage leaf = findLeaf(tid, key, path);
+        leaf = (BTreeLeafPage) getPage(tid, leaf.getId().pageNumber(),
+                Permissions.READ_WRITE);
+        dirty(tid, leaf, pages);
+        if(leaf.getNumEmptySlots() > 0){
+            leaf.insertTuple(t);
+            return pages;
+        }
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid,
+                BTreeLeafPage.createPageData(pageSize));
+        dirty(tid, right, pages);
+        Field separator = leaf.splitInto(right);
+        if(key.compare(Predicate.Op.LESS_THAN_OR_EQ, separator))
+            leaf.insertTuple(t);
+        else
+            right.insertTuple(t);
+        insertIntoParent(tid, path, leaf.getId().pageNumber(), separator,
+                right.getId().pageNumber(), pages);
+        return pages;
+    }
+
+    /**
+     * Adds the separator of a split page to its parent, splitting the
+     * parent in turn if it overflows.
+     */
+    private void insertIntoParent(TransactionId tid, List<Integer> path,
+            int left, Field separator, int right, ArrayList<Page> pages)
+            throws DbException, IOException, TransactionAbortedException {
+        if(path.isEmpty()){
+            // The root was split; a new root points to both halves
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0,
+                    Permissions.READ_WRITE);
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid,
+                    BTreeInternalPage.createPageData(pageSize));
+            root.setChildren(left, separator, right);
+            rootPtr.setRoot(root.getId().pageNumber());
+            dirty(tid, rootPtr, pages);
+            dirty(tid, root, pages);
+            return;
+        }
+        int pageNumber = path.remove(path.size() - 1);
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, pageNumber,
+                Permissions.READ_WRITE);
+        dirty(tid, parent, pages);
+        parent.insertKey(parent.indexOfChild(left), separator, right);
+        if(!parent.isOverfull())
+            return;
+        BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid,
+                BTreeInternalPage.createPageData(pageSize));
+        dirty(tid, sibling, pages);
+        Field middle = parent.splitInto(sibling);
+        insertIntoParent(tid, path, pageNumber, middle,
+                sibling.getId().pageNumber(), pages);
+    }
+
+    /**
+     * Marks a page dirty as soon as it is changed, so that the BufferPool
+     * doesn't evict it while the rest of the insert fetches pages
+     */
+    private void dirty(TransactionId tid, BTreePage page, ArrayList<Page> pages) {
+        page.markDirty(true, tid);
+        if(!pages.contains(page))
+            pages.add(page);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if(rid == null || !(rid.getPageId() instanceof BTreePageId)
+                || rid.getPageId().getTableId() != getId())
+            throw new DbException("Tuple not in this file!");
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid,
+                rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        leaf.deleteTuple(t);
+        return leaf;
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the file, in key order
+     *
+     * @param tid the transaction reading the tuples
+     * @return DbFileIterator iterator to the tuples
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, new IndexPredicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy all the given
+     * predicates, in key order. The scan starts at the leaf of the largest
+     * lower bound and stops at the first key past an upper bound.
+     *
+     * @param tid the transaction reading the tuples
+     * @param preds predicates on the key
+     * @return DbFileIterator iterator to the matching tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid,
+            IndexPredicate... preds) {
+        return new BTreeFileIterator(tid, preds);
+    }
+
+    /**
+     * Closes the file backing this BTreeFile. It is reopened on the next
+     * read or write.
+     */
+    public synchronized void close() {
+        if(raf == null)
+            return;
+        try{
+            raf.close();
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        raf = null;
+    }
+
+    /**
+     * Iterates over the leaves from the first that may hold a match
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final IndexPredicate[] preds;
+
+        private Iterator<Tuple> tuples;
+        private int nextLeaf;
+        private Tuple next;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate[] preds) {
+            this.tid = tid;
+            this.preds = preds;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            Field lower = null;
+            for(IndexPredicate pred : preds){
+                if(pred.hasLowerBound() && (lower == null || pred.getField()
+                        .compare(Predicate.Op.GREATER_THAN, lower)))
+                    lower = pred.getField();
+            }
+            try{
+                init();
+            }catch(IOException ioe){
+                throw new DbException("IOException: " + ioe.getMessage());
+            }
+            load(findLeaf(tid, lower, null));
+            next = null;
+        }
+
+        private void load(BTreeLeafPage leaf) {
+            tuples = leaf.iterator();
+            nextLeaf = leaf.getNext();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while(next == null && tuples != null){
+                if(!tuples.hasNext()){
+                    if(nextLeaf == 0){
+                        tuples = null;
+                        break;
+                    }
+                    load((BTreeLeafPage) getPage(tid, nextLeaf,
+                            Permissions.READ_ONLY));
+                    continue;
+                }
+                Tuple t = tuples.next();
+                Field key = t.getField(keyField);
+                boolean matches = true;
+                for(IndexPredicate pred : preds){
+                    if(pred.isPast(key)){
+                        // Keys are in order, so no later tuple matches
+                        tuples = null;
+                        matches = false;
+                        break;
+                    }
+                    matches &= pred.matches(key);
+                }
+                if(matches)
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            tuples = null;
+            next = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * BTreeInternalPage is an inner node of a BTreeFile. It holds m keys and
+ * m + 1 child page numbers:
+ * <pre>
+ *   byte category, int m, int child * (maxKeys + 1), key * maxKeys
+ * </pre>
+ * The keys in the subtree of child i are at least key i - 1 and at most
+ * key i. A key may appear on both sides of a separator when it is
+ * duplicated, so lookups descend into the leftmost child that may hold a
+ * key and continue along the leaves.
+ * <p>
+ * While a child is split, the page may briefly hold one key more than
+ * fits on disk; it is split itself before being written.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final int maxKeys;
+    private final Field[] keys;
+    private final int[] children;
+    private int numKeys;
+
+    /**
+     * Create an internal page from its bytes
+     *
+     * @param id the id of this page
+     * @param data the bytes of this page
+     * @throws IOException if the page is not an internal page
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        this.maxKeys = maxKeys(pageSize, keyType());
+        this.keys = new Field[maxKeys + 1];
+        this.children = new int[maxKeys + 2];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if(bb.get() != INTERNAL)
+            throw new IOException("Not an internal page: " + id);
+        numKeys = bb.getInt();
+        for(int i = 0; i <= maxKeys; i++)
+            children[i] = bb.getInt();
+        try{
+            for(int i = 0; i < numKeys; i++){
+                bb.position(keyOffset(i));
+                keys[i] = keyType().parse(bb);
+            }
+        }catch(ParseException e){
+            throw new IOException("Corrupt internal page " + id + ": " + e.getMessage());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of keys that fit on an internal page
+     */
+    static int maxKeys(int pageSize, Type keyType) {
+        return (pageSize - 9) / (keyType.getLen() + 4);
+    }
+
+    /**
+     * @return the bytes of an internal page without keys
+     */
+    static byte[] createPageData(int pageSize) {
+        byte[] data = new byte[pageSize];
+        data[0] = INTERNAL;
+        return data;
+    }
+
+    private int keyOffset(int i) {
+        return 5 + 4 * (maxKeys + 1) + i * keyType().getLen();
+    }
+
+    /**
+     * @return the number of keys on this page
+     */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return the key at the given index
+     */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the page number of the child at the given index
+     */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * Returns the index of the leftmost child that may hold the key.
+     *
+     * @param key the key, or null for the first child
+     * @return the index of the first key at least as large as the key,
+     *         or the number of keys if there is none
+     */
+    public int findChild(Field key) {
+        if(key == null)
+            return 0;
+        int low = 0, high = numKeys;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(keys[mid].compare(Predicate.Op.LESS_THAN, key))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the child with the given page number, or -1
+     */
+    public int indexOfChild(int pageNo) {
+        for(int i = 0; i <= numKeys; i++)
+            if(children[i] == pageNo)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Makes this page a new root over two children
+     */
+    public void setChildren(int left, Field key, int right) {
+        numKeys = 1;
+        keys[0] = key;
+        children[0] = left;
+        children[1] = right;
+    }
+
+    /**
+     * Adds a key after the child at the given index, and the new child
+     * that follows the key. Used when the child at the index was split.
+     *
+     * @param index index of the split child
+     * @param key the largest key of the split child
+     * @param right page number of the new child holding the upper keys
+     */
+    public void insertKey(int index, Field key, int right) {
+        System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+        System.arraycopy(children, index + 1, children, index + 2,
+                numKeys - index);
+        keys[index] = key;
+        children[index + 1] = right;
+        numKeys++;
+    }
+
+    /**
+     * @return true if the page holds more keys than fit on disk
+     */
+    public boolean isOverfull() {
+        return numKeys > maxKeys;
+    }
+
+    /**
+     * Moves the upper half of the keys and children to an empty page.
+     *
+     * @param right the empty page
+     * @return the middle key, which separates this page from the right one
+     */
+    public Field splitInto(BTreeInternalPage right) {
+        int mid = numKeys / 2;
+        Field separator = keys[mid];
+        right.numKeys = numKeys - mid - 1;
+        System.arraycopy(keys, mid + 1, right.keys, 0, right.numKeys);
+        System.arraycopy(children, mid + 1, right.children, 0, right.numKeys + 1);
+        for(int i = mid; i < numKeys; i++)
+            keys[i] = null;
+        numKeys = mid;
+        return separator;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.wrap(createPageData(pageSize));
+        bb.position(1);
+        bb.putInt(numKeys);
+        for(int i = 0; i <= maxKeys; i++)
+            bb.putInt(i <= numKeys ? children[i] : 0);
+        for(int i = 0; i < numKeys; i++){
+            bb.position(keyOffset(i));
+            keys[i].serialize(bb);
+        }
+        return bb.array();
+    }
+
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeLeafPage is a leaf of a BTreeFile. It holds tuples in slots, like a
+ * HeapPage, and the page number of the next leaf:
+ * <pre>
+ *   byte category, int next leaf, header bitmap, tuple slots
+ * </pre>
+ * The used slots are kept in key order. An insert shifts the tuples
+ * between its position and the nearest empty slot by one, which changes
+ * their RecordIds; a delete only empties the slot. A next leaf of 0 means
+ * there is none, as page 0 is the root pointer page.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final int numSlots;
+    private final int headerSize;
+    private final Tuple[] tuples;
+    private int numUsed;
+    private int next;
+
+    /**
+     * Create a leaf page from its bytes
+     *
+     * @param id the id of this page
+     * @param data the bytes of this page
+     * @throws IOException if the page is not a leaf page
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        this.numSlots = numSlots(pageSize, td);
+        this.headerSize = (numSlots + 7) / 8;
+        this.tuples = new Tuple[numSlots];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if(bb.get() != LEAF)
+            throw new IOException("Not a leaf page: " + id);
+        next = bb.getInt();
+        byte[] header = new byte[headerSize];
+        bb.get(header);
+        try{
+            for(int i = 0; i < numSlots; i++){
+                if(((header[i / 8] >> (i % 8)) & 1) == 0)
+                    continue;
+                bb.position(slotOffset(i));
+                Tuple t = new Tuple(td);
+                for(int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(bb));
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                numUsed++;
+            }
+        }catch(ParseException e){
+            throw new IOException("Corrupt leaf page " + id + ": " + e.getMessage());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples that fit on a leaf page
+     */
+    static int numSlots(int pageSize, TupleDesc td) {
+        return ((pageSize - 5) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the bytes of an empty leaf page
+     */
+    static byte[] createPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    private int slotOffset(int i) {
+        return 5 + headerSize + i * td.getSize();
+    }
+
+    /**
+     * @return the page number of the next leaf, 0 if this is the last
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * @return the number of empty slots on this page
+     */
+    public int getNumEmptySlots() {
+        return numSlots - numUsed;
+    }
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return tuples[i];
+    }
+
+    private void place(Tuple t, int slot) {
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    private boolean isAfter(Tuple t, Field key) {
+        return t.getField(keyField).compare(Predicate.Op.GREATER_THAN, key);
+    }
+
+    /**
+     * Adds a tuple after the tuples with keys not larger than its own, and
+     * sets the RecordId of the tuple.
+     *
+     * @param t The tuple to add
+     * @throws DbException if the page is full
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if(numUsed == numSlots)
+            throw new DbException("B+ tree leaf is full");
+        Field key = t.getField(keyField);
+        int p = 0;
+        for(int i = numSlots - 1; i >= 0; i--){
+            if(tuples[i] != null && !isAfter(tuples[i], key)){
+                p = i + 1;
+                break;
+            }
+        }
+        Tuple copy = new Tuple(td);
+        for(int j = 0; j < td.numFields(); j++)
+            copy.setField(j, t.getField(j));
+        int slot = p;
+        int empty = p;
+        while(empty < numSlots && tuples[empty] != null)
+            empty++;
+        if(empty < numSlots){
+            for(int i = empty; i > p; i--)
+                place(tuples[i - 1], i);
+        }else{
+            // No room to the right; shift the smaller tuples left instead
+            empty = p - 1;
+            while(tuples[empty] != null)
+                empty--;
+            for(int i = empty; i < p - 1; i++)
+                place(tuples[i + 1], i);
+            slot = p - 1;
+        }
+        place(copy, slot);
+        t.setRecordId(copy.getRecordId());
+        numUsed++;
+    }
+
+    /**
+     * Removes a tuple from the page. If the tuple moved since it was read,
+     * it is looked up by its fields.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if(rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not in this page!");
+        int slot = rid.tupleno();
+        if(slot < 0 || slot >= numSlots || !t.equals(tuples[slot])){
+            slot = -1;
+            for(int i = 0; i < numSlots && slot < 0; i++)
+                if(t.equals(tuples[i]))
+                    slot = i;
+            if(slot < 0)
+                throw new DbException("Tuple not in this page!");
+        }
+        tuples[slot] = null;
+        numUsed--;
+    }
+
+    /**
+     * Moves the upper half of the tuples to an empty page, which is linked
+     * in after this one.
+     *
+     * @param right the empty page
+     * @return the largest key left on this page
+     */
+    public Field splitInto(BTreeLeafPage right) {
+        List<Tuple> sorted = new ArrayList<Tuple>(numUsed);
+        for(int i = 0; i < numSlots; i++)
+            if(tuples[i] != null)
+                sorted.add(tuples[i]);
+        Arrays.fill(tuples, null);
+        int keep = (sorted.size() + 1) / 2;
+        for(int i = 0; i < keep; i++)
+            place(sorted.get(i), i);
+        for(int i = keep; i < sorted.size(); i++)
+            right.place(sorted.get(i), i - keep);
+        numUsed = keep;
+        right.numUsed = sorted.size() - keep;
+        right.next = next;
+        next = right.pid.pageNumber();
+        return sorted.get(keep - 1).getField(keyField);
+    }
+
+    /**
+     * @return an iterator over the tuples of this page in key order, which
+     *         is not affected by later changes to the page
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used = new ArrayList<Tuple>(numUsed);
+        for(int i = 0; i < numSlots; i++)
+            if(tuples[i] != null)
+                used.add(tuples[i]);
+        return used.iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.wrap(createPageData(pageSize));
+        bb.put(LEAF);
+        bb.putInt(next);
+        for(int i = 0; i < numSlots; i++){
+            if(tuples[i] == null)
+                continue;
+            bb.put(5 + i / 8, (byte) (bb.get(5 + i / 8) | (1 << (i % 8))));
+            bb.position(slotOffset(i));
+            for(int j = 0; j < td.numFields(); j++)
+                tuples[i].getField(j).serialize(bb);
+        }
+        return bb.array();
+    }
+
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BTreePage holds what the pages of a BTreeFile have in common. The first
+ * byte of every page gives its category: {@link #LEAF},
+ * {@link #INTERNAL} or {@link #ROOT_PTR}. A page of zeros, like those
+ * past the end of the file, is an empty leaf.
+ * <p>
+ * Like HeapPages, B+ tree pages find their TupleDesc, key field and page
+ * size through the catalog, so they can be recreated from their bytes
+ * alone.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /** Category of leaf pages, which hold the tuples */
+    public static final byte LEAF = 0;
+    /** Category of internal pages, which hold keys and child pointers */
+    public static final byte INTERNAL = 1;
+    /** Category of the first page, which points to the root */
+    public static final byte ROOT_PTR = 2;
+
+    protected final BTreePageId pid;
+    protected final TupleDesc td;
+    protected final int keyField;
+    protected final int pageSize;
+
+    private volatile TransactionId dirtier;
+    private byte[] oldData;
+
+    /**
+     * Looks up the layout of the page's file in the catalog
+     *
+     * @param id the id of this page
+     */
+    protected BTreePage(BTreePageId id) {
+        this.pid = id;
+        BTreeFile file = (BTreeFile) Database.getCatalog()
+                .getDbFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.keyField = file.getKeyField();
+        this.pageSize = file.getPageSize();
+    }
+
+    /**
+     * Creates the page of the category given by its first byte
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     * @return the page
+     * @throws IOException if the page is of no known category
+     */
+    public static BTreePage create(BTreePageId id, byte[] data)
+            throws IOException {
+        switch(data[0]){
+        case LEAF:
+            return new BTreeLeafPage(id, data);
+        case INTERNAL:
+            return new BTreeInternalPage(id, data);
+        case ROOT_PTR:
+            return new BTreeRootPtrPage(id, data);
+        default:
+            throw new IOException("Unknown B+ tree page category " + data[0]);
+        }
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * @return the type of the key field
+     */
+    protected Type keyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public Page getBeforeImage() {
+        try{
+            return create(pid, oldData);
+        }catch(IOException e){
+            //should never happen -- we parsed it OK before!
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    private int tableId, pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pageNo;
+    }
+
+    /**
+     * @return a hash code for this page, from the table number and the page
+     *   number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return 31 * tableId + pageNo;
+    }
+
+    /**
+     * Compares one PageId to another. Ids of pages of a HeapFile are never
+     * equal to ids of pages of a BTreeFile.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if(o == null || !o.getClass().equals(this.getClass()))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == this.tableId && other.pageNo == this.pageNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = getTableId();
+        data[1] = pageNumber();
+        return data;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pageNo + ")";
+    }
+
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is the first page of a BTreeFile. It holds the number
+ * of the root page, which changes when the root splits:
+ * <pre>
+ *   byte category, int root page number
+ * </pre>
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+
+    /**
+     * Create a root pointer page from its bytes
+     *
+     * @param id the id of this page
+     * @param data the bytes of this page
+     * @throws IOException if the page is not a root pointer page
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if(bb.get() != ROOT_PTR)
+            throw new IOException("Not a root pointer page: " + id);
+        root = bb.getInt();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty root pointer page
+     */
+    static byte[] createPageData(int pageSize, int root) {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.put(ROOT_PTR);
+        bb.putInt(root);
+        return bb.array();
+    }
+
+    /**
+     * @return the page number of the root
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @param root the page number of the new root
+     */
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    public byte[] getPageData() {
+        return createPageData(pageSize, root);
+    }
+
+}
@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BitmapIndex indexes a field of a HeapFile with one {@link RoaringBitmap}
+ * per distinct value of the field. The bitmap of a value holds the
+ * positions of the tuples with that value, a tuple in slot s of page p
+ * being at position p * slotsPerPage + s, so the bitmaps of a field with
+ * few values are small and predicates on several indexed fields combine
+ * with AND and OR before any page of the table is read.
+ * <p>
+ * The bitmaps are kept in memory, and may hold positions that no longer
+ * have a tuple with their value, but never miss one that does: inserted
+ * tuples are added by the BufferPool, in the same call as the insert,
+ * while deletes and aborts leave their positions behind. Scans read the
+ * tuples at the positions found and check them again, and clear the
+ * positions that turn out to be out of date on pages without uncommitted
+ * changes ({@link #refresh}).
+ * <p>
+ * As with the {@link FreeSpaceMap}, the bitmaps are saved next to the
+ * table when the index is closed, and the saved file is deleted when
+ * loaded, so after a crash or a change of the table behind the index's
+ * back the index is built again from the table.
+ *
+ * @see Catalog#addBitmapIndex
+ * @see BitmapScan
+ */
+public class BitmapIndex {
+
+    private final File file;
+    private final HeapFile table;
+    private final int field;
+    private final int slotsPerPage;
+
+    private HashMap<Field, RoaringBitmap> bitmaps;
+
+    /**
+     * Creates an index on a field of a table. Nothing is read until the
+     * index is loaded.
+     *
+     * @param f the file the bitmaps are saved in
+     * @param table the indexed table
+     * @param field the index of the indexed field
+     */
+    public BitmapIndex(File f, HeapFile table, int field) {
+        if(field < 0 || field >= table.getTupleDesc().numFields())
+            throw new IllegalArgumentException("No field " + field);
+        this.file = f;
+        this.table = table;
+        this.field = field;
+        this.slotsPerPage = table.slotsPerPage();
+    }
+
+    /**
+     * @return the file the bitmaps are saved in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return table.getId();
+    }
+
+    /**
+     * @return the index of the indexed field in the tuples of the table
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the position of the tuple with the given RecordId
+     */
+    public int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /**
+     * @return the RecordId of the tuple at the given position
+     */
+    public RecordId recordId(int position) {
+        return new RecordId(new HeapPageId(table.getId(),
+                position / slotsPerPage), position % slotsPerPage);
+    }
+
+    /**
+     * @return the number of distinct values with a bitmap
+     */
+    public synchronized int numValues() {
+        return bitmaps == null ? 0 : bitmaps.size();
+    }
+
+    /**
+     * Adds the position of a tuple to the bitmap of its value
+     *
+     * @param t a tuple stored in the table
+     */
+    public synchronized void add(Tuple t) {
+        checkLoaded();
+        Field value = t.getField(field);
+        RoaringBitmap bitmap = bitmaps.get(value);
+        if(bitmap == null){
+            bitmap = new RoaringBitmap();
+            bitmaps.put(value, bitmap);
+        }
+        bitmap.add(position(t.getRecordId()));
+    }
+
+    /**
+     * Returns the positions of the tuples whose value satisfies a
+     * predicate: the union of the bitmaps of all values v for which
+     * v.compare(op, operand) holds. The result may include positions of
+     * tuples that no longer satisfy it.
+     *
+     * @param op the comparison
+     * @param operand the constant compared to
+     * @return a new bitmap, which the caller may change
+     */
+    public synchronized RoaringBitmap lookup(Predicate.Op op, Field operand) {
+        checkLoaded();
+        if(op == Predicate.Op.EQUALS){
+            RoaringBitmap bitmap = bitmaps.get(operand);
+            return bitmap == null ? new RoaringBitmap() : bitmap.copy();
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for(Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet())
+            if(e.getKey().compare(op, operand))
+                result = result.or(e.getValue());
+        return result;
+    }
+
+    /**
+     * Clears a position from the bitmaps of all values but the one of the
+     * tuple now there. The caller must hold a lock on the page of the
+     * position, and the page must have no uncommitted changes, so that
+     * the tuple is the one all transactions see.
+     *
+     * @param position a position in the table
+     * @param current the tuple at the position, or null if there is none
+     */
+    public synchronized void refresh(int position, Tuple current) {
+        checkLoaded();
+        Field value = current == null ? null : current.getField(field);
+        Iterator<Map.Entry<Field, RoaringBitmap>> it = bitmaps.entrySet().iterator();
+        while(it.hasNext()){
+            Map.Entry<Field, RoaringBitmap> e = it.next();
+            if(value != null && value.equals(e.getKey()))
+                continue;
+            e.getValue().remove(position);
+            if(e.getValue().isEmpty())
+                it.remove();
+        }
+    }
+
+    private void checkLoaded() {
+        if(bitmaps == null)
+            throw new IllegalStateException("Bitmap index on field " + field
+                    + " of " + table.getFile() + " is not loaded");
+    }
+
+    /**
+     * Loads the saved bitmaps, or builds them from the table if there are
+     * none or they no longer match the table. The table is read in a
+     * transaction of its own; tuples inserted by other transactions while
+     * it is read may be missed, which is why the catalog loads an index
+     * before the BufferPool sees it.
+     *
+     * @throws DbException if the table can't be read
+     * @throws TransactionAbortedException if the transaction is aborted
+     */
+    public void load() throws DbException, TransactionAbortedException {
+        synchronized(this){
+            if(bitmaps != null)
+                return;
+        }
+        HashMap<Field, RoaringBitmap> loaded = read();
+        if(loaded == null)
+            loaded = build();
+        synchronized(this){
+            bitmaps = loaded;
+            // From now on the saved bitmaps are out of date until saved again
+            file.delete();
+        }
+    }
+
+    private HashMap<Field, RoaringBitmap> build() throws DbException,
+            TransactionAbortedException {
+        HashMap<Field, RoaringBitmap> built = new HashMap<Field, RoaringBitmap>();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        try{
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while(it.hasNext()){
+                Tuple t = it.next();
+                RoaringBitmap bitmap = built.get(t.getField(field));
+                if(bitmap == null){
+                    bitmap = new RoaringBitmap();
+                    built.put(t.getField(field), bitmap);
+                }
+                bitmap.add(position(t.getRecordId()));
+            }
+            it.close();
+            transaction.commit();
+        }catch(IOException ioe){
+            throw new DbException("IOException: " + ioe.getMessage());
+        }catch(TransactionAbortedException e){
+            abort(transaction);
+            throw e;
+        }catch(DbException e){
+            abort(transaction);
+            throw e;
+        }
+        return built;
+    }
+
+    private static void abort(Transaction transaction) {
+        try{
+            transaction.abort();
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the bitmaps, if they were loaded. They are kept in memory and
+     * the index can still be used afterwards.
+     */
+    public synchronized void close() {
+        if(bitmaps == null)
+            return;
+        TupleDesc td = table.getTupleDesc();
+        try{
+            DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try{
+                dos.writeLong(table.length());
+                dos.writeLong(table.lastModified());
+                dos.writeInt(slotsPerPage);
+                dos.writeInt(bitmaps.size());
+                for(Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()){
+                    e.getKey().serialize(dos);
+                    e.getValue().serialize(dos);
+                }
+            }finally{
+                dos.close();
+            }
+        }catch(IOException ioe){
+            // The index is built again when it can't be read back
+            ioe.printStackTrace();
+            file.delete();
+        }
+    }
+
+    private HashMap<Field, RoaringBitmap> read() {
+        if(!file.exists())
+            return null;
+        Type type = table.getTupleDesc().getFieldType(field);
+        try{
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try{
+                if(dis.readLong() != table.length()
+                        || dis.readLong() != table.lastModified()
+                        || dis.readInt() != slotsPerPage)
+                    return null;
+                int values = dis.readInt();
+                HashMap<Field, RoaringBitmap> read = new HashMap<Field, RoaringBitmap>();
+                for(int i = 0; i < values; i++){
+                    Field value = type.parse(dis);
+                    read.put(value, RoaringBitmap.deserialize(dis));
+                }
+                return read;
+            }finally{
+                dis.close();
+            }
+        }catch(IOException ioe){
+            return null;
+        }catch(ParseException pe){
+            return null;
+        }
+    }
+
+}
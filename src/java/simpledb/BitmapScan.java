@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a HeapFile
+ * satisfying predicates on fields with a {@link BitmapIndex}. The
+ * predicates form a conjunction of clauses, each clause a disjunction of
+ * predicates, e.g. (status = 1 or status = 2) and category = 7. Opening
+ * the scan ORs the bitmaps of the predicates of each clause and ANDs the
+ * clauses, before any page of the table is read; the scan then fetches
+ * the tuples at the positions left, in page order, reading each page once.
+ * <p>
+ * Bitmaps may hold out of date positions, so each fetched tuple is checked
+ * against the predicates again. Like a SeqScan that stops early, the scan
+ * only locks the pages it reads.
+ *
+ * @see BitmapIndex#lookup
+ */
+public class BitmapScan extends IndexScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate[][] clauses;
+
+    /**
+     * Creates a bitmap scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must have a bitmap index on the
+     *            field of each predicate
+     * @param tableAlias
+     *            the alias of this table, as for SeqScan
+     * @param clauses
+     *            the clauses that all returned tuples satisfy; a tuple
+     *            satisfies a clause if it satisfies any of its predicates
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[][] clauses) {
+        super(tid, tableid, tableAlias);
+        if(clauses.length == 0)
+            throw new IllegalArgumentException("A bitmap scan needs a predicate");
+        this.clauses = clauses;
+    }
+
+    /**
+     * @return the clauses of this scan
+     */
+    public Predicate[][] getClauses() {
+        return clauses;
+    }
+
+    @Override
+    protected DbFileIterator iterator(DbFile file, TransactionId tid) {
+        if(!(file instanceof HeapFile))
+            throw new UnsupportedOperationException(getTableName()
+                    + " has no bitmap index");
+        for(Predicate[] clause : clauses)
+            for(Predicate p : clause)
+                if(Database.getCatalog().getBitmapIndex(file.getId(),
+                        p.getField()) == null)
+                    throw new UnsupportedOperationException(getTableName()
+                            + " has no bitmap index on field " + p.getField());
+        return new FetchIterator(tid, (HeapFile) file);
+    }
+
+    /**
+     * @return true if the tuple satisfies all clauses
+     */
+    private boolean matches(Tuple t) {
+        for(Predicate[] clause : clauses){
+            boolean any = false;
+            for(int i = 0; i < clause.length && !any; i++)
+                any = clause[i].filter(t);
+            if(!any)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Combines the bitmaps, and then reads the tuples at the positions
+     * found
+     */
+    private class FetchIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final HeapFile file;
+        private final Set<BitmapIndex> indexes = new HashSet<BitmapIndex>();
+
+        private RoaringBitmap positions;
+        private int position;
+        private Tuple next;
+
+        FetchIterator(TransactionId tid, HeapFile file) {
+            this.tid = tid;
+            this.file = file;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            positions = null;
+            for(Predicate[] clause : clauses){
+                RoaringBitmap any = new RoaringBitmap();
+                for(Predicate p : clause){
+                    BitmapIndex index = Database.getCatalog().getBitmapIndex(
+                            file.getId(), p.getField());
+                    indexes.add(index);
+                    any = any.or(index.lookup(p.getOp(), p.getOperand()));
+                }
+                positions = positions == null ? any : positions.and(any);
+                if(positions.isEmpty())
+                    break;
+            }
+            position = 0;
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while(next == null && positions != null){
+                int found = positions.nextValue(position);
+                if(found < 0)
+                    break;
+                position = found + 1;
+                BitmapIndex index = indexes.iterator().next();
+                RecordId rid = index.recordId(found);
+                // Pages removed by compaction leave positions behind
+                if(rid.getPageId().pageNumber() >= file.numPages())
+                    continue;
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(
+                        tid, rid.getPageId(), Permissions.READ_ONLY);
+                Tuple t = page.getTuple(rid.tupleno());
+                if(t != null && matches(t)){
+                    next = t;
+                }else if(page.isDirty() == null){
+                    for(BitmapIndex i : indexes)
+                        i.refresh(found, t);
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            positions = null;
+            next = null;
+        }
+
+    }
+
+}
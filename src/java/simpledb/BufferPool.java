@@ -1,11 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,45 +20,188 @@ import java.util.Set;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Files may use pages of different sizes, so the BufferPool holds pages up
+ * to a number of bytes rather than a number of pages.
+ * <p>
+ * Pages changed by a transaction are logged when it commits, and written
+ * to disk later by a {@link PageFlusher}; {@link LogFile#recover}, run
+ * by {@link Catalog#loadSchema} on startup, redoes them if the database
+ * stopped before they were written. Eviction drops
+ * clean pages that are not waiting to be written, so it normally does no
+ * I/O. Only when
+ * every page is dirty is a dirty page stolen: its before image is forced
+ * to the {@link LogFile} and the page is written to disk, so a transaction
+ * may change more pages than the pool holds. If the transaction aborts,
+ * the log restores the pages stolen from it.
+ * <p>
+ * Pages are looked up in a concurrent page table without taking the lock
+ * of the BufferPool, which only pages being read in, evicted or written
+ * need. A hit is noted in a queue, and passed on to the
+ * {@link ReplacementPolicy} that chooses the pages to evict in batches,
+ * by whichever thread finds the policy free, or before evicting a page.
+ * The policy is LRU unless another is named by the
+ * <code>simpledb.ReplacementPolicy</code> system property when the
+ * BufferPool is created.
+ * <p>
+ * If the <code>simpledb.OffHeap</code> system property is true, the
+ * BufferPool keeps the bytes of heap pages of the default size in a
+ * {@link FrameArena} of direct buffers allocated up front, and their
+ * tuples are decoded from there on each access. The pages then cost little
+ * heap however large the pool is. A page changed by a transaction is
+ * copied to the heap until it commits.
+ * <p>
+ * Code that keeps using a page after getPage returns, as a scan does with
+ * the page it is reading, pins the page with {@link #pinPage} and unpins
+ * it when done. Pinned pages are never evicted. Pins a transaction still
+ * holds when it completes are released and counted as leaks.
+ *
+ * @see DbFile#getPageSize
+ * @see #newPolicy
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Default bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
+    private static int pageSize = PAGE_SIZE;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
+    /** System property naming the replacement policy of new BufferPools */
+    public static final String POLICY_PROPERTY = "simpledb.ReplacementPolicy";
+
+    /** Names of the replacement policies */
+    public static final String[] POLICIES = { "lru", "clock", "lruk", "2q", "arc" };
+
+    /** System property that keeps the pages of new BufferPools off the heap */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.OffHeap";
+
+    // Hits noted before they are passed on to the replacement policy
+    private static final int ACCESS_BATCH = 64;
+
     private int numPages;
+    private long capacity;
+    private long cachedBytes;
     
-    private volatile LRUCache<PageId, Page> pages;
-    private volatile HashMap<TransactionId, Set<PageId>> pageTransactions;
-    private volatile LockManager lockManager;
+    private final ConcurrentHashMap<PageId, Page> pages;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> pageTransactions;
+    private final LockManager lockManager;
+    private final PageFlusher flusher;
+
+    // Chooses the pages to evict, guarded by policyLock
+    private final ReplacementPolicy policy;
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<PageId> accesses;
+    private final AtomicInteger numAccesses = new AtomicInteger();
+
+    // Frames of the pages kept off the heap, guarded by this
+    private final FrameArena arena;
+    private final HashMap<PageId, ByteBuffer> frames;
+
+    // Pin counts of the pinned pages, and the pins each transaction
+    // holds, guarded by pins
+    private final HashMap<PageId, Integer> pins;
+    private final HashMap<TransactionId, ArrayList<PageId>> transactionPins;
+    private int numPinLeaks;
+
+    private volatile PrintWriter trace;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, or the same number of bytes of pages of other sizes.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, System.getProperty(POLICY_PROPERTY, POLICIES[0]));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, or the same number of bytes of pages of other sizes.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy name of the replacement policy, one of {@link #POLICIES}
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public BufferPool(int numPages, String policy) {
+        this(numPages, policy, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, or the same number of bytes of pages of other sizes.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy name of the replacement policy, one of {@link #POLICIES}
+     * @param offHeap whether to keep the pages in a {@link FrameArena}
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public BufferPool(int numPages, String policy, boolean offHeap) {
+        this.policy = newPolicy(policy, numPages);
         this.numPages = numPages;
-        pageTransactions = new HashMap<TransactionId, Set<PageId>>();
+        this.capacity = (long) numPages * pageSize;
+        pageTransactions = new ConcurrentHashMap<TransactionId, Set<PageId>>();
         lockManager = new LockManager();
-        pages = new LRUCache<PageId, Page>(numPages){
-            @Override
-            public synchronized Page evict() {
-                Iterator<Page> pages = this.values();
-                while(pages.hasNext()){
-                    Page page = pages.next();
-                    if(page.isDirty() == null){
-                        this.remove(page.getId());
-                        return page;
-                    }
-                }
-                return null;
-            }
-        };
+        // Keep about a quarter of the pool clean
+        flusher = new PageFlusher(numPages / 4);
+        pages = new ConcurrentHashMap<PageId, Page>();
+        accesses = new ConcurrentLinkedQueue<PageId>();
+        arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+        frames = new HashMap<PageId, ByteBuffer>();
+        pins = new HashMap<PageId, Integer>();
+        transactionPins = new HashMap<TransactionId, ArrayList<PageId>>();
+    }
+
+    /**
+     * Creates a replacement policy
+     *
+     * @param name name of the policy, one of {@link #POLICIES}
+     * @param numPages number of pages of the pool the policy is for
+     * @return the policy
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static ReplacementPolicy newPolicy(String name, int numPages) {
+        String policy = name.toLowerCase();
+        if(policy.equals("lru"))
+            return new LRUPolicy();
+        if(policy.equals("clock"))
+            return new ClockPolicy();
+        if(policy.equals("lruk"))
+            return new LRUKPolicy(numPages);
+        if(policy.equals("2q"))
+            return new TwoQueuePolicy(numPages);
+        if(policy.equals("arc"))
+            return new ARCPolicy(numPages);
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+
+    /**
+     * @return the default number of bytes per page, used by files that
+     *         don't set their own page size
+     */
+    public static int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the default number of bytes per page of the database. Only
+     * affects files and buffer pools created afterwards.
+     *
+     * @param pageSize the default page size
+     */
+    public static void setPageSize(int pageSize) {
+        BufferPool.pageSize = pageSize;
+    }
+
+    /**
+     * Restores the default page size to {@link #PAGE_SIZE}
+     */
+    public static void resetPageSize() {
+        BufferPool.pageSize = PAGE_SIZE;
     }
 
     /**
@@ -76,34 +224,454 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, reading it in through the given access
+     * strategy if it is not in the buffer pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy the strategy of a large scan, or null
+     * @throws simpledb.TransactionAbortedException
+     * @throws simpledb.DbException
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
         
         // Get Lock on the page
         // Will throw TransactionAbortedException if failed
         lockManager.requestLock(tid, pid, perm);
+        PrintWriter trace = this.trace;
+        if(trace != null)
+            trace.println(pid.getTableId() + " " + pid.pageNumber());
         
         // If page already in buffer
-        if(pages.get(pid) != null){
-            // Check if transaction can acquire lock
-            if(pageTransactions.get(tid) == null)  
-                pageTransactions.put(tid, new HashSet<PageId>());
-            pageTransactions.get(tid).add(pid);
-            // Return the page
-            return pages.get(pid);
+        Page page = pages.get(pid);
+        if(page != null)
+            noteAccess(pid);
+        else
+            page = loadPage(pid, strategy);
+        trackPage(tid, pid);
+        return page;
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions, AccessStrategy)}, and pins it in the buffer
+     * pool: the page is not evicted until the transaction unpins it, or
+     * completes. A page may be pinned more than once, and is evicted again
+     * once every pin is released.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy the strategy of a large scan, or null
+     * @throws simpledb.TransactionAbortedException
+     * @throws simpledb.DbException
+     * @see #unpinPage
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        // Pinned before it is read, so it can't be evicted before it is
+        // returned
+        synchronized(pins){
+            Integer count = pins.get(pid);
+            pins.put(pid, count == null ? 1 : count + 1);
+            ArrayList<PageId> pids = transactionPins.get(tid);
+            if(pids == null){
+                pids = new ArrayList<PageId>();
+                transactionPins.put(tid, pids);
+            }
+            pids.add(pid);
         }
-        
-        // Page not in Buffer
-        // Check if cache size is greeater than numPages
-        if(pages.size() >= numPages)
-            this.evictPage();
-        // Add page to Buffer
+        boolean pinned = false;
+        try{
+            Page page = getPage(tid, pid, perm, strategy);
+            pinned = true;
+            return page;
+        }finally{
+            if(!pinned)
+                unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * Releases a pin on a page taken by {@link #pinPage}. The page may be
+     * evicted once all its pins are released, and must not be used after.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page
+     * @return false if the transaction holds no pin on the page, as when
+     *         the pin was released when the transaction completed
+     */
+    public boolean unpinPage(TransactionId tid, PageId pid) {
+        synchronized(pins){
+            ArrayList<PageId> pids = transactionPins.get(tid);
+            if(pids == null || !pids.remove(pid))
+                return false;
+            if(pids.isEmpty())
+                transactionPins.remove(tid);
+            unpin(pid);
+            return true;
+        }
+    }
+
+    /**
+     * Drops one pin of a page. The caller holds the monitor of pins.
+     */
+    private void unpin(PageId pid) {
+        int count = pins.get(pid);
+        if(count == 1)
+            pins.remove(pid);
+        else
+            pins.put(pid, count - 1);
+    }
+
+    /**
+     * Releases the pins a completing transaction didn't, counting them as
+     * leaks
+     */
+    private void releasePins(TransactionId tid) {
+        synchronized(pins){
+            ArrayList<PageId> pids = transactionPins.remove(tid);
+            if(pids == null)
+                return;
+            for(PageId pid: pids){
+                Debug.log("Transaction %d leaked a pin of page %d of table %d",
+                        tid == null ? -1 : tid.getId(), pid.pageNumber(),
+                        pid.getTableId());
+                unpin(pid);
+                numPinLeaks++;
+            }
+        }
+    }
+
+    /**
+     * @param pid the ID of a page
+     * @return true if the page is pinned
+     */
+    public boolean isPinned(PageId pid) {
+        synchronized(pins){
+            return pins.containsKey(pid);
+        }
+    }
+
+    /**
+     * @return the number of pages pinned
+     */
+    public int getNumPinned() {
+        synchronized(pins){
+            return pins.size();
+        }
+    }
+
+    /**
+     * @return the number of pins released only because the transaction
+     *         holding them completed
+     */
+    public int getNumPinLeaks() {
+        synchronized(pins){
+            return numPinLeaks;
+        }
+    }
+
+    /**
+     * Starts or stops recording the pages fetched by getPage, one line of
+     * <code>tableId pageNumber</code> per call, for replaying against the
+     * replacement policies.
+     *
+     * @param trace where to write the trace, or null to stop
+     * @see ReplacementBenchmark
+     */
+    public void setAccessTrace(PrintWriter trace) {
+        PrintWriter previous = this.trace;
+        this.trace = trace;
+        if(previous != null)
+            previous.flush();
+    }
+
+    /**
+     * Reads a page into the buffer pool, evicting pages to make room. The
+     * page is read without the lock of the BufferPool, and a copy loaded
+     * meanwhile by another thread is kept instead.
+     *
+     * @param pid the ID of the page to load
+     * @param strategy the strategy to read the page through, or null
+     * @return the cached page
+     * @throws DbException if no page can be evicted to make room
+     */
+    private Page loadPage(PageId pid, AccessStrategy strategy)
+            throws DbException {
         DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
-        pages.put(pid, dbFile.readPage(pid));
-        // Add transaction id to page
-        if(pageTransactions.get(tid) == null)
-            pageTransactions.put(tid, new HashSet<PageId>());
-        pageTransactions.get(tid).add(pid);
-        // return page
-        return pages.get(pid);
+        Page page = dbFile.readPage(pid);
+        synchronized(this){
+            // Never replace a copy loaded meanwhile, it may be dirty
+            Page loaded = pages.get(pid);
+            if(loaded != null)
+                return loaded;
+            cacheThrough(page, strategy);
+        }
+        return page;
+    }
+
+    /**
+     * Caches a page read in through an access strategy, in place of the
+     * oldest page on its ring if that page can be recycled
+     *
+     * @param page the page to cache
+     * @param strategy the strategy, or null to cache the page like any other
+     * @throws DbException if no page can be evicted to make room
+     */
+    private synchronized void cacheThrough(Page page, AccessStrategy strategy)
+            throws DbException {
+        if(strategy != null){
+            Page oldest = strategy.next();
+            PageId old = oldest == null ? null : oldest.getId();
+            if(old != null && pages.get(old) == oldest
+                    && oldest.isDirty() == null && !flusher.isPending(old)
+                    && !isPinned(old)){
+                pages.remove(old);
+                releaseFrame(oldest);
+                policyLock.lock();
+                try{
+                    policy.remove(old);
+                }finally{
+                    policyLock.unlock();
+                }
+                cachedBytes -= pageSize(old);
+            }
+        }
+        cachePage(page);
+        if(strategy != null)
+            strategy.add(page);
+    }
+
+    /**
+     * Notes that a transaction used a page, so the page is written or
+     * reverted when the transaction completes
+     */
+    private void trackPage(TransactionId tid, PageId pid) {
+        // Pages read without a transaction are never dirty
+        if(tid == null)
+            return;
+        Set<PageId> pids = pageTransactions.get(tid);
+        if(pids == null){
+            pids = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> raced = pageTransactions.putIfAbsent(tid, pids);
+            if(raced != null)
+                pids = raced;
+        }
+        pids.add(pid);
+    }
+
+    /**
+     * Notes a hit on a cached page. The hits are passed on to the
+     * replacement policy once enough are noted, unless another thread is
+     * using it.
+     */
+    private void noteAccess(PageId pid) {
+        accesses.offer(pid);
+        if(numAccesses.incrementAndGet() >= ACCESS_BATCH && policyLock.tryLock()){
+            try{
+                drainAccesses();
+            }finally{
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Passes the hits noted since the last call on to the replacement
+     * policy, in the order of the hits. The caller holds policyLock.
+     */
+    private void drainAccesses() {
+        PageId pid;
+        while((pid = accesses.poll()) != null){
+            numAccesses.decrementAndGet();
+            policy.access(pid);
+        }
+    }
+
+    /**
+     * Reads the specified page into the buffer pool ahead of its use, on
+     * behalf of a transaction that is about to read it. Never blocks: if a
+     * shared lock can't be granted right away, or no page can be evicted
+     * to make room, nothing is loaded.
+     *
+     * @param tid the ID of the transaction that will read the page
+     * @param pid the ID of the page to load
+     * @return true if the page is in the buffer pool afterwards
+     * @see PagePrefetcher
+     */
+    public boolean prefetchPage(TransactionId tid, PageId pid) {
+        return prefetchPage(tid, pid, null);
+    }
+
+    /**
+     * Reads the specified page into the buffer pool ahead of its use, like
+     * {@link #prefetchPage(TransactionId, PageId)}, through the access
+     * strategy of the scan that will read it.
+     *
+     * @param tid the ID of the transaction that will read the page
+     * @param pid the ID of the page to load
+     * @param strategy the strategy of the scan, or null
+     * @return true if the page is in the buffer pool afterwards
+     */
+    public boolean prefetchPage(TransactionId tid, PageId pid,
+            AccessStrategy strategy) {
+        if(pages.containsKey(pid))
+            return true;
+        if(!lockManager.grantLock(tid, pid, Permissions.READ_ONLY))
+            return false;
+        DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
+        Page page = dbFile.readPage(pid);
+        if(page == null)
+            return false;
+        synchronized(this){
+            // Never replace a copy loaded meanwhile, it may be dirty
+            if(pages.containsKey(pid))
+                return true;
+            try{
+                cacheThrough(page, strategy);
+            }catch(DbException e){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param pid the ID of a page
+     * @return true if the page is in the buffer pool
+     */
+    public boolean isCached(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * @return maximum number of pages of the default page size in this
+     *         buffer pool
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return maximum number of bytes of pages in this buffer pool
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the frames the pages are kept in, or null if they are kept
+     *         on the heap
+     */
+    public FrameArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Adds a page to the buffer pool, or replaces the cached copy of it,
+     * first evicting pages until there is room for it. Dirty pages are
+     * cached even if no page can be evicted, as they can't be dropped.
+     *
+     * @param page the page to cache
+     * @throws DbException if no page can be evicted for a clean page
+     */
+    private synchronized void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        boolean added = !pages.containsKey(pid);
+        if(added){
+            int size = pageSize(pid);
+            while(cachedBytes + size > capacity && pages.size() > 0){
+                try{
+                    this.evictPage();
+                }catch(DbException e){
+                    if(page.isDirty() == null)
+                        throw e;
+                    break;
+                }
+            }
+            cachedBytes += size;
+        }
+        Page previous = pages.put(pid, page);
+        if(previous != page){
+            if(previous != null)
+                releaseFrame(previous);
+            moveToFrame(page);
+        }
+        policyLock.lock();
+        try{
+            if(added)
+                policy.admit(pid);
+            else
+                policy.access(pid);
+        }finally{
+            policyLock.unlock();
+        }
+    }
+
+    private int pageSize(PageId pid) {
+        return Database.getCatalog().getDbFile(pid.getTableId()).getPageSize();
+    }
+
+    /**
+     * Moves the bytes of a cached heap page into its frame, taking a frame
+     * for it first if it has none. Pages of other kinds or sizes, and
+     * pages changed since their before image was set, stay on the heap.
+     */
+    private synchronized void moveToFrame(Page page) {
+        if(arena == null || !(page instanceof HeapPage))
+            return;
+        PageId pid = page.getId();
+        ByteBuffer frame = frames.get(pid);
+        if(frame == null){
+            if(pageSize(pid) != arena.getFrameSize())
+                return;
+            // Dirty pages may overfill the pool, and then stay on the heap
+            frame = arena.allocate();
+            if(frame == null)
+                return;
+            frames.put(pid, frame);
+        }
+        ((HeapPage) page).moveTo(frame);
+    }
+
+    /**
+     * Takes back the frame of a page leaving the pool, copying the bytes
+     * the page keeps in it to the heap for whoever still uses the page.
+     */
+    private synchronized void releaseFrame(Page page) {
+        if(arena == null)
+            return;
+        ByteBuffer frame = frames.remove(page.getId());
+        if(frame == null)
+            return;
+        ((HeapPage) page).moveFrom(frame);
+        arena.release(frame);
+    }
+
+    /**
+     * Acquires a lock on a page without reading it, for a transaction that
+     * may then find it doesn't need the page. The lock is released when
+     * the transaction completes, like those taken by getPage.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     * @throws simpledb.TransactionAbortedException
+     * @see ZoneMap
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.requestLock(tid, pid, perm);
     }
 
     /**
@@ -142,6 +710,11 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * If the transaction has records in the LogFile, as when its pages
+     * were stolen, and didn't commit or abort there already, it is
+     * committed or aborted there too, so the pages it wrote to disk are
+     * restored on abort. A commit is logged after the pages are.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -149,28 +722,47 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        if(!pageTransactions.containsKey(tid)){
-            lockManager.releaseAllPages(tid);
-            return;
-        }
-        for(PageId pid: pageTransactions.get(tid)){
-            if(pages.containsKey(pid) && 
-                    pages.get(pid).isDirty() == tid){
-                // If Commit then flush
-                if(commit)
-                    flushPage(pid);
-                // Else if Abort then
-                // Revert to on disk page
-                else{
-                    DbFile dbFile = Database.
-                            getCatalog().getDbFile(pid.getTableId());
-                    Page onDiskPage = dbFile.readPage(pid);
-                    pages.put(pid, onDiskPage);
+        releasePins(tid);
+        LogFile log = Database.getLogFile();
+        boolean logged = tid != null && log != null;
+        if(logged && !commit && log.isLive(tid))
+            log.logAbort(tid);
+        Set<PageId> pids = tid == null ? null : pageTransactions.remove(tid);
+        if(pids != null){
+            for(PageId pid: pids){
+                Page page = pages.get(pid);
+                if(page != null && page.isDirty() == tid){
+                    // If Commit then flush
+                    if(commit)
+                        flushPage(pid);
+                    // Else if Abort then
+                    // Revert to on disk page, once any committed copy of it
+                    // waiting to be written is there
+                    else{
+                        flusher.flush(pid);
+                        DbFile dbFile = Database.
+                                getCatalog().getDbFile(pid.getTableId());
+                        revertPage(page, dbFile.readPage(pid));
+                    }
                 }
             }
         }
+        // The pages are only in the log until the PageFlusher writes them,
+        // so the commit is logged for recovery to redo them
+        if(commit && logged && log.isLive(tid))
+            log.logCommit(tid);
         lockManager.releaseAllPages(tid);
-        pageTransactions.get(tid).clear();
+    }
+
+    /**
+     * Replaces a page changed by an aborted transaction with the copy on
+     * disk, in the same frame
+     */
+    private synchronized void revertPage(Page page, Page onDiskPage) {
+        if(pages.replace(page.getId(), page, onDiskPage)){
+            releaseFrame(page);
+            moveToFrame(onDiskPage);
+        }
     }
 
     /**
@@ -183,6 +775,9 @@ public class BufferPool {
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
      *
+     * The entry of the tuple is added to each index of the table, as part
+     * of the same transaction, and its position to the bitmap indexes.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -194,10 +789,14 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDbFile(tableId);
         ArrayList<Page> pageList = file.insertTuple(tid, t);
+        for(HashIndexFile index: Database.getCatalog().getIndexes(tableId))
+            pageList.addAll(index.insertTuple(tid, index.getEntry(t)));
+        for(BitmapIndex index: Database.getCatalog().getBitmapIndexes(tableId))
+            index.add(t);
         for(Page page: pageList){
             page.markDirty(true, tid);
-            pages.put(page.getId(), page);
-            pageTransactions.get(tid).add(page.getId());
+            cachePage(page);
+            trackPage(tid, page.getId());
         }
     }
 
@@ -211,6 +810,9 @@ public class BufferPool {
      * been dirtied, as it is not possible that a new page was created during the deletion
      * (note difference from addTuple).
      *
+     * The entry of the tuple is removed from each index of the table.
+     * Bitmap indexes keep its position until a scan finds it out of date.
+     *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
      * @throws simpledb.DbException
@@ -220,27 +822,54 @@ public class BufferPool {
             throws DbException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile file = Database.getCatalog().getDbFile(tableId);
-        Page page = file.deleteTuple(tid, t);
-        page.markDirty(true, tid);
-        pages.put(page.getId(), page);
-        pageTransactions.get(tid).add(page.getId());
+        // The entries are taken before the tuple loses its RecordId
+        List<HashIndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        for(HashIndexFile index: indexes)
+            entries.add(index.getEntry(t));
+        ArrayList<Page> pageList = new ArrayList<Page>();
+        pageList.add(file.deleteTuple(tid, t));
+        for(int i = 0; i < indexes.size(); i++)
+            pageList.add(indexes.get(i).deleteTuple(tid, entries.get(i)));
+        for(Page page: pageList){
+            page.markDirty(true, tid);
+            cachePage(page);
+            trackPage(tid, page.getId());
+        }
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, and wait for all pages waiting to be
+     * written.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      * @throws java.io.IOException
      */
     public synchronized void flushAllPages() throws IOException {
-        for(TransactionId tid: pageTransactions.keySet()){
-            for(PageId pid: pageTransactions.get(tid)){
+        for(Set<PageId> pids: pageTransactions.values()){
+            for(PageId pid: pids){
                 Page page = pages.get(pid);
-                if(page.isDirty() != null)
+                if(page != null && page.isDirty() != null)
                     // Need to flush
                     this.flushPage(page.getId());
             }
         }
+        flusher.flushAll();
+    }
+
+    /**
+     * Writes all pages waiting to be written and stops writing pages in
+     * the background. Used when the BufferPool is replaced.
+     */
+    public void close() {
+        flusher.close();
+    }
+
+    /**
+     * @return the number of pages waiting to be written to disk
+     */
+    public int getNumPendingWrites() {
+        return flusher.getNumPending();
     }
 
     /** 
@@ -251,26 +880,55 @@ public class BufferPool {
      * @param pid
      */
     public synchronized void discardPage(PageId pid) {
-        this.pages.remove(pid);
+        try{
+            flusher.flush(pid);
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        Page page = pages.remove(pid);
+        if(page != null){
+            releaseFrame(page);
+            cachedBytes -= pageSize(pid);
+            policyLock.lock();
+            try{
+                policy.remove(pid);
+            }finally{
+                policyLock.unlock();
+            }
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. The changes to the page are logged
+     * and a copy of it is handed to the PageFlusher, which writes it once
+     * the log is on disk. The page is clean afterwards.
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
+        Page page = pages.get(pid);
+        TransactionId dirtier = page == null ? null : page.isDirty();
+        if(dirtier == null)
+            return;
+        LogFile log = Database.getLogFile();
+        if(log != null)
+            log.logWrite(dirtier, page.getBeforeImage(), page);
+        page.setBeforeImage();
         DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
-        dbFile.writePage(pages.get(pid));
-        pages.get(pid).markDirty(false, null);
+        flusher.add(dbFile, page.getBeforeImage());
+        page.markDirty(false, null);
+        moveToFrame(page);
     }
 
     /** 
-     * Write all pages of the specified transaction to disk.
+     * Write all pages of the specified transaction to disk. The pages are
+     * logged at once and written by the PageFlusher later.
      * @param tid
      * @throws java.io.IOException
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-        Set<PageId> pageIds = pageTransactions.get(tid);
+        Set<PageId> pageIds = tid == null ? null : pageTransactions.get(tid);
+        if(pageIds == null)
+            return;
         for(PageId pid: pageIds){
             if(pages.containsKey(pid))
                 flushPage(pid);
@@ -280,20 +938,97 @@ public class BufferPool {
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages that are not waiting to be written are discarded, so
+     * that the page on disk is up to date, and pinned pages are skipped.
+     * Only the cached copy is dropped: the locks on the page are kept
+     * until their transactions complete, as the page on disk may hold
+     * changes stolen from one of them.
      */
     private synchronized void evictPage() throws DbException {
         try{
-            Page page = pages.evict();
-            // Check if no non-dirty page is in cache
+            Page page = evictClean();
+            if(page == null && flusher.getNumPending() > 0){
+                // Clean pages may be waiting to be written; write them now
+                flusher.flushAll();
+                page = evictClean();
+            }
+            // Every page is dirty; steal one
+            if(page == null)
+                page = stealDirty();
             if(page == null)
-                throw new DbException("NOSTEAL: No non-dirty page found for eviction.");
-            if(page.isDirty() != null)
-                flushPage(page.getId());
-            lockManager.removePage(page.getId());
+                throw new DbException("No page found for eviction.");
+            releaseFrame(page);
+            cachedBytes -= pageSize(page.getId());
         }catch (IOException ioe){
             throw new DbException("IOException: " + ioe.getMessage());
         }
     }
+
+    /**
+     * Writes the dirty page chosen by the replacement policy to disk and
+     * removes it from the page table, once its before image is forced to
+     * the log. Pages that are pinned or waiting to be written are skipped.
+     *
+     * @return the removed page, or null if there is none or no log
+     */
+    private synchronized Page stealDirty() throws IOException {
+        LogFile log = Database.getLogFile();
+        if(log == null)
+            return null;
+        PageId pid;
+        policyLock.lock();
+        try{
+            drainAccesses();
+            pid = policy.evict(new ReplacementPolicy.Filter() {
+                public boolean canEvict(PageId pid) {
+                    Page page = pages.get(pid);
+                    return page != null && page.isDirty() != null
+                            && !flusher.isPending(pid) && !isPinned(pid);
+                }
+            });
+        }finally{
+            policyLock.unlock();
+        }
+        if(pid == null)
+            return null;
+        Page page = pages.get(pid);
+        TransactionId dirtier = page.isDirty();
+        try{
+            log.logSteal(dirtier, page.getBeforeImage(), page);
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+        }catch(IOException e){
+            policyLock.lock();
+            try{
+                policy.admit(pid);
+            }finally{
+                policyLock.unlock();
+            }
+            throw e;
+        }
+        return pages.remove(pid);
+    }
+
+    /**
+     * Removes the clean page that is not pinned or waiting to be written
+     * chosen by the replacement policy from the page table
+     *
+     * @return the removed page, or null if there is none
+     */
+    private synchronized Page evictClean() {
+        policyLock.lock();
+        try{
+            drainAccesses();
+            PageId pid = policy.evict(new ReplacementPolicy.Filter() {
+                public boolean canEvict(PageId pid) {
+                    Page page = pages.get(pid);
+                    return page != null && page.isDirty() == null
+                            && !flusher.isPending(pid) && !isPinned(pid);
+                }
+            });
+            return pid == null ? null : pages.remove(pid);
+        }finally{
+            policyLock.unlock();
+        }
+    }
     
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.Random;
+
+/**
+ * BufferPoolBenchmark measures how the throughput of BufferPool.getPage
+ * scales with the number of threads. Each thread runs short read-only
+ * transactions that each fetch a number of random pages of a table. It
+ * is run with a table that fits in the BufferPool, so that every fetch is
+ * a hit, and with one twice its size, so that half the fetches read and
+ * evict a page.
+ * <p>
+ * Usage: <code>java simpledb.BufferPoolBenchmark [seconds] [maxThreads]</code>
+ */
+public class BufferPoolBenchmark {
+
+    private static final int DEFAULT_SECONDS = 2;
+    private static final int DEFAULT_MAX_THREADS = 8;
+    private static final int POOL_PAGES = 1000;
+    private static final int PAGES_PER_TRANSACTION = 100;
+
+    public static void main(String[] argv) throws Exception {
+        int seconds = argv.length > 0
+                ? Integer.parseInt(argv[0]) : DEFAULT_SECONDS;
+        int maxThreads = argv.length > 1
+                ? Integer.parseInt(argv[1]) : DEFAULT_MAX_THREADS;
+
+        for(int tablePages : new int[] { POOL_PAGES, 2 * POOL_PAGES }){
+            HeapFile table = ScanBenchmark.createTable(tablePages);
+            System.out.println("Fetching random pages of " + table.numPages()
+                    + " pages with a BufferPool of " + POOL_PAGES + " pages");
+            for(int threads = 1; threads <= maxThreads; threads *= 2){
+                Database.resetBufferPool(POOL_PAGES);
+                run(table, threads, 1000L); // warm up
+                long fetches = run(table, threads, seconds * 1000L);
+                System.out.println(String.format("%3d threads %12.0f pages/s",
+                        threads, fetches / (double) seconds));
+            }
+            Database.getCatalog().clear();
+            table.close();
+            table.getFile().delete();
+        }
+    }
+
+    /**
+     * Runs the given number of threads fetching pages for a while
+     *
+     * @return the number of pages fetched
+     */
+    static long run(final HeapFile table, int threads, final long millis)
+            throws InterruptedException {
+        final long[] fetched = new long[threads];
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            final int worker = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random random = new Random(worker);
+                    BufferPool bp = Database.getBufferPool();
+                    int numPages = table.numPages();
+                    try{
+                        while(System.currentTimeMillis() < end){
+                            TransactionId tid = new TransactionId();
+                            for(int j = 0; j < PAGES_PER_TRANSACTION; j++)
+                                bp.getPage(tid, new HeapPageId(table.getId(),
+                                        random.nextInt(numPages)),
+                                        Permissions.READ_ONLY);
+                            bp.transactionComplete(tid);
+                            fetched[worker] += PAGES_PER_TRANSACTION;
+                        }
+                    }catch(Exception e){
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        long total = 0;
+        for(int i = 0; i < threads; i++){
+            workers[i].join();
+            total += fetched[i];
+        }
+        return total;
+    }
+
+}
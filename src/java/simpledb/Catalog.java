@@ -32,6 +32,9 @@ public class Catalog {
 
     private HashMap<Integer, CatalogItem> idItemMap;
     private HashMap<String, Integer> nameIdMap;
+    private HashMap<Integer, HashIndexFile> indexIdMap;
+    private HashMap<Integer, ArrayList<HashIndexFile>> tableIndexMap;
+    private HashMap<Integer, ArrayList<BitmapIndex>> bitmapIndexMap;
     
     /**
      * Constructor.
@@ -41,6 +44,9 @@ public class Catalog {
     public Catalog() {
         idItemMap = new HashMap<Integer,CatalogItem>();
         nameIdMap = new HashMap<String, Integer>();
+        indexIdMap = new HashMap<Integer, HashIndexFile>();
+        tableIndexMap = new HashMap<Integer, ArrayList<HashIndexFile>>();
+        bitmapIndexMap = new HashMap<Integer, ArrayList<BitmapIndex>>();
     }
 
     /**
@@ -109,11 +115,103 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-        if(!idItemMap.containsKey(tableid))
+        if(!idItemMap.containsKey(tableid)){
+            // The pages of indexes are read through the catalog as well
+            if(indexIdMap.containsKey(tableid))
+                return indexIdMap.get(tableid);
             throw new NoSuchElementException();
+        }
         return idItemMap.get(tableid).dbFile;
     }
 
+    /**
+     * Add an index on a table to the catalog. The BufferPool keeps the
+     * index up to date as tuples are inserted into and deleted from the
+     * table. Indexes are not tables: they have no name, and are not
+     * returned by {@link #tableIdIterator}, but their pages can be read
+     * through {@link #getDbFile}.
+     * 
+     * @param index the index to add; index.getTableId() is the id of the
+     *    indexed table
+     */
+    public void addIndex(HashIndexFile index) {
+        indexIdMap.put(index.getId(), index);
+        if(!tableIndexMap.containsKey(index.getTableId()))
+            tableIndexMap.put(index.getTableId(), new ArrayList<HashIndexFile>());
+        tableIndexMap.get(index.getTableId()).add(index);
+    }
+
+    /**
+     * Returns the indexes on a table
+     * 
+     * @param tableid The id of the table
+     * @return the indexes, an empty list if the table has none
+     */
+    public List<HashIndexFile> getIndexes(int tableid) {
+        if(!tableIndexMap.containsKey(tableid))
+            return Collections.emptyList();
+        return tableIndexMap.get(tableid);
+    }
+
+    /**
+     * Returns the index on a field of a table
+     * 
+     * @param tableid The id of the table
+     * @param field The index of the field in the tuples of the table
+     * @return the index, or null if the field has none
+     */
+    public HashIndexFile getIndex(int tableid, int field) {
+        for(HashIndexFile index : getIndexes(tableid))
+            if(index.getField() == field)
+                return index;
+        return null;
+    }
+
+    /**
+     * Loads a bitmap index on a table and adds it to the catalog. The
+     * BufferPool adds the tuples inserted into the table to the index.
+     * 
+     * @param index the index to add; index.getTableId() is the id of the
+     *    indexed table
+     * @throws DbException if the index has to be built and the table
+     *    can't be read
+     * @throws TransactionAbortedException if building the index is aborted
+     * @see BitmapIndex#load
+     */
+    public void addBitmapIndex(BitmapIndex index) throws DbException,
+            TransactionAbortedException {
+        index.load();
+        if(!bitmapIndexMap.containsKey(index.getTableId()))
+            bitmapIndexMap.put(index.getTableId(), new ArrayList<BitmapIndex>());
+        bitmapIndexMap.get(index.getTableId()).add(index);
+    }
+
+    /**
+     * Returns the bitmap indexes on a table
+     * 
+     * @param tableid The id of the table
+     * @return the indexes, an empty list if the table has none
+     */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        if(!bitmapIndexMap.containsKey(tableid))
+            return Collections.emptyList();
+        return bitmapIndexMap.get(tableid);
+    }
+
+    /**
+     * Returns the bitmap index on a field of a table
+     * 
+     * @param tableid The id of the table
+     * @param field The index of the field in the tuples of the table
+     * @return the index, or null if the field has none
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int field) {
+        for(BitmapIndex index : getBitmapIndexes(tableid))
+            if(index.getField() == field)
+                return index;
+        return null;
+    }
+
     /**
      * Returns the Primary key of the table w/ tableId
      * 
@@ -145,17 +243,55 @@ public class Catalog {
     }
     
     /** 
-     * Delete all tables from the catalog 
+     * Delete all tables and indexes from the catalog and close their files
      * 
      * @author hrily
      */
     public void clear() {
+        for(CatalogItem item: idItemMap.values())
+            item.dbFile.close();
+        for(HashIndexFile index: indexIdMap.values())
+            index.close();
+        for(List<BitmapIndex> indexes: bitmapIndexMap.values())
+            for(BitmapIndex index: indexes)
+                index.close();
         idItemMap.clear();
         nameIdMap.clear();
+        indexIdMap.clear();
+        tableIndexMap.clear();
+        bitmapIndexMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <code>name (field type [pk], ...) [options]</code>,
+     * where options may be:
+     * <ul>
+     * <li><code>mmap</code> -- read the table through a memory mapping</li>
+     * <li><code>slotted</code> -- store the table in SlottedHeapPages, with
+     * variable length strings</li>
+     * <li><code>pax</code> -- store the table in a PaxFile, with the values
+     * of each column together</li>
+     * <li><code>compressed</code> -- store the table in a CompressedHeapFile,
+     * compressing each page on disk</li>
+     * <li><code>btree</code> or <code>btree=field</code> -- store the table
+     * in a BTreeFile ordered by the primary key, or by the given field</li>
+     * <li><code>hash=field</code> -- add a HashIndexFile on the given
+     * field, stored in <code>name.field.idx</code> next to the table; it
+     * is built from the table if the file doesn't exist. May be given for
+     * several fields.</li>
+     * <li><code>bitmap=field</code> -- add a BitmapIndex on the given
+     * field, saved in <code>name.field.bmi</code> next to the table; it
+     * is built from the table if the file is missing or out of date. May
+     * be given for several fields.</li>
+     * <li><code>pagesize=N</code> -- use pages of N bytes instead of the
+     * default page size, {@link BufferPool#getPageSize}</li>
+     * <li><code>segmentpages=N</code> -- split the table into segment
+     * files <code>name.dat.0</code>, <code>name.dat.1</code>, ... of N
+     * pages each, N a multiple of {@link HeapFile#EXTENT_PAGES}</li>
+     * </ul>
+     * Once the tables are added, the log is recovered, unless it was
+     * already written to. See {@link LogFile#recoverOnStartup}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -163,6 +299,7 @@ public class Catalog {
         String baseFolder=new File(catalogFile).getParent();
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
+            ArrayList<HashIndexFile> unbuilt = new ArrayList<HashIndexFile>();
             
             while ((line = br.readLine()) != null) {
                 //assume line is of the format name (field type, field type, ...)
@@ -193,19 +330,112 @@ public class Catalog {
                         }
                     }
                 }
+                // table options follow the field list
+                boolean memoryMapped = false;
+                boolean slotted = false;
+                boolean pax = false;
+                boolean compressed = false;
+                String btreeKey = null;
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
+                int pageSize = BufferPool.getPageSize();
+                int segmentPages = 0;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.length() == 0)
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().equals("pax"))
+                        pax = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (option.toLowerCase().equals("btree"))
+                        btreeKey = primaryKey.length() > 0 ? primaryKey : names.get(0);
+                    else if (option.toLowerCase().startsWith("btree="))
+                        btreeKey = option.substring("btree=".length());
+                    else if (option.toLowerCase().startsWith("hash="))
+                        hashed.add(option.substring("hash=".length()));
+                    else if (option.toLowerCase().startsWith("bitmap="))
+                        bitmapped.add(option.substring("bitmap=".length()));
+                    else if (option.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                    else if (option.toLowerCase().startsWith("segmentpages="))
+                        segmentPages = Integer.parseInt(option.substring("segmentpages=".length()));
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                if (pax && (slotted || compressed))
+                    throw new IllegalArgumentException("pax tables can't be slotted or compressed");
+                if (compressed && memoryMapped)
+                    throw new IllegalArgumentException("compressed tables can't be memory mapped");
+                if (btreeKey != null && (pax || slotted || compressed || memoryMapped))
+                    throw new IllegalArgumentException("btree tables can't be pax, slotted, compressed or memory mapped");
+                if (btreeKey != null && !hashed.isEmpty())
+                    throw new IllegalArgumentException("btree tables can't have hash indexes");
+                if (btreeKey != null && !bitmapped.isEmpty())
+                    throw new IllegalArgumentException("btree tables can't have bitmap indexes");
+                if (segmentPages > 0 && (btreeKey != null || pax || compressed))
+                    throw new IllegalArgumentException("btree, pax and compressed tables can't be segmented");
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (btreeKey != null)
+                    tabHf = new BTreeFile(dataFile, t, t.fieldNameToIndex(btreeKey), pageSize);
+                else if (pax)
+                    tabHf = new PaxFile(dataFile, t, pageSize, memoryMapped);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(dataFile, t, pageSize, slotted);
+                else
+                    tabHf = new HeapFile(dataFile, t, pageSize, memoryMapped, slotted, segmentPages);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : hashed) {
+                    File indexFile = new File(baseFolder+"/"+name+"."+field+".idx");
+                    boolean build = !indexFile.exists();
+                    HashIndexFile index = new HashIndexFile(indexFile, tabHf.getId(),
+                            t, t.fieldNameToIndex(field), pageSize);
+                    addIndex(index);
+                    if (build)
+                        unbuilt.add(index);
+                    System.out.println("Added hash index on " + name + "." + field);
+                }
+                for (String field : bitmapped) {
+                    File indexFile = new File(baseFolder+"/"+name+"."+field+".bmi");
+                    addBitmapIndex(new BitmapIndex(indexFile, (HeapFile) tabHf,
+                            t.fieldNameToIndex(field)));
+                    System.out.println("Added bitmap index on " + name + "." + field);
+                }
             }
+            // The log names tables by id, so it is recovered once they are
+            // all in the catalog, before building indexes writes to it
+            Database.getLogFile().recoverOnStartup();
+            for (HashIndexFile index : unbuilt)
+                index.build();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         }
     }
 }
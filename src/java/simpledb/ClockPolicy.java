@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * ClockPolicy approximates LRU with a reference bit per page. The pages
+ * sit on a ring swept by a hand; a hit only sets the bit of its page, and
+ * the hand clears the bits it passes and evicts the first page it finds
+ * with the bit clear, so a page survives one sweep for each hit.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> ring = new ArrayList<PageId>();
+    private final ArrayList<Boolean> referenced = new ArrayList<Boolean>();
+    // Slot of each cached page on the ring, and the slots left free
+    private final HashMap<PageId, Integer> slots = new HashMap<PageId, Integer>();
+    private final ArrayList<Integer> free = new ArrayList<Integer>();
+    private int hand;
+
+    public void admit(PageId pid) {
+        if(slots.containsKey(pid)){
+            access(pid);
+            return;
+        }
+        int slot;
+        if(free.isEmpty()){
+            slot = ring.size();
+            ring.add(pid);
+            referenced.add(Boolean.FALSE);
+        }else{
+            slot = free.remove(free.size() - 1);
+            ring.set(slot, pid);
+            referenced.set(slot, Boolean.FALSE);
+        }
+        slots.put(pid, slot);
+    }
+
+    public void access(PageId pid) {
+        Integer slot = slots.get(pid);
+        if(slot != null)
+            referenced.set(slot, Boolean.TRUE);
+    }
+
+    public void remove(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if(slot != null){
+            ring.set(slot, null);
+            free.add(slot);
+        }
+    }
+
+    public PageId evict(Filter filter) {
+        // Two sweeps clear every bit, so a third finds nothing new
+        for(int i = 0; i < 2 * ring.size(); i++){
+            if(hand >= ring.size())
+                hand = 0;
+            int slot = hand++;
+            PageId pid = ring.get(slot);
+            if(pid == null)
+                continue;
+            if(referenced.get(slot)){
+                referenced.set(slot, Boolean.FALSE);
+            }else if(filter.canEvict(pid)){
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+}
@@ -0,0 +1,334 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedHeapFile is a HeapFile that compresses each page with zlib when
+ * it is written and decompresses it when it is read. It suits large tables
+ * that are mostly read, where reading fewer bytes from disk saves more time
+ * than decompressing them costs. Pages in the BufferPool are not
+ * compressed.
+ * <p>
+ * Compressed pages vary in size, so the data file is a sequence of
+ * compressed pages in no particular order, and a page index next to it, in
+ * a file with the suffix {@link #INDEX_SUFFIX}, holds the offset, the
+ * length and the space allocated for each page:
+ * <pre>
+ *   (long offset, int length, int capacity) * number of pages
+ * </pre>
+ * A page is rewritten in place if it still fits in its space, and appended
+ * to the end of the data file otherwise, leaving its old space unused. The
+ * index entry is written after the page, so a crash while appending leaves
+ * the old copy of the page in use. A page that doesn't compress below the
+ * page size is stored uncompressed, with a length of the page size. A
+ * length of 0 is an empty page.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Suffix appended to the name of the data file to name its index */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int ENTRY_SIZE = 16;
+
+    private final File indexFile;
+    private final int level;
+
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int count;
+    private long end;
+    private RandomAccessFile index;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, with
+     * HeapPages of the default page size and the default compression level.
+     *
+     * @param f
+     *            the file that stores the compressed pages
+     * @param td
+     *            the tuple desc of the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize(), false);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, with
+     * the default compression level.
+     *
+     * @param f
+     *            the file that stores the compressed pages
+     * @param td
+     *            the tuple desc of the file
+     * @param pageSize
+     *            bytes per page of the file, before compression
+     * @param slotted
+     *            whether pages are SlottedHeapPages instead of HeapPages
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize,
+            boolean slotted) {
+        this(f, td, pageSize, slotted, JZlib.Z_DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the compressed pages
+     * @param td
+     *            the tuple desc of the file
+     * @param pageSize
+     *            bytes per page of the file, before compression
+     * @param slotted
+     *            whether pages are SlottedHeapPages instead of HeapPages
+     * @param level
+     *            zlib compression level, from JZlib.Z_BEST_SPEED to
+     *            JZlib.Z_BEST_COMPRESSION
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize,
+            boolean slotted, int level) {
+        super(f, td, pageSize, false, slotted);
+        this.indexFile = new File(f.getPath() + INDEX_SUFFIX);
+        this.level = level;
+    }
+
+    /**
+     * Reads the page index, if it is not loaded yet. If the index can't be
+     * read, the file is treated as empty, but new pages are still written
+     * after any data already in the file.
+     */
+    private synchronized void loadIndex() {
+        if(offsets != null)
+            return;
+        offsets = new long[16];
+        lengths = new int[16];
+        capacities = new int[16];
+        count = 0;
+        end = getFile().length();
+        if(!indexFile.exists())
+            return;
+        try{
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile)));
+            try{
+                int entries = (int) (indexFile.length() / ENTRY_SIZE);
+                for(int i = 0; i < entries; i++)
+                    setEntry(i, dis.readLong(), dis.readInt(), dis.readInt());
+            }finally{
+                dis.close();
+            }
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+    }
+
+    private void setEntry(int pageNumber, long offset, int length, int capacity) {
+        if(pageNumber >= offsets.length){
+            int size = Math.max(offsets.length * 2, pageNumber + 1);
+            long[] newOffsets = new long[size];
+            int[] newLengths = new int[size];
+            int[] newCapacities = new int[size];
+            System.arraycopy(offsets, 0, newOffsets, 0, count);
+            System.arraycopy(lengths, 0, newLengths, 0, count);
+            System.arraycopy(capacities, 0, newCapacities, 0, count);
+            offsets = newOffsets;
+            lengths = newLengths;
+            capacities = newCapacities;
+        }
+        offsets[pageNumber] = offset;
+        lengths[pageNumber] = length;
+        capacities[pageNumber] = capacity;
+        count = Math.max(count, pageNumber + 1);
+        end = Math.max(end, offset + capacity);
+    }
+
+    /**
+     * Writes the index entry of a page, and of any pages between the last
+     * page and it, which are empty.
+     */
+    private void writeEntries(int from, int to) throws IOException {
+        if(index == null)
+            index = new RandomAccessFile(indexFile, "rw");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        for(int i = from; i <= to; i++){
+            dos.writeLong(offsets[i]);
+            dos.writeInt(lengths[i]);
+            dos.writeInt(capacities[i]);
+        }
+        index.seek((long) from * ENTRY_SIZE);
+        index.write(bytes.toByteArray());
+    }
+
+    /**
+     * Stores the compressed bytes of a page, in its old space if they fit
+     * and at the end of the data file otherwise.
+     */
+    private synchronized void store(int pageNumber, byte[] compressed)
+            throws IOException {
+        loadIndex();
+        int first = Math.min(count, pageNumber);
+        long offset = end;
+        int capacity = compressed.length;
+        if(pageNumber < count && compressed.length <= capacities[pageNumber]){
+            offset = offsets[pageNumber];
+            capacity = capacities[pageNumber];
+        }
+        writeFully(ByteBuffer.wrap(compressed), offset);
+        setEntry(pageNumber, offset, compressed.length, capacity);
+        writeEntries(first, pageNumber);
+    }
+
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[getPageSize()];
+        try{
+            long offset = 0;
+            int length = 0;
+            synchronized(this){
+                loadIndex();
+                if(pid.pageNumber() < count){
+                    offset = offsets[pid.pageNumber()];
+                    length = lengths[pid.pageNumber()];
+                }
+            }
+            if(length == data.length){
+                readFully(ByteBuffer.wrap(data), offset);
+            }else if(length > 0){
+                byte[] compressed = new byte[length];
+                readFully(ByteBuffer.wrap(compressed), offset);
+                inflate(compressed, data);
+            }
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        store(page.getId().pageNumber(), deflate(page.getPageData()));
+    }
+
+    @Override
+    synchronized int writeNewPages(ByteBuffer pages, int count)
+            throws IOException {
+        int first = numPages();
+        byte[] data = new byte[getPageSize()];
+        for(int i = 0; i < count; i++){
+            pages.get(data);
+            store(first + i, deflate(data));
+        }
+        return first;
+    }
+
+    /**
+     * Adds an empty page to the index. Compressed pages vary in size, so
+     * no space is allocated until the page is written.
+     */
+    @Override
+    synchronized HeapPageId allocatePage() throws IOException {
+        loadIndex();
+        int pageNumber = count;
+        setEntry(pageNumber, end, 0, 0);
+        writeEntries(pageNumber, pageNumber);
+        return new HeapPageId(getId(), pageNumber);
+    }
+
+    /**
+     * Drops the index entries of the removed pages, and the space after the
+     * last page still in use.
+     */
+    @Override
+    synchronized void truncatePages(int numPages) throws IOException {
+        loadIndex();
+        count = Math.min(count, numPages);
+        end = 0;
+        for(int i = 0; i < count; i++)
+            end = Math.max(end, offsets[i] + capacities[i]);
+        truncateBytes(end);
+        if(index == null)
+            index = new RandomAccessFile(indexFile, "rw");
+        index.setLength((long) count * ENTRY_SIZE);
+    }
+
+    public synchronized int numPages() {
+        loadIndex();
+        return count;
+    }
+
+    /**
+     * Closes the data file and the index. Both are reopened on the next
+     * read or write.
+     */
+    public void close() {
+        super.close();
+        synchronized(this){
+            if(index == null)
+                return;
+            try{
+                index.close();
+            }catch(IOException ioe){
+                ioe.printStackTrace();
+            }
+            index = null;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the data file and index on disk
+     */
+    public long getStoredSize() {
+        return getFile().length() + indexFile.length();
+    }
+
+    /**
+     * Compresses a page, or returns it unchanged if it doesn't get smaller
+     */
+    private byte[] deflate(byte[] page) throws IOException {
+        // zlib output is at most a few bytes per 16KB larger than its input
+        byte[] out = new byte[page.length + page.length / 1000 + 64];
+        ZStream z = new ZStream();
+        z.deflateInit(level);
+        z.next_in = page;
+        z.next_in_index = 0;
+        z.avail_in = page.length;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = out.length;
+        int err = z.deflate(JZlib.Z_FINISH);
+        z.deflateEnd();
+        if(err != JZlib.Z_STREAM_END)
+            throw new IOException("Failed to compress page: " + z.msg);
+        if(z.total_out >= page.length)
+            return page;
+        byte[] compressed = new byte[(int) z.total_out];
+        System.arraycopy(out, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    private static void inflate(byte[] compressed, byte[] page)
+            throws IOException {
+        ZStream z = new ZStream();
+        z.inflateInit();
+        z.next_in = compressed;
+        z.next_in_index = 0;
+        z.avail_in = compressed.length;
+        z.next_out = page;
+        z.next_out_index = 0;
+        z.avail_out = page.length;
+        int err = z.inflate(JZlib.Z_FINISH);
+        z.inflateEnd();
+        if(err != JZlib.Z_STREAM_END || z.total_out != page.length)
+            throw new IOException("Corrupt compressed page: " + z.msg);
+    }
+
+}
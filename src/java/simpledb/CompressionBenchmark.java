@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+import com.jcraft.jzlib.JZlib;
+
+/**
+ * CompressionBenchmark compares scanning a HeapFile with scanning
+ * CompressedHeapFiles of the same tuples, at a few compression levels. The
+ * table has the low entropy columns typical of archival tables: an
+ * increasing key, a date-like column and two columns of few distinct
+ * values. For each file it reports the compression ratio and the scan
+ * throughput in pages and uncompressed megabytes per second.
+ * <p>
+ * Files recently written are usually still in the operating system cache,
+ * so the scans mostly measure decompression; drop the cache between the
+ * load and the scans to measure reads from disk.
+ * <p>
+ * Usage: <code>java simpledb.CompressionBenchmark [numPages] [rounds]</code>
+ */
+public class CompressionBenchmark {
+
+    private static final int DEFAULT_NUM_PAGES = 2000;
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] argv) throws Exception {
+        int numPages = argv.length > 0
+                ? Integer.parseInt(argv[0]) : DEFAULT_NUM_PAGES;
+        int rounds = argv.length > 1
+                ? Integer.parseInt(argv[1]) : DEFAULT_ROUNDS;
+
+        File text = createText(numPages);
+        File data = File.createTempFile("compressionBenchmark", ".dat");
+        HeapFile.deleteOnExit(data);
+        new HeapFileLoader(Utility.getTypes(COLUMNS), ',').convert(text, data);
+        HeapFile plain = Utility.openHeapFile(COLUMNS, data);
+        CompressedHeapFile fast = load(text, JZlib.Z_BEST_SPEED);
+        CompressedHeapFile best = load(text, JZlib.Z_BEST_COMPRESSION);
+        text.delete();
+
+        long bytes = data.length();
+        System.out.println("Scanning " + plain.numPages() + " pages, "
+                + rounds + " rounds");
+        System.out.println(String.format("%-28s %10d bytes", "HeapFile", bytes));
+        System.out.println(String.format("%-28s %10d bytes %6.1fx",
+                "Compressed (best speed)", fast.getStoredSize(),
+                (double) bytes / fast.getStoredSize()));
+        System.out.println(String.format("%-28s %10d bytes %6.1fx",
+                "Compressed (best)", best.getStoredSize(),
+                (double) bytes / best.getStoredSize()));
+        for(int round = 0; round < rounds; round++){
+            ScanBenchmark.report("SeqScan",
+                    ScanBenchmark.seqScan(plain, PagePrefetcher.DEFAULT_WINDOW), plain);
+            ScanBenchmark.report("SeqScan (best speed)",
+                    ScanBenchmark.seqScan(fast, PagePrefetcher.DEFAULT_WINDOW), fast);
+            ScanBenchmark.report("SeqScan (best)",
+                    ScanBenchmark.seqScan(best, PagePrefetcher.DEFAULT_WINDOW), best);
+        }
+        Database.getCatalog().clear();
+        for(HeapFile table : new HeapFile[] { plain, fast, best }){
+            table.getFile().delete();
+            new File(table.getFile().getPath() + CompressedHeapFile.INDEX_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Writes about numPages full pages of tuples as text
+     */
+    static File createText(int numPages) throws IOException {
+        int tupleSize = COLUMNS * Type.INT_TYPE.getLen();
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
+        File text = File.createTempFile("compressionBenchmark", ".txt");
+        text.deleteOnExit();
+        Random random = new Random();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for(long i = 0; i < (long) numPages * tuplesPerPage; i++){
+            bw.write(i + "," + (20000000 + i / 5000) + ","
+                    + random.nextInt(16) + "," + random.nextInt(1000) + "\n");
+        }
+        bw.close();
+        return text;
+    }
+
+    /**
+     * Loads the text into a new CompressedHeapFile in the catalog
+     */
+    static CompressedHeapFile load(File text, int level)
+            throws IOException, DbException {
+        File data = File.createTempFile("compressionBenchmark", ".dat");
+        HeapFile.deleteOnExit(data);
+        CompressedHeapFile table = new CompressedHeapFile(data,
+                Utility.getTupleDesc(COLUMNS), BufferPool.getPageSize(), false, level);
+        Database.getCatalog().addTable(table, "compressionBenchmark" + level);
+        new HeapFileLoader(Utility.getTypes(COLUMNS), ',').append(text, table);
+        return table;
+    }
+
+}
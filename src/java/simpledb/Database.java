@@ -50,12 +50,35 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.close();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, String policy) {
+        _instance._bufferpool.close();
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy, keeping its pages
+        off the heap or not, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, String policy,
+            boolean offHeap) {
+        _instance._bufferpool.close();
+        _instance._bufferpool = new BufferPool(pages, policy, offHeap);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._bufferpool.close();
+        _instance._catalog.clear();
     	_instance = new Database();
     }
 
@@ -84,4 +84,17 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the number of bytes per page of this DbFile. The BufferPool
+     * uses it to account for the memory the pages of the file take.
+     * @return bytes per page of this DbFile.
+     */
+    public int getPageSize();
+
+    /**
+     * Releases any open handles on the underlying storage. The file may be
+     * read or written again afterwards, reopening them as needed.
+     */
+    public void close();
 }
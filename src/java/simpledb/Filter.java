@@ -54,6 +54,13 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
+        // A scan below this filter, or below the filters under it, can
+        // skip the pages without matches
+        DbIterator child = iterator;
+        while(child instanceof Filter)
+            child = ((Filter) child).iterator;
+        if(child instanceof SeqScan)
+            ((SeqScan) child).addPagePredicate(predicate);
         iterator.open();
     }
 
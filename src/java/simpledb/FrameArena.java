@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * FrameArena is a fixed number of page frames carved out of direct
+ * ByteBuffers, which are allocated once when the arena is created and
+ * live outside the Java heap. A BufferPool that keeps its pages off the
+ * heap gives each cached page a frame to hold its bytes, so a large pool
+ * adds little to the work of the garbage collector.
+ * <p>
+ * Frames are handed out and taken back by the BufferPool under its lock;
+ * the arena itself is not thread safe.
+ *
+ * @see BufferPool#OFF_HEAP_PROPERTY
+ */
+public class FrameArena {
+
+    // Most bytes of a single direct buffer
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    // Frames not given to a page, most recently released first
+    private final LinkedList<ByteBuffer> free = new LinkedList<ByteBuffer>();
+
+    /**
+     * Allocates the frames of the arena.
+     *
+     * @param numFrames number of frames
+     * @param frameSize bytes per frame
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if(numFrames < 0 || frameSize <= 0)
+            throw new IllegalArgumentException("Bad arena: " + numFrames
+                    + " frames of " + frameSize + " bytes");
+        this.numFrames = numFrames;
+        this.frameSize = frameSize;
+        int chunkFrames = Math.max(1, CHUNK_BYTES / frameSize);
+        for(int first = 0; first < numFrames; first += chunkFrames){
+            int n = Math.min(chunkFrames, numFrames - first);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * frameSize);
+            for(int i = 0; i < n; i++){
+                chunk.limit((i + 1) * frameSize);
+                chunk.position(i * frameSize);
+                free.addLast(chunk.slice());
+            }
+        }
+    }
+
+    /**
+     * @return bytes per frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return number of frames in the arena
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return number of frames not given to a page
+     */
+    public int getNumFree() {
+        return free.size();
+    }
+
+    /**
+     * Takes a frame for a page.
+     *
+     * @return a frame positioned at its start, or null if all are taken
+     */
+    ByteBuffer allocate() {
+        return free.isEmpty() ? null : free.removeFirst();
+    }
+
+    /**
+     * Takes back a frame no page uses anymore.
+     *
+     * @param frame a frame returned by {@link #allocate}
+     */
+    void release(ByteBuffer frame) {
+        free.addFirst(frame);
+    }
+
+}
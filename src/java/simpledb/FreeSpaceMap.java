@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have empty slots, so that
+ * inserts can go straight to a page with room instead of reading every page
+ * of the file.
+ * <p>
+ * The map is only a hint. Inserts check the page they are sent to and report
+ * back when it turned out to be full. The map is saved next to the file, in
+ * a file with the suffix {@link #SUFFIX}, when the HeapFile is closed. It is
+ * deleted again when loaded, so after a crash there is no saved map and it is
+ * rebuilt from the pages on disk. A saved map is also rebuilt if the file
+ * was changed after the map was saved.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the name of the file to name its map */
+    public static final String SUFFIX = ".fsm";
+
+    private final HeapFile file;
+    private final File mapFile;
+    private BitSet free;
+    private int numPages;
+
+    /**
+     * Creates the map of the given file. Nothing is read until the map is
+     * first used.
+     *
+     * @param file File whose pages are tracked
+     */
+    public FreeSpaceMap(HeapFile file) {
+        this.file = file;
+        this.mapFile = new File(file.getFile().getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the number of the first page at or after the given page that
+     * may have an empty slot.
+     *
+     * @param from Page number to start from
+     * @return the page number, or -1 if no page is known to have room
+     */
+    public synchronized int nextFree(int from) {
+        load();
+        int next = free.nextSetBit(from);
+        return next < numPages ? next : -1;
+    }
+
+    /**
+     * Records the number of empty slots left on a page after it was changed,
+     * or after it was found to be full.
+     *
+     * @param pageNumber Number of the page
+     * @param emptySlots Number of empty slots on the page
+     */
+    public synchronized void update(int pageNumber, int emptySlots) {
+        load();
+        free.set(pageNumber, emptySlots > 0);
+        numPages = Math.max(numPages, pageNumber + 1);
+    }
+
+    /**
+     * Forgets the pages removed from the end of the file.
+     *
+     * @param numPages Number of pages left in the file
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        free.clear(numPages, Math.max(numPages, free.length()));
+        this.numPages = Math.min(this.numPages, numPages);
+    }
+
+    /**
+     * Saves the map next to the file, if it was loaded and the file is still
+     * on disk. The map is kept in memory and can still be used afterwards.
+     */
+    public synchronized void save() {
+        if(free == null)
+            return;
+        // A deleted table leaves no map behind
+        if(!file.exists()){
+            mapFile.delete();
+            return;
+        }
+        try{
+            DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mapFile)));
+            try{
+                dos.writeLong(file.length());
+                dos.writeLong(file.lastModified());
+                dos.writeInt(numPages);
+                for(int i = 0; i < numPages; i += 8){
+                    int bits = 0;
+                    for(int j = 0; j < 8; j++)
+                        if(free.get(i + j))
+                            bits |= 1 << j;
+                    dos.writeByte(bits);
+                }
+            }finally{
+                dos.close();
+            }
+        }catch(IOException ioe){
+            // The map is rebuilt when it can't be read back
+            ioe.printStackTrace();
+            mapFile.delete();
+        }
+    }
+
+    /**
+     * Loads the saved map, or rebuilds it if there is none or it no longer
+     * matches the file.
+     */
+    private void load() {
+        if(free != null)
+            return;
+        if(!read())
+            rebuild();
+        // From now on the saved map is out of date until saved again
+        mapFile.delete();
+    }
+
+    private boolean read() {
+        if(!mapFile.exists())
+            return false;
+        try{
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mapFile)));
+            try{
+                if(dis.readLong() != file.length()
+                        || dis.readLong() != file.lastModified())
+                    return false;
+                int pages = dis.readInt();
+                if(pages != file.numPages())
+                    return false;
+                BitSet bits = new BitSet(pages);
+                for(int i = 0; i < pages; i += 8){
+                    int b = dis.readUnsignedByte();
+                    for(int j = 0; j < 8 && i + j < pages; j++)
+                        if((b & (1 << j)) != 0)
+                            bits.set(i + j);
+                }
+                free = bits;
+                numPages = pages;
+                return true;
+            }finally{
+                dis.close();
+            }
+        }catch(IOException ioe){
+            return false;
+        }
+    }
+
+    /**
+     * Reads the header of every page on disk. Pages changed in the
+     * BufferPool since are corrected by the inserts that visit them.
+     */
+    private void rebuild() {
+        numPages = file.numPages();
+        free = new BitSet(numPages);
+        for(int i = 0; i < numPages; i++){
+            TuplePage page = (TuplePage) file.readPage(
+                    new HeapPageId(file.getId(), i));
+            if(page != null && page.getNumEmptySlots() > 0)
+                free.set(i);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashBucketPage is a bucket of a HashIndexFile. It holds entries that
+ * point from a key to the RecordId of a tuple of the indexed table, and
+ * the page number of an overflow page for the entries that don't fit:
+ * <pre>
+ *   byte category, int local depth, int overflow, int count,
+ *   (key, int page number, int slot) x count
+ * </pre>
+ * The local depth is the number of low bits of a hash value shared by all
+ * keys of the bucket; it is only kept on the first page of a bucket. An
+ * overflow of 0 means there is none, as page 0 is the directory.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private final int maxEntries;
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private int numEntries;
+    private int localDepth;
+    private int overflow;
+
+    /**
+     * Create a bucket page from its bytes
+     *
+     * @param id the id of this page
+     * @param data the bytes of this page
+     * @throws IOException if the page is not a bucket page
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        this.maxEntries = maxEntries(pageSize, keyType);
+        this.keys = new Field[maxEntries];
+        this.pages = new int[maxEntries];
+        this.slots = new int[maxEntries];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if(bb.get() != BUCKET)
+            throw new IOException("Not a bucket page: " + id);
+        localDepth = bb.getInt();
+        overflow = bb.getInt();
+        numEntries = bb.getInt();
+        try{
+            for(int i = 0; i < numEntries; i++){
+                keys[i] = keyType.parse(bb);
+                pages[i] = bb.getInt();
+                slots[i] = bb.getInt();
+            }
+        }catch(ParseException e){
+            throw new IOException("Corrupt bucket page " + id + ": " + e.getMessage());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries that fit on a bucket page
+     */
+    static int maxEntries(int pageSize, Type keyType) {
+        return (pageSize - 13) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the bytes of an empty bucket page
+     */
+    static byte[] createPageData(int pageSize, int localDepth) {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.put(BUCKET);
+        bb.putInt(localDepth);
+        return bb.array();
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * @return the page number of the overflow page, 0 if there is none
+     */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int overflow) {
+        this.overflow = overflow;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public boolean isFull() {
+        return numEntries == maxEntries;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the page number of the tuple of the i-th entry
+     */
+    public int getPageNumber(int i) {
+        return pages[i];
+    }
+
+    /**
+     * @return the slot of the tuple of the i-th entry
+     */
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Adds an entry to the page
+     *
+     * @throws DbException if the page is full
+     */
+    public void addEntry(Field key, int page, int slot) throws DbException {
+        if(isFull())
+            throw new DbException("Hash bucket is full");
+        keys[numEntries] = key;
+        pages[numEntries] = page;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * @return the position of the entry on the page, or -1 if it is not
+     *         on the page
+     */
+    public int findEntry(Field key, int page, int slot) {
+        for(int i = 0; i < numEntries; i++)
+            if(pages[i] == page && slots[i] == slot && keys[i].equals(key))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Removes the i-th entry; the last entry takes its place.
+     */
+    public void removeEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        pages[i] = pages[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /**
+     * Removes all entries, but keeps the overflow page
+     */
+    public void clear() {
+        Arrays.fill(keys, null);
+        numEntries = 0;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.put(BUCKET);
+        bb.putInt(localDepth);
+        bb.putInt(overflow);
+        bb.putInt(numEntries);
+        for(int i = 0; i < numEntries; i++){
+            keys[i].serialize(bb);
+            bb.putInt(pages[i]);
+            bb.putInt(slots[i]);
+        }
+        return bb.array();
+    }
+
+}
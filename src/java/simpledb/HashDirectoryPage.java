@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * HashDirectoryPage is the first page of a HashIndexFile. It maps the low
+ * bits of a hash value, as many as the global depth, to the page number
+ * of a bucket:
+ * <pre>
+ *   byte category, int global depth, int bucket x 2^depth
+ * </pre>
+ * Buckets with a local depth below the global depth appear more than
+ * once. The directory doubles when a bucket of the global depth splits,
+ * up to the number of entries that fit on the page.
+ *
+ * @see HashIndexFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private int depth;
+    private int[] buckets;
+
+    /**
+     * Create a directory page from its bytes
+     *
+     * @param id the id of this page
+     * @param data the bytes of this page
+     * @throws IOException if the page is not a directory page
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        if(bb.get() != DIRECTORY)
+            throw new IOException("Not a directory page: " + id);
+        depth = bb.getInt();
+        buckets = new int[1 << depth];
+        for(int i = 0; i < buckets.length; i++)
+            buckets[i] = bb.getInt();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the largest global depth of a directory that fits on a page
+     */
+    static int maxDepth(int pageSize) {
+        int depth = 0;
+        while(5 + 4 * (2 << depth) <= pageSize)
+            depth++;
+        return depth;
+    }
+
+    /**
+     * @return the bytes of a directory of depth 0 with a single bucket
+     */
+    static byte[] createPageData(int pageSize, int bucket) {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.put(DIRECTORY);
+        bb.putInt(0);
+        bb.putInt(bucket);
+        return bb.array();
+    }
+
+    /**
+     * @return the number of low bits of a hash value that select a bucket
+     */
+    public int getGlobalDepth() {
+        return depth;
+    }
+
+    /**
+     * @param hash a hash value
+     * @return the page number of the bucket for the hash value
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & (buckets.length - 1)];
+    }
+
+    /**
+     * Doubles the directory; both halves point to the same buckets.
+     *
+     * @throws DbException if the directory would not fit on the page
+     */
+    public void grow() throws DbException {
+        if(depth >= maxDepth(pageSize))
+            throw new DbException("Hash directory is full");
+        int[] grown = new int[buckets.length * 2];
+        System.arraycopy(buckets, 0, grown, 0, buckets.length);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        depth++;
+    }
+
+    /**
+     * Points the half of the entries of a bucket that have the bit after
+     * its local depth set to a new bucket.
+     *
+     * @param bucket the page number of the bucket that was split
+     * @param localDepth the local depth of the bucket before the split
+     * @param split the page number of the new bucket
+     */
+    public void split(int bucket, int localDepth, int split) {
+        for(int i = 0; i < buckets.length; i++)
+            if(buckets[i] == bucket && ((i >> localDepth) & 1) == 1)
+                buckets[i] = split;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.put(DIRECTORY);
+        bb.putInt(depth);
+        for(int bucket : buckets)
+            bb.putInt(bucket);
+        return bb.array();
+    }
+
+}
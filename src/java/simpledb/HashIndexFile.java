@@ -0,0 +1,613 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one field of a HeapFile.
+ * An equality lookup reads the directory and one bucket, plus its
+ * overflow pages, whatever the size of the table.
+ * <p>
+ * The index is a DbFile whose tuples are its entries: the key, and the
+ * page number and slot of the indexed tuple. Page 0 is a
+ * {@link HashDirectoryPage}, which maps the low bits of the hash of a key
+ * to a {@link HashBucketPage}. All pages go through the BufferPool and
+ * are locked like the pages of a table. A full bucket is split in two,
+ * doubling the directory if needed, so the index grows one bucket at a
+ * time and is never rehashed as a whole. Buckets that can't be split,
+ * because the directory is as large as a page or all their keys share a
+ * hash value, get overflow pages instead.
+ * <p>
+ * The BufferPool adds and removes the entries of the tuples inserted into
+ * and deleted from the table, in the same transaction. Empty buckets are
+ * never merged.
+ *
+ * @see Catalog#addIndex
+ * @see HashIndexScan
+ */
+public class HashIndexFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int tableid;
+    private final int field;
+    private final TupleDesc td;
+    private final int pageSize;
+
+    private transient RandomAccessFile raf;
+    // Pages added by transactions, which reach the file when written
+    private int allocatedPages;
+
+    /**
+     * Constructs a hash index backed by the specified file, with pages of
+     * the default page size.
+     *
+     * @param f the file that stores the pages
+     * @param tableid the id of the indexed table
+     * @param tableTd the tuple desc of the indexed table
+     * @param field the index of the indexed field
+     */
+    public HashIndexFile(File f, int tableid, TupleDesc tableTd, int field) {
+        this(f, tableid, tableTd, field, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f the file that stores the pages
+     * @param tableid the id of the indexed table
+     * @param tableTd the tuple desc of the indexed table
+     * @param field the index of the indexed field
+     * @param pageSize bytes per page of the file
+     * @throws IllegalArgumentException if fewer than two entries fit on a
+     *         page, or the directory can't have two buckets
+     */
+    public HashIndexFile(File f, int tableid, TupleDesc tableTd, int field,
+            int pageSize) {
+        if(field < 0 || field >= tableTd.numFields())
+            throw new IllegalArgumentException("No field " + field);
+        Type keyType = tableTd.getFieldType(field);
+        if(HashBucketPage.maxEntries(pageSize, keyType) < 2
+                || HashDirectoryPage.maxDepth(pageSize) < 1)
+            throw new IllegalArgumentException("Pages of " + pageSize
+                    + " bytes are too small for a hash index");
+        this.file = f;
+        this.tableid = tableid;
+        this.field = field;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE,
+                Type.INT_TYPE }, new String[] { tableTd.getFieldName(field),
+                "page", "slot" });
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the File backing this index on disk
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, the hash of the
+     *         absolute name of its file
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the tuple desc of the entries: the key, and the page number
+     *         and slot of the indexed tuple
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index of the indexed field in the tuples of the table
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the type of the keys
+     */
+    public Type getKeyType() {
+        return td.getFieldType(0);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of pages in the file, including the directory
+     *         and pages added that are not written yet
+     */
+    public synchronized int numPages() {
+        return Math.max((int) (file.length() / pageSize), allocatedPages);
+    }
+
+    /**
+     * Returns the entry of a tuple of the table
+     *
+     * @param t a tuple stored in the indexed table
+     * @return the entry pointing to the tuple
+     */
+    public Tuple getEntry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple entry = new Tuple(td);
+        entry.setField(0, t.getField(field));
+        entry.setField(1, new IntField(rid.getPageId().pageNumber()));
+        entry.setField(2, new IntField(rid.tupleno()));
+        return entry;
+    }
+
+    /**
+     * Spreads the bits of the hash code of a key, as the directory only
+     * uses its low bits
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private synchronized RandomAccessFile getRaf() throws IOException {
+        if(raf == null)
+            raf = new RandomAccessFile(file, "rw");
+        return raf;
+    }
+
+    /**
+     * Reads a page of the file. Pages past the end of the file are read as
+     * empty buckets.
+     *
+     * @param pid Page ID
+     * @return Page the read page
+     */
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[pageSize];
+        long offset = (long) pageSize * pid.pageNumber();
+        try{
+            synchronized(this){
+                RandomAccessFile in = getRaf();
+                if(offset < in.length()){
+                    in.seek(offset);
+                    in.read(data);
+                }
+            }
+            return HashPage.create((HashPageId) pid, data);
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        return null;
+    }
+
+    public void writePage(Page page) throws IOException {
+        writeData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private synchronized void writeData(int pageNumber, byte[] data)
+            throws IOException {
+        RandomAccessFile out = getRaf();
+        out.seek((long) pageSize * pageNumber);
+        out.write(data);
+    }
+
+    /**
+     * Writes the directory and a single empty bucket to a new file
+     */
+    private synchronized void init() throws IOException {
+        if(getRaf().length() > 0)
+            return;
+        writeData(0, HashDirectoryPage.createPageData(pageSize, 1));
+        writeData(1, HashBucketPage.createPageData(pageSize, 0));
+    }
+
+    private HashPage getPage(TransactionId tid, int pageNumber,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(getId(), pageNumber), perm);
+    }
+
+    /**
+     * Adds an empty bucket page to the end of the file and locks it for
+     * writing. The page is read through the BufferPool as an empty bucket,
+     * and only reaches the file when the transaction that changed it
+     * commits, like the pages it changes.
+     */
+    private HashBucketPage newPage(TransactionId tid, int localDepth)
+            throws DbException, TransactionAbortedException {
+        int pageNumber;
+        synchronized(this){
+            pageNumber = numPages();
+            allocatedPages = pageNumber + 1;
+        }
+        HashBucketPage page = (HashBucketPage) getPage(tid, pageNumber,
+                Permissions.READ_WRITE);
+        page.setLocalDepth(localDepth);
+        return page;
+    }
+
+    /**
+     * Marks a page dirty as soon as it is changed, so that the BufferPool
+     * doesn't evict it while the rest of the insert fetches pages
+     */
+    private void dirty(TransactionId tid, HashPage page, ArrayList<Page> pages) {
+        page.markDirty(true, tid);
+        if(!pages.contains(page))
+            pages.add(page);
+    }
+
+    /**
+     * Returns the first page of the bucket of a key, locked with the given
+     * permissions
+     */
+    private HashBucketPage findBucket(TransactionId tid, Field key,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0,
+                Permissions.READ_ONLY);
+        return (HashBucketPage) getPage(tid, dir.getBucket(hash(key)), perm);
+    }
+
+    /**
+     * Adds an entry to the bucket for its key, splitting the bucket if it
+     * is full.
+     *
+     * @param tid The transaction performing the update
+     * @param t The entry to add, as returned by {@link #getEntry}
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        init();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        Field key = t.getField(0);
+        int page = ((IntField) t.getField(1)).getValue();
+        int slot = ((IntField) t.getField(2)).getValue();
+        while(true){
+            HashBucketPage bucket = findBucket(tid, key, Permissions.READ_WRITE);
+            if(!bucket.isFull()){
+                bucket.addEntry(key, page, slot);
+                dirty(tid, bucket, pages);
+                return pages;
+            }
+            if(!split(tid, bucket, pages)){
+                addToChain(tid, bucket, key, page, slot, pages);
+                return pages;
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the first page of a bucket with room for it,
+     * appending an overflow page if there is none
+     */
+    private void addToChain(TransactionId tid, HashBucketPage bucket,
+            Field key, int page, int slot, ArrayList<Page> pages)
+            throws DbException, IOException, TransactionAbortedException {
+        while(bucket.isFull()){
+            if(bucket.getOverflow() == 0){
+                HashBucketPage overflow = newPage(tid, 0);
+                bucket.setOverflow(overflow.getId().pageNumber());
+                dirty(tid, bucket, pages);
+                bucket = overflow;
+            }else{
+                bucket = (HashBucketPage) getPage(tid, bucket.getOverflow(),
+                        Permissions.READ_WRITE);
+            }
+        }
+        bucket.addEntry(key, page, slot);
+        dirty(tid, bucket, pages);
+    }
+
+    /**
+     * Splits a full bucket in two by the bit of the hash after its local
+     * depth. The entries of its overflow pages are moved as well.
+     *
+     * @return false if the bucket can't be split: its local depth is the
+     *         largest the directory allows, or all its keys have the same
+     *         hash, so a split would leave one half empty
+     */
+    private boolean split(TransactionId tid, HashBucketPage bucket,
+            ArrayList<Page> pages) throws DbException, IOException,
+            TransactionAbortedException {
+        int localDepth = bucket.getLocalDepth();
+        if(localDepth >= HashDirectoryPage.maxDepth(pageSize))
+            return false;
+        List<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        chain.add(bucket);
+        for(int next = bucket.getOverflow(); next != 0;
+                next = chain.get(chain.size() - 1).getOverflow())
+            chain.add((HashBucketPage) getPage(tid, next, Permissions.READ_WRITE));
+        int first = hash(bucket.getKey(0));
+        boolean same = true;
+        for(HashBucketPage p : chain)
+            for(int i = 0; i < p.getNumEntries() && same; i++)
+                same = hash(p.getKey(i)) == first;
+        if(same)
+            return false;
+
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0,
+                Permissions.READ_WRITE);
+        if(localDepth == dir.getGlobalDepth())
+            dir.grow();
+        HashBucketPage split = newPage(tid, localDepth + 1);
+        dir.split(bucket.getId().pageNumber(), localDepth,
+                split.getId().pageNumber());
+        bucket.setLocalDepth(localDepth + 1);
+        dirty(tid, dir, pages);
+        dirty(tid, split, pages);
+        // Take the entries out of the whole chain, and put them back into
+        // the chains of the two halves
+        List<Object[]> entries = new ArrayList<Object[]>();
+        for(HashBucketPage p : chain){
+            for(int i = 0; i < p.getNumEntries(); i++)
+                entries.add(new Object[] { p.getKey(i), p.getPageNumber(i),
+                        p.getSlot(i) });
+            p.clear();
+            dirty(tid, p, pages);
+        }
+        for(Object[] e : entries){
+            Field key = (Field) e[0];
+            HashBucketPage target = ((hash(key) >> localDepth) & 1) == 1 ? split
+                    : bucket;
+            addToChain(tid, target, key, (Integer) e[1], (Integer) e[2], pages);
+        }
+        return true;
+    }
+
+    /**
+     * Removes an entry from the bucket of its key. The entry is found by
+     * its fields; its RecordId is not used.
+     *
+     * @param tid The transaction performing the update
+     * @param t The entry to remove, as returned by {@link #getEntry}
+     * @return the page that was modified
+     * @throws DbException if the index has no such entry
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        try{
+            init();
+        }catch(IOException ioe){
+            throw new DbException("IOException: " + ioe.getMessage());
+        }
+        Field key = t.getField(0);
+        int page = ((IntField) t.getField(1)).getValue();
+        int slot = ((IntField) t.getField(2)).getValue();
+        HashBucketPage bucket = findBucket(tid, key, Permissions.READ_WRITE);
+        while(true){
+            int i = bucket.findEntry(key, page, slot);
+            if(i >= 0){
+                bucket.removeEntry(i);
+                bucket.markDirty(true, tid);
+                return bucket;
+            }
+            if(bucket.getOverflow() == 0)
+                throw new DbException("Entry not in this index!");
+            bucket = (HashBucketPage) getPage(tid, bucket.getOverflow(),
+                    Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Returns an iterator over all the entries of the index
+     *
+     * @param tid the transaction reading the entries
+     * @return DbFileIterator iterator to the entries
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * equals a key. The entries are read from the bucket of the key when
+     * the iterator is opened, and the tuples from the pages of the table
+     * as they are returned.
+     *
+     * @param tid the transaction reading the tuples
+     * @param key the key to look up
+     * @return DbFileIterator iterator to the tuples of the table
+     */
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        return new LookupIterator(tid, key);
+    }
+
+    /**
+     * Adds the entries of all the tuples of the table to the index, in a
+     * transaction of its own.
+     *
+     * @throws DbException if the table can't be read
+     * @throws TransactionAbortedException if the transaction is aborted
+     * @throws IOException if the index can't be written
+     */
+    public void build() throws DbException, TransactionAbortedException,
+            IOException {
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        try{
+            DbFileIterator it = Database.getCatalog().getDbFile(tableid)
+                    .iterator(tid);
+            it.open();
+            while(it.hasNext())
+                Database.getBufferPool().insertTuple(tid, getId(),
+                        getEntry(it.next()));
+            it.close();
+        }catch(TransactionAbortedException e){
+            transaction.abort();
+            throw e;
+        }catch(DbException e){
+            transaction.abort();
+            throw e;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Closes the file backing this index. It is reopened on the next read
+     * or write.
+     */
+    public synchronized void close() {
+        if(raf == null)
+            return;
+        try{
+            raf.close();
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        raf = null;
+    }
+
+    /**
+     * Iterates over the entries of all the bucket pages
+     */
+    private class EntryIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+
+        private int pageNumber;
+        private HashBucketPage bucket;
+        private int i;
+
+        EntryIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pageNumber = 1;
+            bucket = null;
+            i = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if(pageNumber == 0)
+                return false;
+            while(bucket == null || i >= bucket.getNumEntries()){
+                if(pageNumber >= numPages()){
+                    bucket = null;
+                    return false;
+                }
+                bucket = (HashBucketPage) getPage(tid, pageNumber++,
+                        Permissions.READ_ONLY);
+                i = 0;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple entry = new Tuple(td);
+            entry.setField(0, bucket.getKey(i));
+            entry.setField(1, new IntField(bucket.getPageNumber(i)));
+            entry.setField(2, new IntField(bucket.getSlot(i)));
+            entry.setRecordId(new RecordId(bucket.getId(), i));
+            i++;
+            return entry;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            pageNumber = 0;
+            bucket = null;
+        }
+
+    }
+
+    /**
+     * Reads the RecordIds of the entries for a key, and then the tuples
+     */
+    private class LookupIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field key;
+
+        private Iterator<RecordId> rids;
+        private Tuple next;
+
+        LookupIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            try{
+                init();
+            }catch(IOException ioe){
+                throw new DbException("IOException: " + ioe.getMessage());
+            }
+            List<RecordId> found = new ArrayList<RecordId>();
+            HashBucketPage bucket = findBucket(tid, key, Permissions.READ_ONLY);
+            while(true){
+                for(int i = 0; i < bucket.getNumEntries(); i++)
+                    if(bucket.getKey(i).equals(key))
+                        found.add(new RecordId(new HeapPageId(tableid,
+                                bucket.getPageNumber(i)), bucket.getSlot(i)));
+                if(bucket.getOverflow() == 0)
+                    break;
+                bucket = (HashBucketPage) getPage(tid, bucket.getOverflow(),
+                        Permissions.READ_ONLY);
+            }
+            rids = found.iterator();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while(next == null && rids != null && rids.hasNext()){
+                RecordId rid = rids.next();
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(
+                        tid, rid.getPageId(), Permissions.READ_ONLY);
+                Tuple t = page.getTuple(rid.tupleno());
+                if(t != null && t.getField(field).equals(key))
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            rids = null;
+            next = null;
+        }
+
+    }
+
+}
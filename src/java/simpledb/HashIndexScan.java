@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * HashIndexScan is an access method that reads the tuples of a table
+ * whose value of a field equals a constant, through a HashIndexFile on
+ * that field. It reads the directory and the bucket of the constant, and
+ * only the pages of the table that hold the matches.
+ *
+ * @see HashIndexFile#lookup
+ */
+public class HashIndexScan extends IndexScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+    private final Field value;
+
+    /**
+     * Creates a hash index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must have a hash index on the
+     *            field
+     * @param tableAlias
+     *            the alias of this table, as for SeqScan
+     * @param field
+     *            the index of the field in the tuples of the table
+     * @param value
+     *            the value of the field in all returned tuples
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias,
+            int field, Field value) {
+        super(tid, tableid, tableAlias, new IndexPredicate(
+                Predicate.Op.EQUALS, value));
+        this.field = field;
+        this.value = value;
+    }
+
+    /**
+     * @return the index of the field that is looked up
+     */
+    public int getField() {
+        return field;
+    }
+
+    @Override
+    protected DbFileIterator iterator(DbFile file, TransactionId tid) {
+        HashIndexFile index = Database.getCatalog().getIndex(file.getId(), field);
+        if(index == null)
+            throw new UnsupportedOperationException(getTableName()
+                    + " has no hash index on field " + field);
+        return index.lookup(tid, value);
+    }
+
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * HashPage holds what the pages of a HashIndexFile have in common. The
+ * first byte of every page gives its category: {@link #BUCKET} or
+ * {@link #DIRECTORY}. A page of zeros, like those past the end of the
+ * file, is an empty bucket.
+ * <p>
+ * Like B+ tree pages, hash index pages find the type of their key and
+ * their page size through the catalog, so they can be recreated from their
+ * bytes alone.
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashPage implements Page {
+
+    /** Category of bucket pages, which hold the entries */
+    public static final byte BUCKET = 0;
+    /** Category of the first page, which maps hash values to buckets */
+    public static final byte DIRECTORY = 1;
+
+    protected final HashPageId pid;
+    protected final Type keyType;
+    protected final int pageSize;
+
+    private volatile TransactionId dirtier;
+    private byte[] oldData;
+
+    /**
+     * Looks up the layout of the page's file in the catalog
+     *
+     * @param id the id of this page
+     */
+    protected HashPage(HashPageId id) {
+        this.pid = id;
+        HashIndexFile file = (HashIndexFile) Database.getCatalog()
+                .getDbFile(id.getTableId());
+        this.keyType = file.getKeyType();
+        this.pageSize = file.getPageSize();
+    }
+
+    /**
+     * Creates the page of the category given by its first byte
+     *
+     * @param id the id of the page
+     * @param data the bytes of the page
+     * @return the page
+     * @throws IOException if the page is of no known category
+     */
+    public static HashPage create(HashPageId id, byte[] data)
+            throws IOException {
+        switch(data[0]){
+        case BUCKET:
+            return new HashBucketPage(id, data);
+        case DIRECTORY:
+            return new HashDirectoryPage(id, data);
+        default:
+            throw new IOException("Unknown hash index page category " + data[0]);
+        }
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public Page getBeforeImage() {
+        try{
+            return create(pid, oldData);
+        }catch(IOException e){
+            //should never happen -- we parsed it OK before!
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+}
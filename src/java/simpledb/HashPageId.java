@@ -0,0 +1,74 @@
+package simpledb;
+
+/** Unique identifier for the pages of a HashIndexFile. */
+public class HashPageId implements PageId {
+
+    private int tableId, pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index.
+     *
+     * @param tableId The id of the index file
+     * @param pgNo The page number in that file.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pageNo;
+    }
+
+    /**
+     * @return a hash code for this page, from the table number and the page
+     *   number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return 31 * tableId + pageNo;
+    }
+
+    /**
+     * Compares one PageId to another. Ids of pages of a HeapFile are never
+     * equal to ids of pages of a HashIndexFile.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if(o == null || !o.getClass().equals(this.getClass()))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return other.tableId == this.tableId && other.pageNo == this.pageNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = getTableId();
+        data[1] = pageNumber();
+        return data;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pageNo + ")";
+    }
+
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -8,15 +12,54 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can instead store its tuples in the variable length
+ * records of SlottedHeapPages.
+ * <p>
+ * The file grows by {@link #EXTENT_PAGES} pages at a time. Pages past the
+ * last page in use are zeroes, which read as empty pages, and are not
+ * counted by {@link #numPages}; the count is kept in memory, and taken
+ * from the length of the file, less the empty pages at its end, when the
+ * file is opened.
+ * <p>
+ * A large table may be split into segment files of a fixed number of
+ * pages, named after the file with the number of the segment appended,
+ * e.g. <code>orders.dat.0</code>, <code>orders.dat.1</code>, ... Pages
+ * never span segments. Segments are scanned on their own with
+ * {@link #segmentIterator}, may be moved to other disks and linked back,
+ * and are deleted whole when the pages at the end of the table are
+ * truncated.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.SlottedHeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages the file grows by when all its pages are in use */
+    public static final int EXTENT_PAGES = 16;
+
     private File file;
     private TupleDesc tupleDesc;
+    private int pageSize;
+
+    private int segmentPages;
+
+    // Open files of the segments, or of the whole file if not segmented
+    private ArrayList<RandomAccessFile> rafs = new ArrayList<RandomAccessFile>();
+
+    private boolean memoryMapped;
+    private MappedByteBuffer mapping;
+
+    private boolean slotted;
+
+    private FreeSpaceMap freeSpace;
+    private ZoneMap zones;
+
+    // Pages in use, -1 until counted, and pages the file has room for
+    private volatile int numPages = -1;
+    private int allocatedPages;
     
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,8 +72,138 @@ public class HeapFile implements DbFile {
      *            the tuple desc of the file
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td 
+     *            the tuple desc of the file
+     * @param memoryMapped
+     *            whether pages are read from a memory mapping of the file
+     *            instead of being copied in with read calls. Suits large
+     *            tables that are mostly read.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td 
+     *            the tuple desc of the file
+     * @param memoryMapped
+     *            whether pages are read from a memory mapping of the file
+     * @param slotted
+     *            whether pages are SlottedHeapPages, storing strings in
+     *            variable length records, instead of HeapPages
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, boolean slotted) {
+        this(f, td, BufferPool.getPageSize(), memoryMapped, slotted);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td 
+     *            the tuple desc of the file
+     * @param pageSize
+     *            bytes per page of the file. Larger pages suit tables that
+     *            are mostly scanned, smaller ones tables that are mostly
+     *            read a few tuples at a time.
+     * @param memoryMapped
+     *            whether pages are read from a memory mapping of the file
+     * @param slotted
+     *            whether pages are SlottedHeapPages, storing strings in
+     *            variable length records, instead of HeapPages
+     * @throws IllegalArgumentException if the page size doesn't suit the
+     *            page format
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean memoryMapped,
+            boolean slotted) {
+        this(f, td, pageSize, memoryMapped, slotted, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, or by segment
+     * files named after it.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file, or whose name the segment files are named after
+     * @param td 
+     *            the tuple desc of the file
+     * @param pageSize
+     *            bytes per page of the file
+     * @param memoryMapped
+     *            whether pages are read from a memory mapping of the file
+     * @param slotted
+     *            whether pages are SlottedHeapPages, storing strings in
+     *            variable length records, instead of HeapPages
+     * @param segmentPages
+     *            pages per segment file, a multiple of {@link #EXTENT_PAGES},
+     *            or 0 to keep all pages in f
+     * @throws IllegalArgumentException if the page size doesn't suit the
+     *            page format, or the segment size is not a multiple of the
+     *            extent size or is given for a memory mapped file
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean memoryMapped,
+            boolean slotted, int segmentPages) {
+        if(pageSize <= 0 || (slotted && pageSize > SlottedHeapPage.MAX_PAGE_SIZE))
+            throw new IllegalArgumentException("Bad page size: " + pageSize);
+        if(segmentPages < 0 || segmentPages % EXTENT_PAGES != 0)
+            throw new IllegalArgumentException("Segments must be a multiple of "
+                    + EXTENT_PAGES + " pages: " + segmentPages);
+        if(segmentPages > 0 && memoryMapped)
+            throw new IllegalArgumentException("Segmented files can't be memory mapped");
         this.file = f;
+        this.segmentPages = segmentPages;
         this.tupleDesc = td;
+        this.pageSize = pageSize;
+        this.memoryMapped = memoryMapped;
+        this.slotted = slotted;
+        this.freeSpace = new FreeSpaceMap(this);
+        this.zones = new ZoneMap(this);
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return the number of bytes per page of this file
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of pages per segment file, or 0 if the file is
+     *         not segmented
+     */
+    public int getSegmentPages() {
+        return segmentPages;
+    }
+
+    /**
+     * @return true if pages of this file are SlottedHeapPages
+     */
+    public boolean isSlotted() {
+        return slotted;
     }
 
     /**
@@ -67,6 +240,252 @@ public class HeapFile implements DbFile {
         return tupleDesc;
     }
 
+    /**
+     * Returns the file on disk holding a segment of this file
+     * 
+     * @param segment number of the segment, 0 if the file is not segmented
+     * @return File of the segment
+     */
+    public File getSegmentFile(int segment) {
+        if(segmentPages == 0)
+            return file;
+        return new File(file.getPath() + "." + segment);
+    }
+
+    /**
+     * @return the bytes per segment, or Long.MAX_VALUE if the file is not
+     *         segmented
+     */
+    private long segmentBytes() {
+        return segmentPages == 0 ? Long.MAX_VALUE : (long) segmentPages * pageSize;
+    }
+
+    /**
+     * @return the number of segment files on disk, 1 if the file is not
+     *         segmented
+     */
+    public int numSegments() {
+        if(segmentPages == 0)
+            return 1;
+        int n = 0;
+        while(getSegmentFile(n).exists())
+            n++;
+        return n;
+    }
+
+    /**
+     * Returns the channel of a segment of this file, opening it if it is
+     * not open yet or has been closed.
+     * 
+     * @param segment number of the segment, 0 if the file is not segmented
+     * @param create whether to create the segment file if it doesn't exist
+     * @return FileChannel of the segment, or null if it doesn't exist and
+     *         is not created
+     * @throws IOException if the file can't be opened
+     */
+    private synchronized FileChannel getChannel(int segment, boolean create)
+            throws IOException {
+        while(rafs.size() <= segment)
+            rafs.add(null);
+        RandomAccessFile raf = rafs.get(segment);
+        if(raf == null || !raf.getChannel().isOpen()){
+            File f = getSegmentFile(segment);
+            if(segmentPages > 0 && !create && !f.exists())
+                return null;
+            raf = new RandomAccessFile(f, "rw");
+            rafs.set(segment, raf);
+        }
+        return raf.getChannel();
+    }
+
+    private FileChannel getChannel() throws IOException {
+        return getChannel(0, true);
+    }
+
+    /**
+     * @return the length in bytes of the file, counting the segments
+     *         before the last as full
+     */
+    long length() {
+        if(segmentPages == 0)
+            return file.length();
+        int n = numSegments();
+        return n == 0 ? 0 : segmentBytes() * (n - 1) + getSegmentFile(n - 1).length();
+    }
+
+    /**
+     * @return true if the file, or its first segment, is on disk
+     */
+    boolean exists() {
+        return getSegmentFile(0).exists();
+    }
+
+    /**
+     * @return the time the file, or any of its segments, was last modified
+     */
+    long lastModified() {
+        if(segmentPages == 0)
+            return file.lastModified();
+        long time = 0;
+        for(int i = 0; getSegmentFile(i).exists(); i++)
+            time = Math.max(time, getSegmentFile(i).lastModified());
+        return time;
+    }
+
+    /**
+     * Closes the channel backing this file and saves its free space map
+     * and zone map.
+     * The channel is reopened on the next read or write, so closing a file
+     * still in use is harmless.
+     * 
+     * @see DbFile#close
+     */
+    public void close() {
+        freeSpace.save();
+        zones.save();
+        closeChannel();
+    }
+
+    /**
+     * Marks a table file for deletion when the virtual machine exits, along
+     * with the free space map and zone map saved next to it. The maps are
+     * only written when the table is closed, so use this rather than
+     * {@link File#deleteOnExit} for temporary tables.
+     *
+     * @param f the file backing a temporary table
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+    }
+
+    private synchronized void closeChannel() {
+        for(int i = 0; i < rafs.size(); i++)
+            closeSegment(i);
+        rafs.clear();
+        mapping = null;
+    }
+
+    private synchronized void closeSegment(int segment) {
+        if(segment >= rafs.size() || rafs.get(segment) == null)
+            return;
+        try{
+            rafs.get(segment).close();
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        rafs.set(segment, null);
+    }
+
+    /**
+     * Maps the whole file again if the current mapping ends before end. A
+     * mapping can address at most Integer.MAX_VALUE bytes; pages past that
+     * are read through the channel instead.
+     * 
+     * @param end Offset in file the mapping should reach
+     * @throws IOException 
+     */
+    private synchronized void growMapping(long end) throws IOException {
+        if(mapping != null && end <= mapping.capacity())
+            return;
+        long size = Math.min(getChannel().size(), Integer.MAX_VALUE);
+        mapping = (size == 0) ? null
+                : getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Returns the region of the memory mapping holding the page at offset,
+     * mapping the file again if it has grown past the current mapping.
+     * 
+     * @param offset Offset of the page in file
+     * @return ByteBuffer over the page, or null if the page is not mapped
+     * @throws IOException 
+     */
+    private synchronized ByteBuffer getMappedPage(long offset)
+            throws IOException {
+        long end = offset + pageSize;
+        growMapping(end);
+        if(mapping == null || end > mapping.capacity())
+            return null;
+        ByteBuffer page = mapping.duplicate();
+        page.position((int) offset);
+        page.limit((int) end);
+        return page.slice();
+    }
+
+    /**
+     * Fills buf from the given offset of the file. Bytes past the end of
+     * the file are left untouched.
+     * 
+     * @param buf Buffer to read into
+     * @param offset Offset in file to read from
+     * @throws IOException 
+     */
+    void readFully(ByteBuffer buf, long offset) throws IOException {
+        boolean interrupted = false;
+        int limit = buf.limit();
+        try{
+            while(buf.hasRemaining()){
+                long position = offset + buf.position();
+                long segmentBytes = segmentBytes();
+                FileChannel channel = getChannel(
+                        (int) (position / segmentBytes), false);
+                if(channel == null)
+                    break;
+                // Read no further than the end of the segment
+                buf.limit(buf.position() + (int) Math.min(limit - buf.position(),
+                        segmentBytes - position % segmentBytes));
+                try{
+                    if(channel.read(buf, position % segmentBytes) < 0)
+                        break;
+                }catch(ClosedChannelException cce){
+                    // LockManager aborts transactions by interrupting their
+                    // thread, which closes the shared channel. Reopen it and
+                    // finish the read, passing the interrupt on afterwards.
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        }finally{
+            buf.limit(limit);
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes buf at the given offset of the file, creating the segment
+     * files it reaches.
+     * 
+     * @param buf Buffer to write
+     * @param offset Offset in file to write at
+     * @throws IOException 
+     */
+    void writeFully(ByteBuffer buf, long offset) throws IOException {
+        boolean interrupted = false;
+        int limit = buf.limit();
+        try{
+            while(buf.hasRemaining()){
+                long position = offset + buf.position();
+                long segmentBytes = segmentBytes();
+                buf.limit(buf.position() + (int) Math.min(limit - buf.position(),
+                        segmentBytes - position % segmentBytes));
+                try{
+                    getChannel((int) (position / segmentBytes), true)
+                        .write(buf, position % segmentBytes);
+                }catch(ClosedChannelException cce){
+                    // See readFully
+                    interrupted |= Thread.interrupted();
+                }
+                buf.limit(limit);
+            }
+        }finally{
+            buf.limit(limit);
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Reads page from the file with given id
      * 
@@ -75,23 +494,54 @@ public class HeapFile implements DbFile {
      * @return Page the read page
      */
     public Page readPage(PageId pid) {
-        // Offset to seek
-        int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        // Offset to read from
+        long offset = (long) pageSize * pid.pageNumber();
         try{
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(offset);
-            raf.read(data);
-            raf.close();
-            return new HeapPage((HeapPageId) pid, data);
-        }catch(FileNotFoundException fnfe){
-            fnfe.printStackTrace();
+            if(memoryMapped){
+                ByteBuffer mapped = getMappedPage(offset);
+                if(mapped != null)
+                    return newPage((HeapPageId) pid, mapped);
+            }
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        byte[] data = new byte[pageSize];
+        try{
+            readFully(ByteBuffer.wrap(data), offset);
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
         }catch(IOException ioe){
             ioe.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Creates a page of this file, in its page format, from the given bytes
+     * 
+     * @param pid Page ID
+     * @param data Bytes of the page
+     * @return TuplePage the page
+     * @throws IOException if the bytes are not a valid page
+     */
+    TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        if(slotted)
+            return new SlottedHeapPage(pid, data);
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Returns the most slots a page of this file can have, so that the
+     * page number and slot of a tuple can be numbered together as
+     * pageNumber * slotsPerPage() + slot.
+     * 
+     * @return the number of slots
+     */
+    int slotsPerPage() {
+        if(slotted)
+            return SlottedHeapPage.maxSlots(pageSize, tupleDesc);
+        return HeapPage.numSlots(pageSize, tupleDesc);
+    }
+
     /**
      * Write given page to disk
      * 
@@ -100,16 +550,121 @@ public class HeapFile implements DbFile {
      * @throws IOException 
      */
     public void writePage(Page page) throws IOException {
-        byte[] data = page.getPageData();
-        int offset = BufferPool.PAGE_SIZE * page.getId().pageNumber();
+        // Write heap pages straight from their bytes, without a copy
+        ByteBuffer data = page instanceof TuplePage
+                ? ((TuplePage) page).getPageBuffer()
+                : ByteBuffer.wrap(page.getPageData());
+        long offset = (long) pageSize * page.getId().pageNumber();
         try{
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            raf.seek(offset);
-            raf.write(data);
-            raf.close();
+            int length = data.remaining();
+            writeFully(data, offset);
+            // Grow the mapping when the file is extended
+            if(memoryMapped)
+                growMapping(offset + length);
         }catch(IOException ioe){
             ioe.printStackTrace();
         }
+        // Pages written past the end without being allocated are counted
+        if(page.getId().pageNumber() >= numPages())
+            pagesWritten(page.getId().pageNumber() + 1);
+    }
+
+    /**
+     * Widens the zone of a page put back on disk as it was before an
+     * aborted transaction changed it, to cover the tuples restored to it.
+     *
+     * @param page the page as it was restored
+     * @see LogFile#rollback
+     */
+    void pageRestored(Page page) {
+        if(!(page instanceof TuplePage))
+            return;
+        Iterator<Tuple> tuples = ((TuplePage) page).iterator();
+        while(tuples.hasNext())
+            zones.add(page.getId().pageNumber(), tuples.next());
+    }
+
+    private synchronized void pagesWritten(int end) {
+        numPages = Math.max(numPages, end);
+        allocatedPages = Math.max(allocatedPages, end);
+    }
+
+    /**
+     * Appends whole pages to the end of the file, bypassing the BufferPool.
+     * Used by bulk loads; no transaction may be using the file meanwhile.
+     * The tuples on the pages are added to the indexes of the table.
+     * 
+     * @param pages Bytes of one or more pages in the page format of the file
+     * @return the number of the first page appended
+     * @throws IOException if the file or an index can't be written
+     * @see HeapFileLoader#append
+     */
+    public int appendPages(ByteBuffer pages) throws IOException {
+        int count = pages.remaining() / pageSize;
+        int first = writeNewPages(pages.slice(), count);
+        List<Tuple> appended = new ArrayList<Tuple>();
+        for(int i = 0; i < count; i++){
+            ByteBuffer data = pages.duplicate();
+            data.position(pages.position() + i * pageSize);
+            HeapPageId pid = new HeapPageId(getId(), first + i);
+            TuplePage page = newPage(pid, data);
+            freeSpace.update(first + i, page.getNumEmptySlots());
+            zones.set(first + i, page.iterator());
+            Iterator<Tuple> tuples = page.iterator();
+            while(tuples.hasNext())
+                appended.add(tuples.next());
+        }
+        pages.position(pages.limit());
+        indexAppended(appended);
+        return first;
+    }
+
+    /**
+     * Adds appended tuples to the indexes of the table, the entries of the
+     * hash indexes in a transaction of its own.
+     */
+    private void indexAppended(List<Tuple> tuples) throws IOException {
+        for(BitmapIndex bitmap : Database.getCatalog().getBitmapIndexes(getId()))
+            for(Tuple t : tuples)
+                bitmap.add(t);
+        List<HashIndexFile> indexes = Database.getCatalog().getIndexes(getId());
+        if(indexes.isEmpty())
+            return;
+        BufferPool buffer = Database.getBufferPool();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        try{
+            for(HashIndexFile index : indexes)
+                for(Tuple t : tuples)
+                    buffer.insertTuple(tid, index.getId(), index.getEntry(t));
+        }catch(TransactionAbortedException e){
+            transaction.abort();
+            throw new IOException("Indexing appended tuples failed: " + e);
+        }catch(DbException e){
+            transaction.abort();
+            throw new IOException("Indexing appended tuples failed: " + e);
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Writes whole pages after the last page of the file.
+     * 
+     * @param pages Bytes of the pages
+     * @param count Number of pages
+     * @return the number of the first page written
+     * @throws IOException if the file can't be written
+     */
+    synchronized int writeNewPages(ByteBuffer pages, int count)
+            throws IOException {
+        int first = numPages();
+        long offset = (long) pageSize * first;
+        writeFully(pages, offset);
+        if(memoryMapped)
+            growMapping(offset + (long) pageSize * count);
+        pagesWritten(first + count);
+        return first;
     }
 
     /**
@@ -119,13 +674,70 @@ public class HeapFile implements DbFile {
      * @return The number of pages
      */
     public int numPages() {
-        return (int) Math.ceil((double) file.length() / BufferPool.PAGE_SIZE);
+        int n = numPages;
+        return n >= 0 ? n : countPages();
+    }
+
+    /**
+     * Counts the pages of the file when it is first used: the pages its
+     * length has room for, less the empty pages of its last extent.
+     */
+    private synchronized int countPages() {
+        if(numPages >= 0)
+            return numPages;
+        int pages = (int) ((length() + pageSize - 1) / pageSize);
+        allocatedPages = pages;
+        try{
+            byte[] data = new byte[pageSize];
+            for(int i = 0; i < EXTENT_PAGES - 1 && pages > 0; i++){
+                Arrays.fill(data, (byte) 0);
+                readFully(ByteBuffer.wrap(data), (long) pageSize * (pages - 1));
+                if(!isZero(data))
+                    break;
+                pages--;
+            }
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+        numPages = pages;
+        return pages;
+    }
+
+    private static boolean isZero(byte[] data) {
+        for(byte b : data)
+            if(b != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Adds a page to the end of the file, growing the file by an extent
+     * if it has no room left. The page is empty until it is changed through
+     * the BufferPool. Compaction may remove it again before it is locked.
+     * 
+     * @return the id of the new page
+     * @throws IOException if the file can't be grown
+     */
+    synchronized HeapPageId allocatePage() throws IOException {
+        int n = numPages();
+        if(n >= allocatedPages){
+            // Writing the last byte leaves the rest of the extent to the
+            // file system, which reads it as zeroes
+            allocatedPages = (n / EXTENT_PAGES + 1) * EXTENT_PAGES;
+            writeFully(ByteBuffer.wrap(new byte[1]),
+                    (long) pageSize * allocatedPages - 1);
+        }
+        numPages = n + 1;
+        return new HeapPageId(getId(), n);
     }
 
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
-     * may block until the lock can be acquired.
+     * may block until the lock can be acquired. Only pages the free space
+     * map lists as having empty slots are visited. If none has room, a
+     * page is added to the end of the file and read through the
+     * BufferPool like the others.
      *
      * @author hrily
      * @param tid The transaction performing the update
@@ -139,26 +751,42 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> pages = new ArrayList<Page>();
         BufferPool buffer = Database.getBufferPool();
-        for(int i = 0; i < numPages(); i++){
+        for(int i = freeSpace.nextFree(0); i >= 0 && i < numPages();
+                i = freeSpace.nextFree(i + 1)){
             PageId pid = new HeapPageId(this.getId(), i);
-            HeapPage page 
-                = (HeapPage) buffer
+            TuplePage page 
+                = (TuplePage) buffer
                     .getPage(tid, pid, Permissions.READ_ONLY);
-            if(page.getNumEmptySlots() > 0){
-                page = (HeapPage) Database
+            if(page.hasRoomFor(t)){
+                page = (TuplePage) Database
                     .getBufferPool()
                     .getPage(tid, pid, Permissions.READ_WRITE);
+                zones.add(i, t);
                 page.insertTuple(t);
+                freeSpace.update(i, page.getNumEmptySlots());
                 pages.add(page);
                 break;
             }
+            // The map was out of date, or the tuple is too long for the
+            // space left
+            freeSpace.update(i, page.getNumEmptySlots());
         }
-        if(pages.isEmpty()){
-            HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
-            HeapPage heapPage = new HeapPage(pid, HeapPage.createEmptyPageData());
-            heapPage.insertTuple(t);
-            this.writePage(heapPage);
-            pages.add(heapPage);
+        while(pages.isEmpty()){
+            // The new page is locked and changed like any other, so it is
+            // only written when the transaction commits
+            HeapPageId pid = allocatePage();
+            TuplePage page = (TuplePage) buffer.getPage(tid, pid,
+                    Permissions.READ_WRITE);
+            // Removed by a compaction, or taken by another transaction
+            // after one
+            if(pid.pageNumber() >= numPages()
+                    || (!page.hasRoomFor(t) && page.iterator().hasNext()))
+                continue;
+            zones.set(pid.pageNumber(), page.iterator());
+            zones.add(pid.pageNumber(), t);
+            page.insertTuple(t);
+            freeSpace.update(pid.pageNumber(), page.getNumEmptySlots());
+            pages.add(page);
         }
         return pages;
     }
@@ -167,11 +795,227 @@ public class HeapFile implements DbFile {
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         PageId pid = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        freeSpace.update(pid.pageNumber(), page.getNumEmptySlots());
         return page;
     }
 
+    /**
+     * Compacts the file while it stays in use: moves the tuples of the last
+     * pages into empty slots of earlier pages, and then removes the empty
+     * pages at the end of the file. Each page is emptied in a transaction
+     * of its own, under the usual page locks, so other transactions only
+     * wait for the pages being moved. Compaction stops at the first page
+     * whose tuples don't all fit in earlier pages, or when one of its
+     * transactions is aborted.
+     * <p>
+     * A moved tuple gets a new RecordId, which its entries in the indexes
+     * of the table are updated to. Tuples read by transactions that
+     * are still running can't be moved, as those transactions hold locks
+     * on their pages; RecordIds kept after a transaction ends refer to an
+     * empty slot or a removed page once their tuple is moved, and deleting
+     * them fails.
+     * 
+     * @return the number of pages removed from the file
+     * @throws IOException if the file can't be read or written
+     */
+    public int compact() throws IOException {
+        int end = numPages();
+        int emptied = end;
+        try{
+            while(emptied > 1 && moveTuples(emptied - 1))
+                emptied--;
+        }catch(TransactionAbortedException e){
+            // Give up on the page, and remove those emptied so far
+        }catch(DbException e){
+            e.printStackTrace();
+        }
+        int removed = 0;
+        try{
+            removed = removeEmptyPages();
+        }catch(TransactionAbortedException e){
+        }catch(DbException e){
+            e.printStackTrace();
+        }
+        // Pages emptied, or partly emptied, but not removed may take tuples
+        // again
+        for(int i = Math.max(1, emptied - 1); i < Math.min(end, numPages()); i++)
+            freeSpace.update(i, 1);
+        return removed;
+    }
+
+    /**
+     * Moves the tuples of a page into empty slots of earlier pages, in a
+     * transaction of its own.
+     * 
+     * @param source Number of the page to empty
+     * @return true if the page is empty afterwards
+     */
+    private boolean moveTuples(int source) throws IOException, DbException,
+            TransactionAbortedException {
+        BufferPool buffer = Database.getBufferPool();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        List<HashIndexFile> indexes = Database.getCatalog().getIndexes(getId());
+        List<BitmapIndex> bitmaps = Database.getCatalog().getBitmapIndexes(getId());
+        boolean empty = true;
+        try{
+            HeapPageId sourceId = new HeapPageId(getId(), source);
+            TuplePage page = (TuplePage) buffer.getPage(tid, sourceId,
+                    Permissions.READ_WRITE);
+            // Keep inserts away from the page while it is emptied
+            freeSpace.update(source, 0);
+            List<Tuple> tuples = new ArrayList<Tuple>();
+            Iterator<Tuple> it = page.iterator();
+            while(it.hasNext())
+                tuples.add(it.next());
+            for(Tuple t : tuples){
+                TuplePage target = findRoom(tid, t, source);
+                if(target == null){
+                    empty = false;
+                    break;
+                }
+                // Fetched again, as finding room may have evicted it
+                page = (TuplePage) buffer.getPage(tid, sourceId,
+                        Permissions.READ_WRITE);
+                List<Tuple> entries = new ArrayList<Tuple>();
+                for(HashIndexFile index : indexes)
+                    entries.add(index.getEntry(t));
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+                zones.add(target.getId().pageNumber(), t);
+                target.insertTuple(t);
+                target.markDirty(true, tid);
+                freeSpace.update(target.getId().pageNumber(),
+                        target.getNumEmptySlots());
+                // The indexes point to the new RecordId
+                for(int i = 0; i < indexes.size(); i++){
+                    indexes.get(i).deleteTuple(tid, entries.get(i));
+                    indexes.get(i).insertTuple(tid, indexes.get(i).getEntry(t));
+                }
+                for(BitmapIndex bitmap : bitmaps)
+                    bitmap.add(t);
+            }
+        }catch(TransactionAbortedException e){
+            transaction.abort();
+            throw e;
+        }catch(DbException e){
+            transaction.abort();
+            throw e;
+        }
+        transaction.commit();
+        return empty;
+    }
+
+    /**
+     * Returns a page before the given page with room for a tuple, locked
+     * for writing, or null if there is none.
+     */
+    private TuplePage findRoom(TransactionId tid, Tuple t, int before)
+            throws DbException, TransactionAbortedException {
+        BufferPool buffer = Database.getBufferPool();
+        for(int i = freeSpace.nextFree(0); i >= 0 && i < before;
+                i = freeSpace.nextFree(i + 1)){
+            PageId pid = new HeapPageId(getId(), i);
+            TuplePage page = (TuplePage) buffer.getPage(tid, pid,
+                    Permissions.READ_ONLY);
+            if(page.hasRoomFor(t))
+                return (TuplePage) buffer.getPage(tid, pid,
+                        Permissions.READ_WRITE);
+            freeSpace.update(i, page.getNumEmptySlots());
+        }
+        return null;
+    }
+
+    /**
+     * Removes the empty pages at the end of the file, in a transaction of
+     * its own that locks them first. Nothing is removed if a page is
+     * appended meanwhile.
+     * 
+     * @return the number of pages removed
+     */
+    private int removeEmptyPages() throws IOException, DbException,
+            TransactionAbortedException {
+        BufferPool buffer = Database.getBufferPool();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        int end = numPages();
+        int last = end;
+        try{
+            while(last > 0){
+                TuplePage page = (TuplePage) buffer.getPage(tid,
+                        new HeapPageId(getId(), last - 1), Permissions.READ_WRITE);
+                if(page.iterator().hasNext())
+                    break;
+                last--;
+            }
+        }catch(TransactionAbortedException e){
+            transaction.abort();
+            throw e;
+        }
+        // Pending writes of the pages are done before the truncation. The
+        // PageFlusher may wait for the lock of this file while writing, so
+        // they are done before taking it.
+        for(int i = last; i < end; i++)
+            buffer.discardPage(new HeapPageId(getId(), i));
+        synchronized(this){
+            if(last < end && numPages() == end){
+                truncatePages(last);
+                freeSpace.truncate(last);
+                zones.truncate(last);
+            }else{
+                last = end;
+            }
+        }
+        transaction.commit();
+        return end - last;
+    }
+
+    /**
+     * Removes the pages from the given page on from the end of the file.
+     * The caller holds the lock of this file, and no copies of the pages
+     * are left in the BufferPool.
+     * 
+     * @param numPages Number of pages left in the file
+     * @throws IOException if the file can't be truncated
+     */
+    synchronized void truncatePages(int numPages) throws IOException {
+        truncateBytes((long) pageSize * numPages);
+        this.numPages = numPages;
+        allocatedPages = numPages;
+    }
+
+    /**
+     * Truncates the file to the given length. The memory mapping, if any,
+     * is dropped first, as touching mapped bytes past the end of the file
+     * crashes the process. Segments past the new end are deleted.
+     * 
+     * @param length New length of the file in bytes
+     * @throws IOException if the file can't be truncated
+     */
+    synchronized void truncateBytes(long length) throws IOException {
+        mapping = null;
+        if(segmentPages == 0){
+            if(getChannel().size() > length)
+                getChannel().truncate(length);
+            return;
+        }
+        long segmentBytes = segmentBytes();
+        int keep = (int) ((length + segmentBytes - 1) / segmentBytes);
+        for(int i = numSegments() - 1; i >= keep; i--){
+            closeSegment(i);
+            if(!getSegmentFile(i).delete())
+                throw new IOException("Can't delete " + getSegmentFile(i));
+        }
+        FileChannel last = keep == 0 ? null : getChannel(keep - 1, false);
+        long end = length - segmentBytes * (keep - 1);
+        if(last != null && last.size() > end)
+            last.truncate(end);
+    }
+
     /**
      * Returns iterator to all the tuples in this file
      * 
@@ -180,24 +1024,90 @@ public class HeapFile implements DbFile {
      * @return DBFileIterator iterator to the tuples
      */
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(tid, this.getId(), this.numPages());
+        return iterator(tid, PagePrefetcher.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Returns iterator to all the tuples in this file, reading up to
+     * readAhead pages ahead of it in the background once it is seen to
+     * scan sequentially.
+     * 
+     * @param tid
+     * @param readAhead maximum number of pages to read ahead, 0 to disable
+     * @return DBFileIterator iterator to the tuples
+     * @see PagePrefetcher
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead) {
+        return new HeapFileIterator(tid, this.getId(), this.numPages(), readAhead);
+    }
+
+    /**
+     * Returns iterator to the tuples in this file, skipping the pages that
+     * its zone map shows to hold no tuple satisfying all the predicates.
+     * The tuples on the other pages are all returned, whether they satisfy
+     * the predicates or not.
+     * 
+     * @param tid
+     * @param readAhead maximum number of pages to read ahead, 0 to disable
+     * @param preds predicates on the tuples of this file
+     * @return DBFileIterator iterator to the tuples
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead,
+            Predicate[] preds) {
+        return new HeapFileIterator(tid, this.getId(), this.numPages(),
+                readAhead, preds);
+    }
+
+    /**
+     * Returns iterator to the tuples in one segment of this file. The
+     * iterators of the segments together return the tuples of the file,
+     * and may run in parallel in transactions of their own.
+     * 
+     * @param tid
+     * @param segment number of the segment, 0 if the file is not segmented
+     * @return DBFileIterator iterator to the tuples of the segment
+     * @see #numSegments
+     */
+    public DbFileIterator segmentIterator(TransactionId tid, int segment) {
+        int n = numPages();
+        if(segmentPages == 0)
+            return new HeapFileIterator(tid, this.getId(), 0, n,
+                    PagePrefetcher.DEFAULT_WINDOW, new Predicate[0]);
+        int first = Math.min(n, segment * segmentPages);
+        return new HeapFileIterator(tid, this.getId(), first,
+                Math.min(n, first + segmentPages),
+                PagePrefetcher.DEFAULT_WINDOW, new Predicate[0]);
     }
     
     /**
-     * Class for iterating over all tuples of this file
+     * Class for iterating over all tuples of this file. Scans of more pages
+     * than the BufferPool holds read their pages through an
+     * AccessStrategy, so they don't push the pages of other transactions
+     * out of the pool. The page being read is pinned in the pool until the
+     * iterator moves to the next page or is closed.
      * 
      * @see simpledb.DbFileIterator
+     * @see AccessStrategy#forScan
      * @author hrily
      */
     public class HeapFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
         
         TransactionId tid;
         int pageCounter;
+        int firstPage;
         int tableId;
         int numPages;
         Page page;
         Iterator<Tuple> tuples;
         HeapPageId pid;
+        int readAhead;
+        Predicate[] preds;
+        PagePrefetcher prefetcher;
+        AccessStrategy strategy;
+        HeapPageId pinned;
         
         /**
          * Constructor for Iterator
@@ -207,10 +1117,55 @@ public class HeapFile implements DbFile {
          * @param numPages number of pages in file
          */
         public HeapFileIterator(TransactionId tid, int tableId, int numPages) {
+            this(tid, tableId, numPages, 0);
+        }
+
+        /**
+         * Constructor for Iterator
+         * 
+         * @param tid TransactionId of requesting transaction
+         * @param tableId id of the HeapFile
+         * @param numPages number of pages in file
+         * @param readAhead maximum number of pages to read ahead
+         */
+        public HeapFileIterator(TransactionId tid, int tableId, int numPages,
+                int readAhead) {
+            this(tid, tableId, numPages, readAhead, new Predicate[0]);
+        }
+
+        /**
+         * Constructor for Iterator
+         * 
+         * @param tid TransactionId of requesting transaction
+         * @param tableId id of the HeapFile
+         * @param numPages number of pages in file
+         * @param readAhead maximum number of pages to read ahead
+         * @param preds predicates deciding which pages may be skipped
+         */
+        public HeapFileIterator(TransactionId tid, int tableId, int numPages,
+                int readAhead, Predicate[] preds) {
+            this(tid, tableId, 0, numPages, readAhead, preds);
+        }
+
+        /**
+         * Constructor for Iterator over a range of the pages
+         * 
+         * @param tid TransactionId of requesting transaction
+         * @param tableId id of the HeapFile
+         * @param firstPage number of the first page to read
+         * @param numPages number of the page after the last to read
+         * @param readAhead maximum number of pages to read ahead
+         * @param preds predicates deciding which pages may be skipped
+         */
+        public HeapFileIterator(TransactionId tid, int tableId, int firstPage,
+                int numPages, int readAhead, Predicate[] preds) {
             this.tid = tid;
-            this.pageCounter = 0;
+            this.firstPage = firstPage;
+            this.pageCounter = firstPage;
             this.tableId = tableId;
             this.numPages = numPages;
+            this.readAhead = readAhead;
+            this.preds = preds;
         }
         
         /**
@@ -222,9 +1177,26 @@ public class HeapFile implements DbFile {
          * @throws TransactionAbortedException 
          */
         private Iterator<Tuple> getTuples(int pageNumber) throws  DbException, TransactionAbortedException {
+            unpin();
             pid = new HeapPageId(tableId, pageNumber);
-            HeapPage heapPage = (HeapPage) Database.getBufferPool()
-                    .getPage(tid, pid, Permissions.READ_ONLY);
+            if(preds.length > 0){
+                // Locked first, so the zone covers the inserts of every
+                // transaction that wrote the page before
+                Database.getBufferPool().lockPage(tid, pid, Permissions.READ_ONLY);
+                if(!zones.mayMatch(pageNumber, preds)){
+                    if(prefetcher != null)
+                        prefetcher.skip(pageNumber);
+                    return Collections.<Tuple>emptyList().iterator();
+                }
+            }
+            if(prefetcher != null)
+                prefetcher.access(pageNumber);
+            TuplePage heapPage = (TuplePage) Database.getBufferPool()
+                    .pinPage(tid, pid, Permissions.READ_ONLY, strategy);
+            pinned = pid;
+            // A dirty page may still lose tuples when its transaction aborts
+            if(heapPage.isDirty() == null && !zones.isKnown(pageNumber))
+                zones.set(pageNumber, heapPage.iterator());
             return heapPage.iterator();
         }
 
@@ -235,7 +1207,24 @@ public class HeapFile implements DbFile {
          * @throws TransactionAbortedException 
          */
         public void open() throws DbException, TransactionAbortedException {
-            pageCounter = 0;
+            pageCounter = firstPage;
+            if(firstPage >= numPages && firstPage > 0){
+                // An empty range; a file without pages still reads page 0
+                tuples = Collections.<Tuple>emptyList().iterator();
+                return;
+            }
+            strategy = AccessStrategy.forScan(numPages - firstPage, readAhead);
+            if(readAhead > 0 && numPages - firstPage > 1 && preds.length > 0){
+                prefetcher = new PagePrefetcher(tid, tableId, numPages,
+                        readAhead, strategy) {
+                    protected boolean wanted(int pageNumber) {
+                        return zones.mayMatch(pageNumber, preds);
+                    }
+                };
+            }else if(readAhead > 0 && numPages - firstPage > 1){
+                prefetcher = new PagePrefetcher(tid, tableId, numPages,
+                        readAhead, strategy);
+            }
             tuples = getTuples(pageCounter);
         }
 
@@ -296,8 +1285,22 @@ public class HeapFile implements DbFile {
          * Close the iterator
          */
         public void close() {
+            unpin();
             tuples = null;
             pid = null;
+            if(prefetcher != null)
+                prefetcher.close();
+            prefetcher = null;
+            strategy = null;
+        }
+
+        /**
+         * Releases the pin on the page being read, if any
+         */
+        private void unpin() {
+            if(pinned != null)
+                Database.getBufferPool().unpinPage(tid, pinned);
+            pinned = null;
         }
         
     }
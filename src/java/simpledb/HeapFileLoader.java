@@ -0,0 +1,466 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * HeapFileLoader bulk loads delimited text into heap pages, either into a
+ * new data file or appended to a HeapFile of the catalog.
+ * <p>
+ * The input is streamed in chunks cut at line boundaries. Chunks are parsed
+ * in parallel into the binary records of the table, and the records are
+ * packed in input order straight into page buffers. The pages are written
+ * sequentially, many at a time, while the following chunks are still being
+ * parsed.
+ * <p>
+ * Lines are parsed as in {@link HeapFileEncoder}: fields are separated by
+ * the field separator and trimmed, and strings longer than
+ * {@link Type#STRING_LEN} are truncated. Blank lines are skipped, and lines
+ * that can't be parsed are reported and skipped.
+ * <p>
+ * Pages are built as HeapPages, or as SlottedHeapPages for tables using
+ * variable length records.
+ */
+public class HeapFileLoader {
+
+    /** Default number of bytes of input parsed as one unit of work */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    /** Number of pages written to the file at once */
+    private static final int WRITE_PAGES = 256;
+
+    private final Type[] types;
+    private final char fieldSeparator;
+    private final int pageSize;
+    private final int threads;
+    private final int chunkSize;
+    private final boolean slotted;
+
+    private final int recordSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+
+    /**
+     * Creates a loader for tables with the given column types, producing
+     * pages of the default page size, {@link BufferPool#getPageSize}, and
+     * parsing on every available processor.
+     *
+     * @param types Types of the columns of each line
+     * @param fieldSeparator Character separating the fields of a line
+     */
+    public HeapFileLoader(Type[] types, char fieldSeparator) {
+        this(types, fieldSeparator, BufferPool.getPageSize(),
+                Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a loader for tables with the given column types.
+     *
+     * @param types Types of the columns of each line
+     * @param fieldSeparator Character separating the fields of a line
+     * @param pageSize Number of bytes per page
+     * @param threads Number of threads parsing the input
+     * @param chunkSize Number of bytes of input parsed as one unit of work
+     */
+    public HeapFileLoader(Type[] types, char fieldSeparator, int pageSize,
+            int threads, int chunkSize) {
+        this(types, fieldSeparator, pageSize, threads, chunkSize, false);
+    }
+
+    /**
+     * Creates a loader for tables with the given column types.
+     *
+     * @param types Types of the columns of each line
+     * @param fieldSeparator Character separating the fields of a line
+     * @param pageSize Number of bytes per page
+     * @param threads Number of threads parsing the input
+     * @param chunkSize Number of bytes of input parsed as one unit of work
+     * @param slotted Whether to build SlottedHeapPages instead of HeapPages
+     */
+    public HeapFileLoader(Type[] types, char fieldSeparator, int pageSize,
+            int threads, int chunkSize, boolean slotted) {
+        this.types = types.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.pageSize = pageSize;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = chunkSize;
+        this.slotted = slotted;
+
+        int size = 0;
+        for(Type type : types)
+            size += type.getLen();
+        this.recordSize = size;
+        this.slotsPerPage = (pageSize * 8) / (recordSize * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        if(slotsPerPage == 0)
+            throw new IllegalArgumentException("Tuples of " + recordSize
+                    + " bytes don't fit on a page of " + pageSize + " bytes");
+    }
+
+    /**
+     * Converts a text file into a new data file. As with
+     * {@link HeapFileEncoder}, an empty input produces a single empty page.
+     *
+     * @param inFile Text file to read
+     * @param outFile Data file to create or overwrite
+     * @return the number of pages written
+     * @throws IOException if a file can't be read or written
+     */
+    public int convert(File inFile, File outFile) throws IOException {
+        FileOutputStream os = new FileOutputStream(outFile);
+        try{
+            PagePacker packer = new PagePacker(channelWriter(os.getChannel()));
+            parse(inFile, packer);
+            return packer.finish(true);
+        }finally{
+            os.close();
+        }
+    }
+
+    /**
+     * Converts a list of tuples of integers into a new data file. The loader
+     * must have only integer columns.
+     *
+     * @param tuples Tuples, each a list of its integer field values
+     * @param outFile Data file to create or overwrite
+     * @return the number of pages written
+     * @throws IOException if the file can't be written
+     */
+    public int convert(ArrayList<ArrayList<Integer>> tuples, File outFile)
+            throws IOException {
+        for(Type type : types)
+            if(type != Type.INT_TYPE)
+                throw new IllegalStateException("Loader has non integer columns");
+        ByteBuffer records = ByteBuffer.allocate(tuples.size() * recordSize);
+        for(ArrayList<Integer> tuple : tuples){
+            if(tuple.size() != types.length)
+                throw new RuntimeException("Tuple does not have " + types.length
+                        + " fields: (" + Utility.listToString(tuple) + ")");
+            for(Integer field : tuple)
+                records.putInt(field);
+        }
+        records.flip();
+
+        FileOutputStream os = new FileOutputStream(outFile);
+        try{
+            PagePacker packer = new PagePacker(channelWriter(os.getChannel()));
+            packer.add(records);
+            return packer.finish(true);
+        }finally{
+            os.close();
+        }
+    }
+
+    /**
+     * Appends the tuples of a text file to a table, in new pages after its
+     * last page. The pages are written to the file directly, not through the
+     * BufferPool, so no transaction may be using the table meanwhile. The
+     * tuples are added to the indexes of the table.
+     *
+     * @param inFile Text file to read
+     * @param table Table to append to
+     * @return the number of pages appended
+     * @throws DbException if the table does not match the loader, or is a
+     *         PaxFile
+     * @throws IOException if a file can't be read or written
+     */
+    public int append(File inFile, final HeapFile table)
+            throws DbException, IOException {
+        TupleDesc td = table.getTupleDesc();
+        if(td.numFields() != types.length || pageSize != table.getPageSize()
+                || table.isSlotted() != slotted || table instanceof PaxFile)
+            throw new DbException("Table does not match the loader");
+        for(int i = 0; i < types.length; i++)
+            if(td.getFieldType(i) != types[i])
+                throw new DbException("Table does not match the loader");
+
+        PagePacker packer = new PagePacker(new PageWriter() {
+            public void write(ByteBuffer pages) throws IOException {
+                table.appendPages(pages);
+            }
+        });
+        parse(inFile, packer);
+        return packer.finish(false);
+    }
+
+    /**
+     * Reads the input in chunks ending at a line boundary, parses them on
+     * the parser threads and hands their records to the packer in order.
+     * At most two chunks per thread are in memory waiting to be packed.
+     */
+    private void parse(File inFile, PagePacker packer) throws IOException {
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<ByteBuffer>> parsed = new LinkedList<Future<ByteBuffer>>();
+        InputStream is = new FileInputStream(inFile);
+        try{
+            byte[] chunk = new byte[chunkSize];
+            int length = 0;
+            boolean eof = false;
+            while(!eof){
+                int n = is.read(chunk, length, chunk.length - length);
+                if(n > 0)
+                    length += n;
+                eof = n < 0;
+                if(!eof && length < chunk.length)
+                    continue;
+
+                // Cut after the last complete line
+                int end = length;
+                if(!eof)
+                    while(end > 0 && chunk[end - 1] != '\n')
+                        end--;
+                int carry = length - end;
+                byte[] next = new byte[Math.max(chunkSize, carry * 2)];
+                if(end == 0 && !eof){
+                    // A single line longer than the chunk, read more of it
+                    System.arraycopy(chunk, 0, next, 0, length);
+                    chunk = next;
+                    continue;
+                }
+                System.arraycopy(chunk, end, next, 0, carry);
+                parsed.add(parsers.submit(new ChunkParser(chunk, end)));
+                chunk = next;
+                length = carry;
+
+                while(parsed.size() > threads * 2)
+                    packer.add(await(parsed.removeFirst()));
+            }
+            while(!parsed.isEmpty())
+                packer.add(await(parsed.removeFirst()));
+        }finally{
+            is.close();
+            parsers.shutdownNow();
+        }
+    }
+
+    private ByteBuffer await(Future<ByteBuffer> records) throws IOException {
+        try{
+            return records.get();
+        }catch(InterruptedException e){
+            throw new InterruptedIOException("Load interrupted");
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("Parsing failed: " + e.getCause());
+        }
+    }
+
+    private static PageWriter channelWriter(final FileChannel channel) {
+        return new PageWriter() {
+            public void write(ByteBuffer pages) throws IOException {
+                while(pages.hasRemaining())
+                    channel.write(pages);
+            }
+        };
+    }
+
+    /**
+     * Destination of the pages built by a load
+     */
+    private interface PageWriter {
+        /**
+         * Writes the given pages after the ones written before
+         */
+        void write(ByteBuffer pages) throws IOException;
+    }
+
+    /**
+     * Parses the lines of one chunk of input into the records of the table
+     */
+    private class ChunkParser implements Callable<ByteBuffer> {
+
+        private final byte[] chunk;
+        private final int end;
+
+        ChunkParser(byte[] chunk, int end) {
+            this.chunk = chunk;
+            this.end = end;
+        }
+
+        public ByteBuffer call() {
+            int lines = 1;
+            for(int i = 0; i < end; i++)
+                if(chunk[i] == '\n')
+                    lines++;
+            ByteBuffer records = ByteBuffer.allocate(lines * recordSize);
+            int start = 0;
+            for(int i = 0; i <= end; i++){
+                if(i == end || chunk[i] == '\n'){
+                    parseLine(start, i, records);
+                    start = i + 1;
+                }
+            }
+            records.flip();
+            return records;
+        }
+
+        private void parseLine(int from, int to, ByteBuffer records) {
+            // Ignore Windows line endings and blank lines
+            while(to > from && chunk[to - 1] == '\r')
+                to--;
+            if(to == from)
+                return;
+            int mark = records.position();
+            int field = 0;
+            int start = from;
+            for(int i = from; i <= to; i++){
+                if(i < to && chunk[i] != fieldSeparator)
+                    continue;
+                if(field >= types.length
+                        || !parseField(types[field], start, i, records)){
+                    records.position(mark);
+                    System.out.println("BAD LINE : " + new String(chunk, from, to - from));
+                    return;
+                }
+                field++;
+                start = i + 1;
+            }
+            if(field < types.length){
+                records.position(mark);
+                System.out.println("BAD LINE : " + new String(chunk, from, to - from));
+            }
+        }
+
+        private boolean parseField(Type type, int from, int to, ByteBuffer records) {
+            while(from < to && (chunk[from] & 0xff) <= ' ')
+                from++;
+            while(to > from && (chunk[to - 1] & 0xff) <= ' ')
+                to--;
+            if(type == Type.INT_TYPE){
+                if(from == to)
+                    return false;
+                boolean negative = chunk[from] == '-';
+                if(negative || chunk[from] == '+')
+                    from++;
+                if(from == to)
+                    return false;
+                long value = 0;
+                for(int i = from; i < to; i++){
+                    int digit = chunk[i] - '0';
+                    if(digit < 0 || digit > 9)
+                        return false;
+                    value = value * 10 + digit;
+                    if(value > (long) Integer.MAX_VALUE + 1)
+                        return false;
+                }
+                if(negative)
+                    value = -value;
+                if(value > Integer.MAX_VALUE)
+                    return false;
+                records.putInt((int) value);
+                return true;
+            }
+            int length = Math.min(to - from, Type.STRING_LEN);
+            records.putInt(length);
+            records.put(chunk, from, length);
+            for(int i = length; i < Type.STRING_LEN; i++)
+                records.put((byte) 0);
+            return true;
+        }
+
+    }
+
+    /**
+     * Packs records into consecutive pages and writes them out in batches
+     */
+    private class PagePacker {
+
+        private final PageWriter writer;
+        private final byte[] batch = new byte[pageSize * WRITE_PAGES];
+        private final byte[] record = new byte[recordSize];
+        private int pageStart;
+        private int slot;
+        private int pages;
+
+        PagePacker(PageWriter writer) {
+            this.writer = writer;
+        }
+
+        void add(ByteBuffer records) throws IOException {
+            if(slotted){
+                addSlotted(records);
+                return;
+            }
+            while(records.remaining() >= recordSize){
+                if(slot == slotsPerPage)
+                    finishPage();
+                int count = Math.min(slotsPerPage - slot,
+                        records.remaining() / recordSize);
+                records.get(batch, pageStart + headerSize + slot * recordSize,
+                        count * recordSize);
+                for(int i = slot; i < slot + count; i++)
+                    batch[pageStart + i / 8] |= 1 << (i % 8);
+                slot += count;
+            }
+        }
+
+        /**
+         * Adds records to slotted pages, dropping the padding of strings
+         */
+        private void addSlotted(ByteBuffer records) throws IOException {
+            while(records.remaining() >= recordSize){
+                int length = 0;
+                for(Type type : types){
+                    if(type == Type.INT_TYPE){
+                        records.get(record, length, 4);
+                        length += 4;
+                    }else{
+                        int chars = records.getInt();
+                        record[length++] = (byte) (chars >> 8);
+                        record[length++] = (byte) chars;
+                        records.get(record, length, chars);
+                        length += chars;
+                        records.position(records.position() + Type.STRING_LEN - chars);
+                    }
+                }
+                ByteBuffer page = ByteBuffer.wrap(batch, pageStart, pageSize);
+                if(!SlottedHeapPage.appendRecord(page, record, length)){
+                    finishPage();
+                    page = ByteBuffer.wrap(batch, pageStart, pageSize);
+                    SlottedHeapPage.appendRecord(page, record, length);
+                }
+                slot++;
+            }
+        }
+
+        /**
+         * Writes out the last page, if it has any tuples or if no page was
+         * written and an empty page is wanted.
+         *
+         * @return the number of pages written
+         */
+        int finish(boolean emptyPage) throws IOException {
+            if(slot > 0 || (pages == 0 && emptyPage))
+                finishPage();
+            flush();
+            return pages;
+        }
+
+        private void finishPage() throws IOException {
+            pageStart += pageSize;
+            slot = 0;
+            pages++;
+            if(pageStart == batch.length)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            if(pageStart == 0)
+                return;
+            writer.write(ByteBuffer.wrap(batch, 0, pageStart));
+            Arrays.fill(batch, 0, pageStart, (byte) 0);
+            pageStart = 0;
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,15 +12,18 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     private HeapPageId pid;
     private TupleDesc td;
-    private byte header[];
+    private int pageSize;
+    private int headerSize;
+    private ByteBuffer data;
+    private boolean copyOnWrite;
     private Tuple tuples[];
     private int numSlots;
 
-    private byte[] oldData;
+    private ByteBuffer oldData;
     
     TransactionId dirtyTid;
     boolean dirty;
@@ -29,39 +33,71 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of its file, {@link DbFile#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see DbFile#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes remaining in the given buffer, in the
+     * format described above. The buffer is read in place, so it can be a
+     * region of a memory mapped file; its position is left untouched.
+     * <p>
+     * The page keeps working on the given bytes, and tuples are decoded from
+     * them when they are first accessed, so the buffer must not be modified
+     * while this page is in use. The page itself copies the bytes before its
+     * first change, and only reads bytes that are not on the heap, such as
+     * a mapped region, through a read-only view.
+     * 
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getDbFile(id.getTableId()).getPageSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < headerSize + numSlots * td.getSize())
+            throw new EOFException("page data too short");
+
+        if (data.remaining() >= pageSize) {
+            this.data = readOnlySlice(data, pageSize);
+        } else {
+            // A short buffer is padded, so keep a copy of the bytes
+            byte[] copy = new byte[pageSize];
+            data.duplicate().get(copy, 0,
+                    Math.min(data.remaining(), copy.length));
+            this.data = ByteBuffer.wrap(copy);
+        }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        // tuples are read on first access
+        tuples = new Tuple[numSlots];
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // The bytes are shared with the before image and whoever passed
+        // them in until the page is first modified
+        oldData = this.data;
+        copyOnWrite = true;
+    }
 
-        setBeforeImage();
+    /**
+     * @return the first pageSize bytes remaining in the buffer, without a
+     *         copy, viewed read-only unless they are in a heap array
+     */
+    static ByteBuffer readOnlySlice(ByteBuffer data, int pageSize) {
+        ByteBuffer slice = data.slice();
+        slice.limit(pageSize);
+        return slice.hasArray() ? slice : slice.asReadOnlyBuffer();
     }
 
     /** 
@@ -71,8 +107,15 @@ public class HeapPage implements Page {
      * @return the number of tuples on this page
      */
     private int getNumTuples() {        
-        int tupleSize = td.getSize();
-        return (int) Math.floor((BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1.0));
+        return numSlots(pageSize, td);
+    }
+
+    /**
+     * @return the number of slots of a page of the given size, for tuples
+     *         of the given tuple desc
+     */
+    static int numSlots(int pageSize, TupleDesc td) {
+        return (int) Math.floor((pageSize * 8.0) / (td.getSize() * 8.0 + 1.0));
     }
 
     /**
@@ -93,7 +136,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid,oldData.duplicate());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,7 +146,75 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = data;
+        copyOnWrite = true;
+    }
+
+    /**
+     * Makes the page bytes private to this page before they are patched,
+     * leaving the bytes shared with the before image untouched.
+     */
+    private void prepareWrite() {
+        if (tuples == null)
+            tuples = new Tuple[numSlots];
+        if (!copyOnWrite)
+            return;
+        data = heapCopy(data);
+        copyOnWrite = false;
+    }
+
+    private ByteBuffer heapCopy(ByteBuffer bytes) {
+        byte[] copy = new byte[pageSize];
+        bytes.duplicate().get(copy);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * Moves the bytes of this page into the given frame, which then holds
+     * the page and its before image. Tuples are decoded from the frame on
+     * every access rather than kept, so the page costs little heap besides
+     * the frame. Only a page unchanged since its before image was set can
+     * be moved; a changed page keeps its bytes until it is moved again.
+     *
+     * @param frame a buffer of the page size, positioned at its start
+     * @return true if the page was moved
+     * @see FrameArena
+     */
+    boolean moveTo(ByteBuffer frame) {
+        if (!copyOnWrite || data != oldData || frame.remaining() != pageSize)
+            return false;
+        if (data != frame)
+            frame.duplicate().put(data.duplicate());
+        data = frame;
+        oldData = frame;
+        tuples = null;
+        return true;
+    }
+
+    /**
+     * Copies the bytes this page keeps in the given frame back to the
+     * heap, so the frame can be given to another page while this one is
+     * still in use.
+     *
+     * @param frame a frame given to {@link #moveTo}
+     */
+    void moveFrom(ByteBuffer frame) {
+        ByteBuffer copy = null;
+        if (data == frame) {
+            copy = heapCopy(frame);
+            data = copy;
+        }
+        if (oldData == frame)
+            oldData = copy != null ? copy : heapCopy(frame);
+        if (tuples == null)
+            tuples = new Tuple[numSlots];
+    }
+
+    /**
+     * @return the offset of the given slot in the page bytes
+     */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
     }
 
     /**
@@ -115,21 +226,11 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple stored in the given slot of the page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        ByteBuffer bb = data.duplicate();
+        bb.position(slotOffset(slotId));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -137,7 +238,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(bb);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -148,6 +249,25 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Returns the tuple in the given slot, decoding it from the page data
+     * on first access.
+     * 
+     * @param i The slot index
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        // Pages held in a frame of the BufferPool don't keep their tuples
+        Tuple[] decoded = tuples;
+        if (decoded == null)
+            return readTuple(i);
+        if (decoded[i] == null)
+            decoded[i] = readTuple(i);
+        return decoded[i];
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -160,64 +280,22 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // The page bytes are kept up to date by insertTuple and deleteTuple
+        byte[] pageData = new byte[pageSize];
+        data.duplicate().get(pageData);
+        return pageData;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Returns a read-only view of the bytes of this page, in the format
+     * returned by {@link #getPageData}, without copying them. The view
+     * reflects later changes to the page, so it should be consumed
+     * straight away.
+     *
+     * @return A buffer positioned at the start of the page bytes
+     */
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
     }
 
     /**
@@ -230,8 +308,18 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HeapPage of the given size.
+     *
+     * @param pageSize bytes per page of the file the page is added to
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -249,14 +337,24 @@ public class HeapPage implements Page {
             throw new DbException("Tuple not in this page!");
         if(!isSlotUsed(recordId.tupleno()))
             throw new DbException("Tuple not in this page!");
-        // Mark slot as unused
-        markSlotUsed(recordId.tupleno(), false);
+        // Mark slot as unused and clear its bytes
+        int slot = recordId.tupleno();
+        prepareWrite();
+        markSlotUsed(slot, false);
+        for (int i = slotOffset(slot); i < slotOffset(slot + 1); i++)
+            data.put(i, (byte) 0);
+        tuples[slot] = null;
     }
     
     int getFirstEmptySlot(){
-        for(int i = 0; i < numSlots; i++)
-            if(!isSlotUsed(i))
-                return i;
+        for(int b = 0; b < headerSize; b++){
+            // Skip header bytes with all slots used
+            if(data.get(b) == (byte) 0xff)
+                continue;
+            for(int i = b * 8; i < numSlots && i < (b + 1) * 8; i++)
+                if(!isSlotUsed(i))
+                    return i;
+        }
         return -1;
     }
 
@@ -277,6 +375,12 @@ public class HeapPage implements Page {
             throw new DbException("Tuple Description mismatch.");
         RecordId recordId = new RecordId(pid, emptySlot);
         t.setRecordId(recordId);
+        // Write the tuple into its slot
+        prepareWrite();
+        ByteBuffer bb = data.duplicate();
+        bb.position(slotOffset(emptySlot));
+        for(int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(bb);
         tuples[emptySlot] = t;
         markSlotUsed(emptySlot, true);
     }
@@ -307,10 +411,15 @@ public class HeapPage implements Page {
      * @author hrily
      */
     public int getNumEmptySlots() {
-        int emptySlots = 0;
-        for(int i = 0; i < numSlots; i++)
-            emptySlots += isSlotUsed(i) ? 0 : 1;
-        return emptySlots;
+        // Bits past the last slot are never set
+        int usedSlots = 0;
+        for(int b = 0; b < headerSize; b++)
+            usedSlots += Integer.bitCount(data.get(b) & 0xff);
+        return numSlots - usedSlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -320,7 +429,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // Get corresponding byte
-        int bits = header[ i / 8 ];
+        int bits = data.get( i / 8 );
         // Check if corresponding bit is set
         return (bits & (1<<(i%8))) > 0;
     }
@@ -333,7 +442,7 @@ public class HeapPage implements Page {
      * @param value The value to assign
      */
     private void markSlotUsed(int i, boolean value) {
-        int bits = header[ i / 8 ];
+        int bits = data.get( i / 8 );
         int index = i % 8;
         // Mark or unmark bit
         if(value)
@@ -341,7 +450,7 @@ public class HeapPage implements Page {
         else
             bits &= ~(1 << index);
         // Set value back
-        header[ i / 8 ] = (byte) bits;
+        data.put( i / 8, (byte) bits );
     }
     
     /**
@@ -352,12 +461,48 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> tupleList = new ArrayList<Tuple>();
-        for(int i = 0; i < numSlots; i++)
-            if(isSlotUsed(i))
-                tupleList.add(tuples[i]);
-        return tupleList.iterator();
+        return new TupleSlotIterator();
     }
 
-}
+    /**
+     * Iterator over the slots used when it was created, decoding each tuple
+     * only when it is reached. Slots emptied in the meantime are skipped.
+     */
+    private class TupleSlotIterator implements Iterator<Tuple> {
+
+        private final byte[] usedSlots;
+        private int next;
 
+        TupleSlotIterator() {
+            usedSlots = new byte[headerSize];
+            data.duplicate().get(usedSlots);
+            next = findNext(0);
+        }
+
+        private int findNext(int from) {
+            for(int i = from; i < numSlots; i++)
+                if((usedSlots[i / 8] & (1 << (i % 8))) != 0 && isSlotUsed(i))
+                    return i;
+            return numSlots;
+        }
+
+        public boolean hasNext() {
+            next = findNext(next);
+            return next < numSlots;
+        }
+
+        public Tuple next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple tuple = getTuple(next);
+            next++;
+            return tuple;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
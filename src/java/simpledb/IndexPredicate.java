@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of a BTreeFile to a constant. It is
+ * the part of a Predicate that an index can use to find tuples.
+ *
+ * @see IndexScan
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field field;
+
+    /**
+     * Constructor.
+     *
+     * @param op The operation to apply (as defined in Predicate.Op); either
+     *   EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or
+     *   LESS_THAN_OR_EQ. Other operations are checked on every tuple.
+     * @param fvalue The value that the key field is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.field = fvalue;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if no key smaller than the value matches
+     */
+    boolean hasLowerBound() {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @param key a key
+     * @return true if neither the key nor any larger key satisfies this
+     *         predicate
+     */
+    boolean isPast(Field key) {
+        switch(op){
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return key.compare(Predicate.Op.GREATER_THAN, field);
+        case LESS_THAN:
+            return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, field);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param key a key
+     * @return true if the key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, field);
+    }
+
+    public boolean equals(Object o) {
+        if(!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate other = (IndexPredicate) o;
+        return op == other.op && field.equals(other.field);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + field.hashCode();
+    }
+
+    public String toString() {
+        return "key " + op + " " + field;
+    }
+
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * IndexScan is an access method that reads only the tuples of a BTreeFile
+ * whose keys satisfy some predicates, in key order. Equality and range
+ * predicates on the key are answered from the tree; several predicates
+ * combine into a range, e.g. key &gt; 5 and key &lt;= 10.
+ * <p>
+ * It returns tuples like a SeqScan of the same table would, and can take
+ * its place in a plan.
+ *
+ * @see BTreeFile#indexIterator
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IndexPredicate[] preds;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a BTreeFile
+     * @param tableAlias
+     *            the alias of this table, as for SeqScan
+     * @param preds
+     *            the predicates on the key that all returned tuples satisfy
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            IndexPredicate... preds) {
+        super(tid, tableid, tableAlias);
+        this.preds = preds;
+    }
+
+    /**
+     * @return the predicates on the key of this scan
+     */
+    public IndexPredicate[] getIndexPredicates() {
+        return preds;
+    }
+
+    @Override
+    protected DbFileIterator iterator(DbFile file, TransactionId tid) {
+        if(!(file instanceof BTreeFile))
+            throw new UnsupportedOperationException(getTableName()
+                    + " has no index");
+        return ((BTreeFile) file).indexIterator(tid, preds);
+    }
+
+}
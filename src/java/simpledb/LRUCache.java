@@ -33,7 +33,7 @@ public class LRUCache<K, V> {
      * @param key
      * @return True if Cache contains key k
      */
-    public boolean containsKey(K key){
+    public synchronized boolean containsKey(K key){
         return map.containsKey(key);
     }
     
@@ -79,7 +79,7 @@ public class LRUCache<K, V> {
     /**
      * @return The number of elements in cache
      */
-    public int size(){
+    public synchronized int size(){
         return map.size();
     }
     
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**
+ * LRUKPolicy evicts the page whose K-th most recent hit is the oldest,
+ * pages with fewer than K hits first, by their last hit. Pages read once
+ * by a scan thus go before pages in regular use. The hit history of
+ * evicted pages is kept for as many pages as the pool holds, so a page
+ * read again soon after its eviction keeps its standing.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    /** Hits remembered per page by default */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retain;
+    private long clock;
+
+    private class History {
+        final PageId pid;
+        // Times of the last k hits, most recent first, 0 if none
+        final long[] hits = new long[k];
+
+        History(PageId pid) {
+            this.pid = pid;
+        }
+
+        void hit() {
+            System.arraycopy(hits, 0, hits, 1, k - 1);
+            hits[0] = ++clock;
+        }
+    }
+
+    // Cached pages, the next victim first; the last hits are unique
+    private final TreeSet<History> cached = new TreeSet<History>(
+            new Comparator<History>() {
+                public int compare(History a, History b) {
+                    if(a.hits[k - 1] != b.hits[k - 1])
+                        return a.hits[k - 1] < b.hits[k - 1] ? -1 : 1;
+                    return a.hits[0] < b.hits[0] ? -1
+                            : a.hits[0] == b.hits[0] ? 0 : 1;
+                }
+            });
+    private final HashMap<PageId, History> histories = new HashMap<PageId, History>();
+    // Evicted pages whose history is kept, oldest first
+    private final LinkedHashMap<PageId, History> retained
+        = new LinkedHashMap<PageId, History>();
+
+    /**
+     * @param numPages number of pages in the pool, and of evicted pages
+     *        whose history is kept
+     */
+    public LRUKPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    /**
+     * @param numPages number of pages in the pool, and of evicted pages
+     *        whose history is kept
+     * @param k number of hits remembered per page
+     */
+    public LRUKPolicy(int numPages, int k) {
+        if(k < 1)
+            throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+        this.retain = numPages;
+    }
+
+    public void admit(PageId pid) {
+        if(histories.containsKey(pid)){
+            access(pid);
+            return;
+        }
+        History h = retained.remove(pid);
+        if(h == null)
+            h = new History(pid);
+        h.hit();
+        histories.put(pid, h);
+        cached.add(h);
+    }
+
+    public void access(PageId pid) {
+        History h = histories.get(pid);
+        if(h == null)
+            return;
+        cached.remove(h);
+        h.hit();
+        cached.add(h);
+    }
+
+    public void remove(PageId pid) {
+        History h = histories.remove(pid);
+        if(h == null)
+            return;
+        cached.remove(h);
+        retained.put(pid, h);
+        if(retained.size() > retain){
+            Iterator<PageId> oldest = retained.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public PageId evict(Filter filter) {
+        for(History h : cached){
+            if(filter.canEvict(h.pid)){
+                remove(h.pid);
+                return h.pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return histories.size();
+    }
+
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRUPolicy evicts the least recently used page. A single scan of a table
+ * larger than the pool replaces every page in it.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    // Cached pages from least to most recently used
+    private final LinkedHashMap<PageId, Boolean> pages
+        = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public void admit(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public void access(PageId pid) {
+        // Reading an entry of an access ordered map moves it
+        pages.get(pid);
+    }
+
+    public void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public PageId evict(Filter filter) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while(it.hasNext()){
+            PageId pid = it.next();
+            if(filter.canEvict(pid)){
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+}
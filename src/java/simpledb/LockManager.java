@@ -2,9 +2,11 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -26,14 +28,16 @@ public class LockManager {
     private HashMap<PageId, TransactionId> writeLock;
     private HashMap<TransactionId, Set<PageId>> sharedPages;
     private HashMap<TransactionId, Set<PageId>> exclusivePages;
-    private HashMap<TransactionId, Thread> transactionThread;
+    private Map<TransactionId, Thread> transactionThread;
 
     public LockManager() {
         readLocks = new HashMap<PageId, Set<TransactionId>>();
         writeLock = new HashMap<PageId, TransactionId>();
         sharedPages = new HashMap<TransactionId, Set<PageId>>();
         exclusivePages = new HashMap<TransactionId, Set<PageId>>();
-        transactionThread = new HashMap<TransactionId, Thread>();
+        // Read and changed outside the lock of the LockManager
+        transactionThread = Collections.synchronizedMap(
+                new HashMap<TransactionId, Thread>());
     }
     
     /**
@@ -42,7 +46,7 @@ public class LockManager {
      * @param pid Page Id
      * @return boolean True if holds lock
      */
-    public boolean holdsLock(TransactionId tid, PageId pid){
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid){
         if(readLocks.containsKey(pid) && readLocks.get(pid).contains(tid))
             return true;
         if(writeLock.containsKey(pid) && writeLock.get(pid).equals(tid))
@@ -74,8 +78,11 @@ public class LockManager {
             tids.add(tid);
         readLocks.get(pid).clear();
         for(TransactionId tid: tids)
-            if(!tid.equals(requestingTid))
-                transactionThread.get(tid).interrupt();
+            if(!tid.equals(requestingTid)){
+                Thread thread = transactionThread.get(tid);
+                if(thread != null)
+                    thread.interrupt();
+            }
     }
     
     /**
@@ -154,19 +161,27 @@ public class LockManager {
         return false;
     }
     
+    /**
+     * @return true if the transaction holds or held locks
+     */
+    private synchronized boolean hasLocked(TransactionId tid){
+        return sharedPages.containsKey(tid) || exclusivePages.containsKey(tid);
+    }
+
     public void requestLock(TransactionId tid, PageId pid, 
             Permissions perm) throws TransactionAbortedException{
         int blockDelay = BLOCK_DELAY_LONG;
         int maxTries = MAX_TRIES_SMALL;
         // Check if old tid
-        if(sharedPages.containsKey(tid) || 
-                exclusivePages.containsKey(tid)){
+        if(hasLocked(tid)){
             blockDelay = BLOCK_DELAY_SHORT;
             maxTries = MAX_TRIES_LARGE;
         }
         // Add this thread to map
-        if(!transactionThread.containsKey(tid))
-            transactionThread.put(tid, Thread.currentThread());
+        synchronized(transactionThread){
+            if(!transactionThread.containsKey(tid))
+                transactionThread.put(tid, Thread.currentThread());
+        }
         boolean isGranted = this.grantLock(tid, pid, perm);
         Random random = new Random(System.currentTimeMillis());
         long startTime = System.currentTimeMillis();
@@ -224,10 +239,14 @@ public class LockManager {
      * Releases all pages associated with given Transaction.
      * @param tid The TransactionId.
      */
-    public void releaseAllPages(TransactionId tid){
+    public synchronized void releaseAllPages(TransactionId tid){
         if(sharedPages.containsKey(tid)){
             for(PageId pid: sharedPages.get(tid))
-                readLocks.get(pid).remove(tid);
+                if(readLocks.containsKey(pid)){
+                    readLocks.get(pid).remove(tid);
+                    if(readLocks.get(pid).isEmpty())
+                        readLocks.remove(pid);
+                }
             sharedPages.remove(tid);
         }
         if(exclusivePages.containsKey(tid)){
@@ -235,6 +254,7 @@ public class LockManager {
                 writeLock.remove(pid);
             exclusivePages.remove(tid);
         }
+        transactionThread.remove(tid);
     }
     
 }
@@ -187,7 +187,9 @@ public class LogFile {
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.) A transaction
+        that wrote no BEGIN record is live from this record on, so that
+        its commit is logged and recover() redoes the page.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -199,6 +201,41 @@ public class LogFile {
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        if (tidToFirstLogRecord.get(tid.getId()) == null)
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        writeUpdate(tid, before, after);
+    }
+
+    /** Write an UPDATE record for a page of a running transaction that
+        the BufferPool is about to write to disk, and force the log to
+        disk, so that the before image can be restored by rollback() if
+        the transaction aborts. A transaction that wrote no BEGIN record
+        is live from this record on, until it commits or aborts.
+        @param tid The transaction that changed the page
+        @param before The before image of the page
+        @param after The page as it will be written
+
+        @see BufferPool
+    */
+    public synchronized void logSteal(TransactionId tid, Page before,
+                                      Page after)
+        throws IOException {
+        Debug.log("STEAL, offset = " + raf.getFilePointer());
+        preAppend();
+        if (tidToFirstLogRecord.get(tid.getId()) == null)
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        writeUpdate(tid, before, after);
+        force();
+    }
+
+    /** @return true if the transaction has log records and hasn't
+        committed or aborted yet */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    private void writeUpdate(TransactionId tid, Page before, Page after)
+        throws IOException {
         /* update record conists of
 
            record type
@@ -246,6 +283,17 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /** Skip the page data written by writePageData, without reading
+        the page */
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.skipBytes(numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.skipBytes(pageSize);
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -265,7 +313,14 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("No (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +330,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -397,6 +452,7 @@ public class LogFile {
         raf.seek(minLogRecord);
 
         //have to rewrite log records since offsets are different after truncation
+        HashSet<Long> moved = new HashSet<Long>();
         while (true) {
             try {
                 int type = raf.readInt();
@@ -405,6 +461,12 @@ public class LogFile {
 
                 Debug.log("NEW START = " + newStart);
 
+                // live transactions without a BEGIN record start at
+                // their first UPDATE record
+                if (tidToFirstLogRecord.containsKey(record_tid)
+                        && moved.add(record_tid))
+                    tidToFirstLogRecord.put(record_tid, newStart);
+
                 logNew.writeInt(type);
                 logNew.writeLong(record_tid);
 
@@ -466,7 +528,42 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return;
+
+                // The first before image of each page is the page as the
+                // transaction found it
+                HashSet<PageId> restored = new HashSet<PageId>();
+                raf.seek(firstRecord);
+                try {
+                    while (raf.getFilePointer() < currentOffset) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            Page before = readPageData(raf);
+                            readPageData(raf);
+                            PageId pid = before.getId();
+                            if (record_tid == tid.getId() && restored.add(pid)) {
+                                Database.getBufferPool().discardPage(pid);
+                                DbFile file = Database.getCatalog()
+                                    .getDbFile(pid.getTableId());
+                                file.writePage(before);
+                                if (file instanceof HeapFile)
+                                    ((HeapFile) file).pageRestored(before);
+                            }
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        }
+                        raf.readLong();
+                    }
+                } finally {
+                    raf.seek(currentOffset);
+                }
             }
         }
     }
@@ -485,26 +582,162 @@ public class LogFile {
         }
     }
 
+    /** Recover, if nothing was appended to the log and recover() was not
+        called since it was opened. The log of the last run is only kept
+        until the first append, so this is called once the Catalog holds
+        the tables of the database, before the first transaction.
+    */
+    public void recoverOnStartup() throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                if (recoveryUndecided)
+                    recover();
+            }
+        }
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Pages of committed transactions may still have been waiting to
+        be written by the {@link PageFlusher}, so the after images of
+        their UPDATE records are written again, in log order. Pages of
+        transactions that never committed or aborted may have been
+        stolen by the BufferPool, so the first before image of each page
+        they logged is written back, as rollback() would have. The log is
+        then checkpointed, leaving nothing to recover on the next start.
+        Records of tables that are not in the Catalog are skipped.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                tidToFirstLogRecord.clear();
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+
+                // Find the transactions that committed or aborted, and the
+                // end of the last whole record
+                HashSet<Long> committed = new HashSet<Long>();
+                HashSet<Long> aborted = new HashSet<Long>();
+                long end = LONG_SIZE;
+                raf.seek(end);
+                try {
+                    while (true) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            skipPageData(raf);
+                            skipPageData(raf);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            aborted.add(record_tid);
+                            break;
+                        }
+                        raf.readLong();
+                        end = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // a record cut short by the crash
+                }
+
+                // Redo the committed transactions, and find the pages of
+                // the others as they found them. Aborted transactions
+                // were rolled back before their ABORT record.
+                LinkedHashMap<PageId, Page> undo =
+                    new LinkedHashMap<PageId, Page>();
+                raf.seek(LONG_SIZE);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        if (!inCatalog(raf)) {
+                            skipPageData(raf);
+                            skipPageData(raf);
+                        } else if (committed.contains(record_tid)) {
+                            skipPageData(raf);
+                            installPage(readPageData(raf));
+                        } else if (!aborted.contains(record_tid)) {
+                            Page before = readPageData(raf);
+                            skipPageData(raf);
+                            if (!undo.containsKey(before.getId()))
+                                undo.put(before.getId(), before);
+                        } else {
+                            skipPageData(raf);
+                            skipPageData(raf);
+                        }
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                // Undo the transactions that didn't complete
+                for (Page before : undo.values())
+                    installPage(before);
+
+                raf.setLength(end);
+                raf.seek(end);
+                currentOffset = end;
+                logCheckpoint();
             }
          }
     }
 
+    /** Whether the table of the page at the file pointer is in the
+        Catalog. The file pointer is left where it was. */
+    private boolean inCatalog(RandomAccessFile raf) throws IOException {
+        long start = raf.getFilePointer();
+        try {
+            raf.readUTF();
+            raf.readUTF();
+            raf.readInt();
+            Database.getCatalog().getDbFile(raf.readInt());
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        } finally {
+            raf.seek(start);
+        }
+    }
+
+    /** Write a page read from the log to its file, in place of any
+        copy of it in the BufferPool */
+    private void installPage(Page page) throws IOException {
+        PageId pid = page.getId();
+        Database.getBufferPool().discardPage(pid);
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        file.writePage(page);
+        if (file instanceof HeapFile)
+            ((HeapFile) file).pageRestored(page);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
+    /** Force the log to disk. Synced through the file descriptor rather
+        than the channel of the file: LockManager aborts transactions by
+        interrupting their thread, and an interrupted channel closes the
+        log file for every thread. */
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        raf.getFD().sync();
     }
 
 }
@@ -271,6 +271,108 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the filters on a table that its index can answer: equality
+     * and range comparisons of the key of a BTreeFile to a constant.
+     *
+     * @param table the scanned table
+     * @param file the file of the table
+     * @return the predicates for an IndexScan, none if the table has no
+     *         index or no filter on its key
+     */
+    private IndexPredicate[] indexPredicates(LogicalScanNode table, DbFile file) {
+        ArrayList<IndexPredicate> preds = new ArrayList<IndexPredicate>();
+        if (!(file instanceof BTreeFile))
+            return new IndexPredicate[0];
+        int keyField = ((BTreeFile) file).getKeyField();
+        String keyName = file.getTupleDesc().getFieldName(keyField);
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !lf.fieldPureName.equals(keyName))
+                continue;
+            if (lf.p == Predicate.Op.LIKE || lf.p == Predicate.Op.NOT_EQUALS)
+                continue;
+            Field f = constant(file.getTupleDesc().getFieldType(keyField), lf.c);
+            if (f != null)
+                preds.add(new IndexPredicate(lf.p, f));
+        }
+        return preds.toArray(new IndexPredicate[0]);
+    }
+
+    /**
+     * Returns a scan of a table through a hash index, for the first
+     * equality filter on an indexed field of the table.
+     *
+     * @param t the transaction of the scan
+     * @param table the scanned table
+     * @return the scan, or null if no filter can use an index
+     */
+    private HashIndexScan hashIndexScan(TransactionId t, LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p != Predicate.Op.EQUALS)
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (Database.getCatalog().getIndex(table.t, field) == null)
+                continue;
+            Field f = constant(td.getFieldType(field), lf.c);
+            if (f != null)
+                return new HashIndexScan(t, table.t, table.alias, field, f);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a scan of a table through its bitmap indexes, for all the
+     * filters on indexed fields of the table.
+     *
+     * @param t the transaction of the scan
+     * @param table the scanned table
+     * @return the scan, or null if no filter can use a bitmap index
+     */
+    private BitmapScan bitmapScan(TransactionId t, LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Predicate[]> clauses = new ArrayList<Predicate[]>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (Database.getCatalog().getBitmapIndex(table.t, field) == null)
+                continue;
+            Field f = constant(td.getFieldType(field), lf.c);
+            if (f != null)
+                clauses.add(new Predicate[] { new Predicate(field, lf.p, f) });
+        }
+        if (clauses.isEmpty())
+            return null;
+        return new BitmapScan(t, table.t, table.alias,
+                clauses.toArray(new Predicate[0][]));
+    }
+
+    /**
+     * @return the constant of a filter as a field of the given type, or
+     *         null if it is not a valid value of the type
+     */
+    private static Field constant(Type type, String c) {
+        try {
+            if (type == Type.INT_TYPE)
+                return new IntField(Integer.parseInt(c));
+            return new StringField(c, Type.STRING_LEN);
+        } catch (NumberFormatException e) {
+            // Reported when the filter itself is planned
+            return null;
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +396,22 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDbFile(table.t);
+                 // The filters are still applied on top of an index scan,
+                 // so the estimates of the rest of the plan don't change
+                 IndexPredicate[] preds = indexPredicates(table, file);
+                 if (preds.length > 0)
+                     ss = new IndexScan(t, file.getId(), table.alias, preds);
+                 else {
+                     // A hash lookup beats a single bitmap, but not the
+                     // bitmaps of several filters combined
+                     ss = hashIndexScan(t, table);
+                     BitmapScan bs = bitmapScan(t, table);
+                     if (bs != null && (ss == null || bs.getClauses().length > 1))
+                         ss = bs;
+                 }
+                 if (ss == null)
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
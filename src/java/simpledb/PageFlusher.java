@@ -0,0 +1,270 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * PageFlusher writes pages of committed transactions to disk in the
+ * background, so that neither commits nor evictions wait for page writes.
+ * <p>
+ * The BufferPool logs the changes of a page and hands the flusher a copy
+ * of it, its before image, when the transaction that changed it commits.
+ * The page then counts as clean in the BufferPool, but stays pending here
+ * until it is written. Pending pages are written in batches, once enough
+ * of them are pending or when they have waited {@link #DELAY} ms, in order
+ * of table and page number so that the writes to each file are
+ * sequential.
+ * <p>
+ * Pages are only written after the log has been forced, so the log
+ * records of a page are always on disk before the page itself (the write
+ * ahead logging rule). A copy handed to the flusher replaces any older
+ * pending copy of the same page, and copies of a page are written in the
+ * order they were handed over.
+ *
+ * @see BufferPool#transactionComplete
+ * @see LogFile#force
+ */
+public class PageFlusher {
+
+    /** Milliseconds pending pages wait for others to be written with */
+    public static final long DELAY = 50;
+
+    private static final Set<PageFlusher> open = new HashSet<PageFlusher>();
+
+    static {
+        // Don't leave committed pages only in the log on a normal exit
+        Runtime.getRuntime().addShutdownHook(new Thread("PageFlusher shutdown") {
+            public void run() {
+                PageFlusher[] flushers;
+                synchronized(open){
+                    flushers = open.toArray(new PageFlusher[0]);
+                }
+                for(PageFlusher flusher : flushers)
+                    flusher.close();
+            }
+        });
+    }
+
+    private final int batchSize;
+    private final Map<PageId, PendingWrite> pending;
+    // Held while writing, so copies of a page are written in order
+    private final Object writeLock = new Object();
+    private Thread thread;
+    private boolean closed;
+
+    /**
+     * Creates a flusher that starts writing as soon as batchSize pages are
+     * pending, or after {@link #DELAY} ms otherwise.
+     *
+     * @param batchSize Number of pending pages that starts a batch
+     */
+    public PageFlusher(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        this.pending = new HashMap<PageId, PendingWrite>();
+    }
+
+    /**
+     * Hands over a page to be written. The log records of the changes in
+     * the page must have been appended to the log already.
+     *
+     * @param file File the page belongs to
+     * @param page Copy of the page that is not modified afterwards
+     * @throws IOException if the flusher is closed and writing the page
+     *         fails
+     */
+    public void add(DbFile file, Page page) throws IOException {
+        synchronized(this){
+            if(!closed){
+                pending.put(page.getId(), new PendingWrite(file, page));
+                start();
+                if(pending.size() >= batchSize)
+                    notifyAll();
+                return;
+            }
+        }
+        forceLog();
+        synchronized(writeLock){
+            file.writePage(page);
+        }
+    }
+
+    /**
+     * @return true if a copy of the page is waiting to be written
+     */
+    public synchronized boolean isPending(PageId pid) {
+        return pending.containsKey(pid);
+    }
+
+    /**
+     * @return the number of pages waiting to be written
+     */
+    public synchronized int getNumPending() {
+        return pending.size();
+    }
+
+    /**
+     * Writes the pending copy of a page now, if there is one. Used before
+     * a page is dropped from the BufferPool or read back from disk.
+     *
+     * @param pid Id of the page
+     * @throws IOException if the page can't be written
+     */
+    public void flush(PageId pid) throws IOException {
+        while(true){
+            PendingWrite write;
+            synchronized(this){
+                write = pending.get(pid);
+            }
+            if(write == null)
+                return;
+            // Force the log without holding writeLock, as flushAll does
+            forceLog();
+            synchronized(writeLock){
+                synchronized(this){
+                    // A newer copy waits for its log records to be forced
+                    if(pending.get(pid) != write)
+                        continue;
+                }
+                write.file.writePage(write.page);
+                written(write);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes all the pages pending when called.
+     *
+     * @throws IOException if a page can't be written
+     */
+    public void flushAll() throws IOException {
+        Map<PageId, PendingWrite> batch;
+        synchronized(this){
+            if(pending.isEmpty())
+                return;
+            batch = new HashMap<PageId, PendingWrite>(pending);
+        }
+        // Force the log without holding writeLock; the BufferPool may hold
+        // the log while waiting for writeLock
+        forceLog();
+        synchronized(writeLock){
+            List<PendingWrite> writes = new ArrayList<PendingWrite>();
+            synchronized(this){
+                for(PendingWrite write : batch.values()){
+                    // Newer copies wait for their log records to be forced
+                    if(pending.get(write.page.getId()) == write)
+                        writes.add(write);
+                }
+            }
+            Collections.sort(writes);
+            for(PendingWrite write : writes){
+                write.file.writePage(write.page);
+                written(write);
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a written copy, unless a newer copy was handed over
+     * meanwhile. Pages stay pending until they are on disk, so the
+     * BufferPool doesn't evict and read them back before then.
+     */
+    private synchronized void written(PendingWrite write) {
+        if(pending.get(write.page.getId()) == write)
+            pending.remove(write.page.getId());
+    }
+
+    /**
+     * Writes all pending pages and stops the background thread. Pages
+     * handed over afterwards are written straight away.
+     */
+    public void close() {
+        synchronized(this){
+            closed = true;
+            notifyAll();
+        }
+        synchronized(open){
+            open.remove(this);
+        }
+        try{
+            flushAll();
+        }catch(IOException ioe){
+            ioe.printStackTrace();
+        }
+    }
+
+    private static void forceLog() throws IOException {
+        LogFile log = Database.getLogFile();
+        if(log != null)
+            log.force();
+    }
+
+    private void start() {
+        if(thread != null)
+            return;
+        synchronized(open){
+            open.add(this);
+        }
+        thread = new Thread("PageFlusher") {
+            public void run() {
+                while(awaitBatch()){
+                    try{
+                        flushAll();
+                    }catch(IOException ioe){
+                        // The pages stay in the log; try again later
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits until there are pages to write, and then until enough of them
+     * are pending or the first has waited long enough.
+     *
+     * @return false once the flusher is closed
+     */
+    private synchronized boolean awaitBatch() {
+        try{
+            while(pending.isEmpty() && !closed)
+                wait();
+            long end = System.currentTimeMillis() + DELAY;
+            long now;
+            while(pending.size() < batchSize && !closed
+                    && (now = System.currentTimeMillis()) < end)
+                wait(end - now);
+        }catch(InterruptedException e){
+            return false;
+        }
+        return !closed;
+    }
+
+    /**
+     * Copy of a page waiting to be written, ordered by table and page
+     * number
+     */
+    private static class PendingWrite implements Comparable<PendingWrite> {
+
+        final DbFile file;
+        final Page page;
+
+        PendingWrite(DbFile file, Page page) {
+            this.file = file;
+            this.page = page;
+        }
+
+        public int compareTo(PendingWrite other) {
+            PageId a = page.getId();
+            PageId b = other.page.getId();
+            if(a.getTableId() != b.getTableId())
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            return a.pageNumber() < b.pageNumber() ? -1
+                    : (a.pageNumber() == b.pageNumber() ? 0 : 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * PagePrefetcher reads pages of a file into the BufferPool ahead of a scan.
+ * The scan reports every page it is about to fetch through
+ * {@link #access}. Once the accesses look sequential, the following pages
+ * are loaded on a small shared pool of I/O threads.
+ * <p>
+ * The read-ahead window starts small. It doubles each time the scan catches
+ * up with a page that is still being read, and halves when a prefetched page
+ * was evicted before the scan reached it. It never exceeds the maximum
+ * window given for the scan, or a quarter of the BufferPool.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class PagePrefetcher {
+
+    /** Default maximum number of pages read ahead of a scan */
+    public static final int DEFAULT_WINDOW = 16;
+
+    private static final int IO_THREADS = 2;
+    private static final int INITIAL_WINDOW = 2;
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private static final ExecutorService ioPool =
+            Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PagePrefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final int numPages;
+    private final int maxWindow;
+    private final AccessStrategy strategy;
+
+    private int window;
+    private int lastPage;
+    private int sequentialRun;
+    private int prefetchedUpTo;
+    private final Map<Integer, Future<?>> pending;
+
+    /**
+     * Creates a prefetcher for one scan over a file
+     *
+     * @param tid Transaction performing the scan
+     * @param tableId Id of the file being scanned
+     * @param numPages Number of pages in the file
+     * @param maxWindow Maximum number of pages to read ahead
+     */
+    public PagePrefetcher(TransactionId tid, int tableId, int numPages,
+            int maxWindow) {
+        this(tid, tableId, numPages, maxWindow, null);
+    }
+
+    /**
+     * Creates a prefetcher for one scan over a file, reading the pages in
+     * through the access strategy of the scan
+     *
+     * @param tid Transaction performing the scan
+     * @param tableId Id of the file being scanned
+     * @param numPages Number of pages in the file
+     * @param maxWindow Maximum number of pages to read ahead
+     * @param strategy Access strategy of the scan, or null
+     */
+    public PagePrefetcher(TransactionId tid, int tableId, int numPages,
+            int maxWindow, AccessStrategy strategy) {
+        this.tid = tid;
+        this.strategy = strategy;
+        this.tableId = tableId;
+        this.numPages = numPages;
+        // Read ahead into at most a quarter of the BufferPool
+        int pageSize = Database.getCatalog().getDbFile(tableId).getPageSize();
+        int poolLimit = (int) Math.max(1,
+                Database.getBufferPool().getCapacity() / 4 / pageSize);
+        this.maxWindow = Math.min(maxWindow, poolLimit);
+        this.pending = new HashMap<Integer, Future<?>>();
+        reset();
+    }
+
+    private void reset() {
+        window = Math.min(INITIAL_WINDOW, maxWindow);
+        lastPage = -1;
+        sequentialRun = 0;
+        prefetchedUpTo = 0;
+    }
+
+    /**
+     * Records that the scan is about to fetch the given page and schedules
+     * reads of the pages after it. If the page is still being read ahead,
+     * waits for that read so the page is not read twice.
+     *
+     * @param pageNumber Number of the page the scan fetches next
+     */
+    public void access(int pageNumber) {
+        if(pageNumber != lastPage + 1){
+            // Not sequential, start over
+            cancel();
+            reset();
+        }
+        lastPage = pageNumber;
+        sequentialRun++;
+
+        Future<?> read = pending.remove(pageNumber);
+        if(read != null){
+            if(!read.isDone()){
+                // Scan is faster than the reads, read further ahead
+                window = Math.min(window * 2, maxWindow);
+                await(read);
+            }
+            else if(!Database.getBufferPool().isCached(pageId(pageNumber)))
+                // Read too far ahead, page did not survive till used
+                window = Math.max(window / 2, 1);
+        }
+
+        if(sequentialRun < SEQUENTIAL_THRESHOLD)
+            return;
+        int end = Math.min(numPages, pageNumber + 1 + window);
+        for(int i = Math.max(prefetchedUpTo, pageNumber + 1); i < end; i++)
+            if(wanted(i))
+                pending.put(i, ioPool.submit(new PageRead(pageId(i))));
+        prefetchedUpTo = Math.max(prefetchedUpTo, end);
+    }
+
+    /**
+     * Records that the scan passes over the given page without fetching
+     * it. The scan still counts as sequential.
+     *
+     * @param pageNumber Number of the page the scan skips
+     */
+    public void skip(int pageNumber) {
+        if(pageNumber != lastPage + 1){
+            cancel();
+            reset();
+        }
+        lastPage = pageNumber;
+        Future<?> read = pending.remove(pageNumber);
+        if(read != null && !read.cancel(false))
+            await(read);
+    }
+
+    /**
+     * Returns whether the scan will fetch a page; pages it skips are not
+     * read ahead. Scans that skip pages override this.
+     *
+     * @param pageNumber Number of a page after the current one
+     * @return true if the page should be read ahead
+     */
+    protected boolean wanted(int pageNumber) {
+        return true;
+    }
+
+    /**
+     * Stops reading ahead. Waits for reads already running, so that no read
+     * of this scan outlives it.
+     */
+    public void close() {
+        cancel();
+    }
+
+    /**
+     * @return the current read-ahead window in pages
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    private void cancel() {
+        Iterator<Future<?>> reads = pending.values().iterator();
+        while(reads.hasNext()){
+            Future<?> read = reads.next();
+            if(!read.cancel(false))
+                await(read);
+            reads.remove();
+        }
+    }
+
+    private void await(Future<?> read) {
+        try{
+            read.get();
+        }catch(InterruptedException e){
+            // Keep the interrupt for LockManager to see
+            Thread.currentThread().interrupt();
+        }catch(ExecutionException e){
+            // The scan will read the page itself
+        }
+    }
+
+    private PageId pageId(int pageNumber) {
+        return new HeapPageId(tableId, pageNumber);
+    }
+
+    /**
+     * Task loading one page into the BufferPool
+     */
+    private class PageRead implements Runnable {
+
+        private final PageId pid;
+
+        PageRead(PageId pid) {
+            this.pid = pid;
+        }
+
+        public void run() {
+            Database.getBufferPool().prefetchPage(tid, pid, strategy);
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxFile is a DbFile for tables that are mostly scanned by queries using a
+ * few of their columns. It stores its tuples in PaxPages, which keep the
+ * values of each column together, and otherwise reads, writes and scans
+ * pages like a HeapFile, so SeqScan reads it unchanged.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the tuple desc of the file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize(), false);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the tuple desc of the file
+     * @param pageSize
+     *            bytes per page of the file
+     * @param memoryMapped
+     *            whether pages are read from a memory mapping of the file
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize, boolean memoryMapped) {
+        super(f, td, pageSize, memoryMapped, false);
+    }
+
+    @Override
+    TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+}
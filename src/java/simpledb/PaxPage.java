@@ -0,0 +1,353 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a page of a PaxFile. It holds as many tuples as a HeapPage of
+ * the same table, but stores the values of each column together instead of
+ * storing each tuple together (the PAX layout):
+ * <pre>
+ *   header bits | column 0 of every slot | column 1 of every slot | ...
+ * </pre>
+ * The header is the same as the header of a HeapPage. The value of column
+ * j of slot i is at
+ * <pre>
+ *   header size + number of slots * (size of columns before j)
+ *               + i * size of column j
+ * </pre>
+ * Tuples are returned with their fields still undecoded, and each field is
+ * read from its column only when it is first accessed. Scans that use a
+ * few columns of a wide table, such as aggregates, decode only those
+ * columns.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements TuplePage {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+    private int pageSize;
+    private int headerSize;
+    private int numSlots;
+    private int[] columnOffsets;
+    private ByteBuffer data;
+    private boolean copyOnWrite;
+    private Tuple tuples[];
+
+    private ByteBuffer oldData;
+
+    TransactionId dirtyTid;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.
+     *
+     * @see DbFile#getPageSize
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage from the bytes remaining in the given buffer. As with
+     * {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}, the page works on
+     * the given bytes until it is first modified.
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getDbFile(id.getTableId()).getPageSize();
+        this.numSlots = (int) Math.floor((pageSize * 8.0) / (td.getSize() * 8.0 + 1.0));
+        this.headerSize = (int) Math.ceil(numSlots / 8.0);
+        if (data.remaining() < headerSize + numSlots * td.getSize())
+            throw new EOFException("page data too short");
+
+        // Each column starts after all the values of the columns before it
+        columnOffsets = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+
+        if (data.hasArray() && data.remaining() >= pageSize) {
+            this.data = data.slice();
+            this.data.limit(pageSize);
+        } else {
+            byte[] copy = new byte[pageSize];
+            data.duplicate().get(copy, 0,
+                    Math.min(data.remaining(), copy.length));
+            this.data = ByteBuffer.wrap(copy);
+        }
+
+        tuples = new Tuple[numSlots];
+        oldData = this.data;
+        copyOnWrite = true;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, oldData.duplicate());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = data;
+        copyOnWrite = true;
+    }
+
+    /**
+     * Makes the page bytes private to this page before they are patched,
+     * leaving the bytes shared with the before image untouched.
+     */
+    private void prepareWrite() {
+        if (!copyOnWrite)
+            return;
+        byte[] copy = new byte[pageSize];
+        data.duplicate().get(copy);
+        data = ByteBuffer.wrap(copy);
+        copyOnWrite = false;
+    }
+
+    /**
+     * @return the offset of the given field of the given slot in the page
+     *         bytes
+     */
+    private int fieldOffset(int slot, int field) {
+        return columnOffsets[field] + slot * td.getFieldType(field).getLen();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in the given slot. Its fields are decoded from the
+     * page data when they are first accessed.
+     *
+     * @param i The slot index
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        if (tuples[i] == null) {
+            tuples[i] = new Tuple(td, new ColumnFields(data, i));
+            tuples[i].setRecordId(new RecordId(pid, i));
+        }
+        return tuples[i];
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] pageData = new byte[pageSize];
+        data.duplicate().get(pageData);
+        return pageData;
+    }
+
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (!this.pid.equals(recordId.getPageId()))
+            throw new DbException("Tuple not in this page!");
+        int slot = recordId.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple not in this page!");
+        // The deleted tuple may still be in use, so read the rest of its
+        // fields before clearing them
+        if (tuples[slot] != null)
+            for (int j = 0; j < td.numFields(); j++)
+                tuples[slot].getField(j);
+        prepareWrite();
+        markSlotUsed(slot, false);
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(slot, j);
+            for (int b = 0; b < td.getFieldType(j).getLen(); b++)
+                data.put(offset + b, (byte) 0);
+        }
+        tuples[slot] = null;
+    }
+
+    private int getFirstEmptySlot() {
+        for (int b = 0; b < headerSize; b++) {
+            // Skip header bytes with all slots used
+            if (data.get(b) == (byte) 0xff)
+                continue;
+            for (int i = b * 8; i < numSlots && i < (b + 1) * 8; i++)
+                if (!isSlotUsed(i))
+                    return i;
+        }
+        return -1;
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        int slot = getFirstEmptySlot();
+        if (slot == -1)
+            throw new DbException("No Empty Slot to insert");
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("Tuple Description mismatch.");
+        t.setRecordId(new RecordId(pid, slot));
+        prepareWrite();
+        ByteBuffer bb = data.duplicate();
+        for (int j = 0; j < td.numFields(); j++) {
+            bb.position(fieldOffset(slot, j));
+            t.getField(j).serialize(bb);
+        }
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = (dirty) ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    public int getNumEmptySlots() {
+        // Bits past the last slot are never set
+        int usedSlots = 0;
+        for (int b = 0; b < headerSize; b++)
+            usedSlots += Integer.bitCount(data.get(b) & 0xff);
+        return numSlots - usedSlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        int bits = data.get(i / 8);
+        if (value)
+            bits |= 1 << (i % 8);
+        else
+            bits &= ~(1 << (i % 8));
+        data.put(i / 8, (byte) bits);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new TupleSlotIterator();
+    }
+
+    /**
+     * Fields of the tuple in one slot, each read from its column when first
+     * accessed. The page bytes are only changed in place for slots that are
+     * empty or whose tuple was fully read by deleteTuple, so they stay
+     * valid for as long as the tuple is used.
+     */
+    private class ColumnFields extends AbstractList<Field> {
+
+        private final ByteBuffer bytes;
+        private final int slot;
+        private final Field[] fields;
+
+        ColumnFields(ByteBuffer bytes, int slot) {
+            this.bytes = bytes;
+            this.slot = slot;
+            this.fields = new Field[td.numFields()];
+        }
+
+        public Field get(int j) {
+            if (fields[j] == null) {
+                ByteBuffer bb = bytes.duplicate();
+                bb.position(fieldOffset(slot, j));
+                try {
+                    fields[j] = td.getFieldType(j).parse(bb);
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+            }
+            return fields[j];
+        }
+
+        public Field set(int j, Field f) {
+            Field old = fields[j];
+            fields[j] = f;
+            return old;
+        }
+
+        public int size() {
+            return fields.length;
+        }
+
+    }
+
+    /**
+     * Iterator over the slots used when it was created. Slots emptied in
+     * the meantime are skipped.
+     */
+    private class TupleSlotIterator implements Iterator<Tuple> {
+
+        private final byte[] usedSlots;
+        private int next;
+
+        TupleSlotIterator() {
+            usedSlots = new byte[headerSize];
+            data.duplicate().get(usedSlots);
+            next = findNext(0);
+        }
+
+        private int findNext(int from) {
+            for (int i = from; i < numSlots; i++)
+                if ((usedSlots[i / 8] & (1 << (i % 8))) != 0 && isSlotUsed(i))
+                    return i;
+            return numSlots;
+        }
+
+        public boolean hasNext() {
+            next = findNext(next);
+            return next < numSlots;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple tuple = getTuple(next);
+            next++;
+            return tuple;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ReplacementBenchmark replays traces of BufferPool.getPage calls against
+ * each {@link ReplacementPolicy}, simulating a pool of a given number of
+ * pages in which every page can be evicted, and reports the hit ratio of
+ * each policy and the number of accesses it handles per second.
+ * <p>
+ * Traces are files of one <code>tableId pageNumber</code> line per access,
+ * as written by {@link BufferPool#setAccessTrace}. Without trace files, a
+ * trace is recorded from a BufferPool serving short transactions that read
+ * a hot set of pages, mixed with scans of a table four times the size of
+ * the pool.
+ * <p>
+ * Usage: <code>java simpledb.ReplacementBenchmark [poolPages] [traceFile ...]</code>
+ */
+public class ReplacementBenchmark {
+
+    private static final int DEFAULT_POOL_PAGES = 500;
+    private static final int TRANSACTIONS = 20000;
+    private static final int PAGES_PER_TRANSACTION = 10;
+    // One transaction in SCAN_EVERY scans the whole table
+    private static final int SCAN_EVERY = 2000;
+
+    private static final ReplacementPolicy.Filter ANY_PAGE
+        = new ReplacementPolicy.Filter() {
+            public boolean canEvict(PageId pid) {
+                return true;
+            }
+        };
+
+    public static void main(String[] argv) throws Exception {
+        int poolPages = argv.length > 0
+                ? Integer.parseInt(argv[0]) : DEFAULT_POOL_PAGES;
+        if(argv.length > 1){
+            for(int i = 1; i < argv.length; i++)
+                replayAll(argv[i], readTrace(new FileReader(argv[i])), poolPages);
+        }else{
+            replayAll("recorded hot set and scans", recordTrace(poolPages),
+                    poolPages);
+        }
+    }
+
+    /**
+     * Reads a trace of page accesses
+     *
+     * @param in the trace, one <code>tableId pageNumber</code> line per access
+     * @return the pages accessed, in order
+     * @throws IOException if the trace can't be read
+     */
+    static List<PageId> readTrace(Reader in) throws IOException {
+        BufferedReader br = new BufferedReader(in);
+        List<PageId> trace = new ArrayList<PageId>();
+        String line;
+        while((line = br.readLine()) != null){
+            String[] fields = line.trim().split("\\s+");
+            if(fields.length != 2)
+                continue;
+            trace.add(new HeapPageId(Integer.parseInt(fields[0]),
+                    Integer.parseInt(fields[1])));
+        }
+        br.close();
+        return trace;
+    }
+
+    /**
+     * Records the page accesses of a workload of short transactions over a
+     * hot set of half a pool of pages, with a scan of a table of four
+     * pools every SCAN_EVERY transactions
+     */
+    static List<PageId> recordTrace(int poolPages) throws Exception {
+        HeapFile table = ScanBenchmark.createTable(4 * poolPages);
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        StringWriter recorded = new StringWriter();
+        bp.setAccessTrace(new PrintWriter(recorded));
+        Random random = new Random(0);
+        int hotPages = poolPages / 2;
+        for(int t = 0; t < TRANSACTIONS; t++){
+            TransactionId tid = new TransactionId();
+            if(t % SCAN_EVERY == SCAN_EVERY - 1){
+                DbFileIterator scan = table.iterator(tid, 0);
+                scan.open();
+                while(scan.hasNext())
+                    scan.next();
+                scan.close();
+            }else{
+                for(int i = 0; i < PAGES_PER_TRANSACTION; i++)
+                    bp.getPage(tid, new HeapPageId(table.getId(),
+                            random.nextInt(hotPages)), Permissions.READ_ONLY);
+            }
+            bp.transactionComplete(tid);
+        }
+        bp.setAccessTrace(null);
+        Database.getCatalog().clear();
+        table.close();
+        table.getFile().delete();
+        return readTrace(new StringReader(recorded.toString()));
+    }
+
+    static void replayAll(String name, List<PageId> trace, int poolPages) {
+        System.out.println("Replaying " + name + ", " + trace.size()
+                + " accesses, with a pool of " + poolPages + " pages");
+        for(String policy : BufferPool.POLICIES){
+            // The first run warms up the JIT
+            replay(BufferPool.newPolicy(policy, poolPages), trace, poolPages);
+            long start = System.nanoTime();
+            int hits = replay(BufferPool.newPolicy(policy, poolPages), trace,
+                    poolPages);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%-6s %6.2f%% hits %8.2f M accesses/s",
+                    policy, 100.0 * hits / trace.size(),
+                    trace.size() / seconds / 1e6));
+        }
+    }
+
+    /**
+     * Replays a trace against a policy
+     *
+     * @return the number of accesses that were hits
+     */
+    static int replay(ReplacementPolicy policy, List<PageId> trace,
+            int poolPages) {
+        HashSet<PageId> cached = new HashSet<PageId>();
+        int hits = 0;
+        for(PageId pid : trace){
+            if(cached.contains(pid)){
+                hits++;
+                policy.access(pid);
+                continue;
+            }
+            if(cached.size() >= poolPages)
+                cached.remove(policy.evict(ANY_PAGE));
+            policy.admit(pid);
+            cached.add(pid);
+        }
+        return hits;
+    }
+
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room. The BufferPool tells the policy about the pages it caches, the
+ * hits on them and the pages it drops, and asks it for a victim among the
+ * pages that can be evicted.
+ * <p>
+ * Policies are not thread safe; the BufferPool calls them under a lock of
+ * its own. Hits may be reported late, in batches, and may name pages that
+ * were dropped meanwhile, which are ignored.
+ *
+ * @see BufferPool#newPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Decides whether a page can be evicted now
+     */
+    public interface Filter {
+        /**
+         * @param pid a cached page
+         * @return true if the page may be evicted
+         */
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Notes that a page was added to the pool
+     *
+     * @param pid the page added, which is not cached yet
+     */
+    public void admit(PageId pid);
+
+    /**
+     * Notes a hit on a cached page. Does nothing if the page is not cached.
+     *
+     * @param pid the page hit
+     */
+    public void access(PageId pid);
+
+    /**
+     * Forgets a cached page the pool dropped without asking the policy
+     *
+     * @param pid the page dropped
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Chooses a cached page to evict, and forgets it
+     *
+     * @param filter the pages that may be chosen
+     * @return the page chosen, or null if no page may be evicted
+     */
+    public PageId evict(Filter filter);
+
+    /**
+     * @return the number of cached pages the policy knows of
+     */
+    public int size();
+
+}
@@ -0,0 +1,483 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * RoaringBitmap is a compressed set of non-negative integers, in the style
+ * of Roaring bitmaps. The integers are split by their high 16 bits into
+ * chunks of 65536 values, and each non-empty chunk is stored in a
+ * container of its own: a sorted array of the low 16 bits while the chunk
+ * holds at most {@link #ARRAY_MAX} values, and a plain bitmap of 8KB once
+ * it holds more. Sparse chunks thus take 2 bytes per value, dense chunks
+ * at most a bit per possible value, and empty chunks nothing.
+ * <p>
+ * AND and OR work a chunk at a time, and only on the chunks present in
+ * the bitmaps combined. The class is not thread safe.
+ *
+ * @see BitmapIndex
+ */
+public class RoaringBitmap {
+
+    /** Largest number of values in an array container */
+    static final int ARRAY_MAX = 4096;
+
+    private final TreeMap<Integer, Container> containers;
+
+    /**
+     * Creates an empty bitmap
+     */
+    public RoaringBitmap() {
+        containers = new TreeMap<Integer, Container>();
+    }
+
+    /**
+     * Adds a value to the bitmap
+     *
+     * @param x the value, which must not be negative
+     */
+    public void add(int x) {
+        if(x < 0)
+            throw new IllegalArgumentException("Negative value " + x);
+        Integer key = x >>> 16;
+        Container c = containers.get(key);
+        if(c == null)
+            c = new ArrayContainer();
+        containers.put(key, c.add((char) x));
+    }
+
+    /**
+     * Removes a value from the bitmap, if it is in it
+     */
+    public void remove(int x) {
+        if(x < 0)
+            return;
+        Integer key = x >>> 16;
+        Container c = containers.get(key);
+        if(c == null)
+            return;
+        c = c.remove((char) x);
+        if(c.cardinality() == 0)
+            containers.remove(key);
+        else
+            containers.put(key, c);
+    }
+
+    /**
+     * @return true if the value is in the bitmap
+     */
+    public boolean contains(int x) {
+        if(x < 0)
+            return false;
+        Container c = containers.get(x >>> 16);
+        return c != null && c.contains((char) x);
+    }
+
+    /**
+     * @return the number of values in the bitmap
+     */
+    public int getCardinality() {
+        int n = 0;
+        for(Container c : containers.values())
+            n += c.cardinality();
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return containers.isEmpty();
+    }
+
+    /**
+     * Returns the first value in the bitmap at or after the given value,
+     * like {@link BitSet#nextSetBit}.
+     *
+     * @param from the value to start from
+     * @return the value, or -1 if there is none
+     */
+    public int nextValue(int from) {
+        from = Math.max(from, 0);
+        for(Map.Entry<Integer, Container> e
+                : containers.tailMap(from >>> 16).entrySet()){
+            int high = e.getKey();
+            int low = high == from >>> 16 ? from & 0xFFFF : 0;
+            int next = e.getValue().next(low);
+            if(next >= 0)
+                return high << 16 | next;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a new bitmap with the values in both this and the other bitmap
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        for(Map.Entry<Integer, Container> e : containers.entrySet()){
+            Container c = other.containers.get(e.getKey());
+            if(c == null)
+                continue;
+            c = e.getValue().and(c);
+            if(c.cardinality() > 0)
+                result.containers.put(e.getKey(), c);
+        }
+        return result;
+    }
+
+    /**
+     * @return a new bitmap with the values in this or the other bitmap
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = copy();
+        for(Map.Entry<Integer, Container> e : other.containers.entrySet()){
+            Container c = result.containers.get(e.getKey());
+            result.containers.put(e.getKey(), c == null
+                    ? e.getValue().copy() : c.or(e.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * @return a new bitmap with the same values
+     */
+    public RoaringBitmap copy() {
+        RoaringBitmap result = new RoaringBitmap();
+        for(Map.Entry<Integer, Container> e : containers.entrySet())
+            result.containers.put(e.getKey(), e.getValue().copy());
+        return result;
+    }
+
+    /**
+     * @return the number of bytes the bitmap takes when serialized
+     */
+    public int getSizeInBytes() {
+        int n = 4;
+        for(Container c : containers.values())
+            n += 6 + c.sizeInBytes();
+        return n;
+    }
+
+    /**
+     * Writes the bitmap: the number of containers, and then for each the
+     * high 16 bits of its values, its cardinality and its contents
+     */
+    public void serialize(DataOutput out) throws IOException {
+        out.writeInt(containers.size());
+        for(Map.Entry<Integer, Container> e : containers.entrySet()){
+            out.writeShort(e.getKey());
+            out.writeInt(e.getValue().cardinality());
+            e.getValue().serialize(out);
+        }
+    }
+
+    /**
+     * Reads a bitmap written by {@link #serialize}
+     */
+    public static RoaringBitmap deserialize(DataInput in) throws IOException {
+        RoaringBitmap result = new RoaringBitmap();
+        int n = in.readInt();
+        for(int i = 0; i < n; i++){
+            int key = in.readUnsignedShort();
+            int cardinality = in.readInt();
+            Container c;
+            if(cardinality <= ARRAY_MAX)
+                c = ArrayContainer.read(in, cardinality);
+            else
+                c = BitmapContainer.read(in, cardinality);
+            result.containers.put(key, c);
+        }
+        return result;
+    }
+
+    public boolean equals(Object o) {
+        if(!(o instanceof RoaringBitmap))
+            return false;
+        RoaringBitmap other = (RoaringBitmap) o;
+        if(!containers.keySet().equals(other.containers.keySet()))
+            return false;
+        for(Map.Entry<Integer, Container> e : containers.entrySet())
+            if(!e.getValue().sameValues(other.containers.get(e.getKey())))
+                return false;
+        return true;
+    }
+
+    public int hashCode() {
+        return getCardinality();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for(int x = nextValue(0); x >= 0; x = nextValue(x + 1)){
+            if(sb.length() > 1)
+                sb.append(',');
+            sb.append(x);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * The low 16 bits of the values of a chunk. Changes may return a
+     * different container, when the values are better stored in the
+     * other kind.
+     */
+    private static abstract class Container {
+        abstract Container add(char x);
+        abstract Container remove(char x);
+        abstract boolean contains(char x);
+        abstract int cardinality();
+        /** @return the first value at or after from, or -1 */
+        abstract int next(int from);
+        abstract Container and(Container other);
+        abstract Container or(Container other);
+        abstract Container copy();
+        abstract int sizeInBytes();
+        abstract void serialize(DataOutput out) throws IOException;
+
+        boolean sameValues(Container other) {
+            if(cardinality() != other.cardinality())
+                return false;
+            for(int x = next(0); x >= 0; x = next(x + 1))
+                if(!other.contains((char) x))
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * A sorted array of at most ARRAY_MAX values
+     */
+    private static class ArrayContainer extends Container {
+
+        char[] values;
+        int size;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        static ArrayContainer read(DataInput in, int cardinality)
+                throws IOException {
+            char[] values = new char[Math.max(cardinality, 4)];
+            for(int i = 0; i < cardinality; i++)
+                values[i] = in.readChar();
+            return new ArrayContainer(values, cardinality);
+        }
+
+        Container add(char x) {
+            int i = Arrays.binarySearch(values, 0, size, x);
+            if(i >= 0)
+                return this;
+            if(size == ARRAY_MAX)
+                return toBitmap().add(x);
+            i = -i - 1;
+            if(size == values.length)
+                values = Arrays.copyOf(values,
+                        Math.min(ARRAY_MAX, values.length * 2));
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = x;
+            size++;
+            return this;
+        }
+
+        Container remove(char x) {
+            int i = Arrays.binarySearch(values, 0, size, x);
+            if(i < 0)
+                return this;
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return this;
+        }
+
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, size, x) >= 0;
+        }
+
+        int cardinality() {
+            return size;
+        }
+
+        int next(int from) {
+            if(from > 0xFFFF)
+                return -1;
+            int i = Arrays.binarySearch(values, 0, size, (char) from);
+            if(i < 0)
+                i = -i - 1;
+            return i < size ? values[i] : -1;
+        }
+
+        Container and(Container other) {
+            char[] result = new char[size];
+            int n = 0;
+            for(int i = 0; i < size; i++)
+                if(other.contains(values[i]))
+                    result[n++] = values[i];
+            return new ArrayContainer(result, n);
+        }
+
+        Container or(Container other) {
+            if(other instanceof BitmapContainer)
+                return other.or(this);
+            ArrayContainer a = (ArrayContainer) other;
+            if(size + a.size > ARRAY_MAX)
+                return toBitmap().or(other);
+            // Merge the two sorted arrays
+            char[] result = new char[size + a.size];
+            int i = 0, j = 0, n = 0;
+            while(i < size || j < a.size){
+                if(j == a.size || (i < size && values[i] < a.values[j]))
+                    result[n++] = values[i++];
+                else if(i == size || a.values[j] < values[i])
+                    result[n++] = a.values[j++];
+                else{
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, values.length), size);
+        }
+
+        int sizeInBytes() {
+            return 2 * size;
+        }
+
+        void serialize(DataOutput out) throws IOException {
+            for(int i = 0; i < size; i++)
+                out.writeChar(values[i]);
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for(int i = 0; i < size; i++)
+                b.add(values[i]);
+            return b;
+        }
+    }
+
+    /**
+     * A bit for each of the 65536 values of the chunk
+     */
+    private static class BitmapContainer extends Container {
+
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static BitmapContainer read(DataInput in, int cardinality)
+                throws IOException {
+            long[] words = new long[1024];
+            for(int i = 0; i < words.length; i++)
+                words[i] = in.readLong();
+            return new BitmapContainer(words, cardinality);
+        }
+
+        Container add(char x) {
+            long bit = 1L << x;
+            if((words[x >>> 6] & bit) == 0){
+                words[x >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        Container remove(char x) {
+            long bit = 1L << x;
+            if((words[x >>> 6] & bit) != 0){
+                words[x >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return cardinality <= ARRAY_MAX ? toArray() : this;
+        }
+
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        int next(int from) {
+            if(from > 0xFFFF)
+                return -1;
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while(true){
+                if(word != 0)
+                    return w * 64 + Long.numberOfTrailingZeros(word);
+                if(++w == words.length)
+                    return -1;
+                word = words[w];
+            }
+        }
+
+        Container and(Container other) {
+            if(other instanceof ArrayContainer)
+                return other.and(this);
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[1024];
+            int n = 0;
+            for(int i = 0; i < result.length; i++){
+                result[i] = words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer b = new BitmapContainer(result, n);
+            return n <= ARRAY_MAX ? b.toArray() : b;
+        }
+
+        Container or(Container other) {
+            BitmapContainer b = (BitmapContainer) copy();
+            if(other instanceof ArrayContainer){
+                ArrayContainer a = (ArrayContainer) other;
+                for(int i = 0; i < a.size; i++)
+                    b.add(a.values[i]);
+                return b;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            b.cardinality = 0;
+            for(int i = 0; i < b.words.length; i++){
+                b.words[i] |= o[i];
+                b.cardinality += Long.bitCount(b.words[i]);
+            }
+            return b;
+        }
+
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(words, words.length),
+                    cardinality);
+        }
+
+        int sizeInBytes() {
+            return 8 * words.length;
+        }
+
+        void serialize(DataOutput out) throws IOException {
+            for(int i = 0; i < words.length; i++)
+                out.writeLong(words[i]);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int n = 0;
+            for(int x = next(0); x >= 0; x = next(x + 1))
+                values[n++] = (char) x;
+            return new ArrayContainer(values, n);
+        }
+    }
+
+}
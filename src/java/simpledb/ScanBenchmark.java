@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * ScanBenchmark measures the throughput of scanning a HeapFile with an empty
+ * BufferPool. It builds a table of integer tuples of the requested number of
+ * pages and then reads it back through the different read paths, reporting
+ * pages and megabytes per second for each. It then scans tables of the same
+ * number of bytes stored in pages of different sizes, with a BufferPool of
+ * the same number of bytes.
+ * <p>
+ * Usage: <code>java simpledb.ScanBenchmark [numPages] [rounds]</code>
+ */
+public class ScanBenchmark {
+
+    private static final int DEFAULT_NUM_PAGES = 2000;
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final int COLUMNS = 2;
+    private static final int[] PAGE_SIZES = { 4096, 8192, 16384, 32768, 65536 };
+
+    public static void main(String[] argv) throws Exception {
+        int numPages = argv.length > 0
+                ? Integer.parseInt(argv[0]) : DEFAULT_NUM_PAGES;
+        int rounds = argv.length > 1
+                ? Integer.parseInt(argv[1]) : DEFAULT_ROUNDS;
+
+        HeapFile table = createTable(numPages);
+        HeapFile mapped = new HeapFile(table.getFile(),
+                table.getTupleDesc(), true);
+        System.out.println("Scanning " + table.numPages() + " pages, "
+                + rounds + " rounds");
+        for(int round = 0; round < rounds; round++){
+            report("RandomAccessFile per page", legacyScan(table), table);
+            report("HeapFile.readPage", readPageScan(table), table);
+            report("HeapFile.readPage (mmap)", readPageScan(mapped), table);
+            report("SeqScan", seqScan(table, PagePrefetcher.DEFAULT_WINDOW), table);
+            report("SeqScan (no read-ahead)", seqScan(table, 0), table);
+            report("SeqScan (mmap)", seqScan(mapped, PagePrefetcher.DEFAULT_WINDOW), table);
+        }
+        Database.getCatalog().clear();
+        table.close();
+        mapped.close();
+        table.getFile().delete();
+
+        long bytes = (long) numPages * BufferPool.getPageSize();
+        System.out.println("Scanning " + (bytes >> 20) + " MB in pages of "
+                + "different sizes, " + rounds + " rounds");
+        for(int pageSize : PAGE_SIZES){
+            HeapFile sized = createTable((int) (bytes / pageSize), pageSize);
+            for(int round = 0; round < rounds; round++)
+                report("SeqScan (" + (pageSize >> 10) + " KB pages)",
+                        seqScan(sized, PagePrefetcher.DEFAULT_WINDOW), sized);
+            Database.getCatalog().clear();
+            sized.close();
+            sized.getFile().delete();
+        }
+    }
+
+    /**
+     * Creates a table of about numPages full pages of random integers and
+     * adds it to the catalog.
+     *
+     * @param numPages Number of pages to generate
+     * @return HeapFile the generated table
+     * @throws IOException
+     */
+    static HeapFile createTable(int numPages) throws IOException {
+        return createTable(numPages, BufferPool.getPageSize());
+    }
+
+    /**
+     * Creates a table of about numPages full pages of the given size of
+     * random integers and adds it to the catalog.
+     *
+     * @param numPages Number of pages to generate
+     * @param pageSize Bytes per page
+     * @return HeapFile the generated table
+     * @throws IOException
+     */
+    static HeapFile createTable(int numPages, int pageSize) throws IOException {
+        int tupleSize = COLUMNS * Type.INT_TYPE.getLen();
+        int tuplesPerPage = (pageSize * 8) / (tupleSize * 8 + 1);
+        File text = File.createTempFile("scanBenchmark", ".txt");
+        File data = File.createTempFile("scanBenchmark", ".dat");
+        text.deleteOnExit();
+        HeapFile.deleteOnExit(data);
+        Random random = new Random();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for(long i = 0; i < (long) numPages * tuplesPerPage; i++){
+            for(int j = 0; j < COLUMNS; j++){
+                if(j > 0)
+                    bw.write(',');
+                bw.write(String.valueOf(random.nextInt()));
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        HeapFileEncoder.convert(text, data, pageSize, COLUMNS);
+        text.delete();
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(COLUMNS),
+                pageSize, false, false);
+        Database.getCatalog().addTable(table, "scanBenchmark");
+        return table;
+    }
+
+    /**
+     * Reads every page by opening, seeking and closing the file per page.
+     * This is how HeapFile used to read pages.
+     */
+    static long legacyScan(HeapFile table) throws IOException {
+        long start = System.nanoTime();
+        for(int i = 0; i < table.numPages(); i++){
+            byte[] data = new byte[table.getPageSize()];
+            RandomAccessFile raf = new RandomAccessFile(table.getFile(), "r");
+            raf.seek((long) table.getPageSize() * i);
+            raf.read(data);
+            raf.close();
+            new HeapPage(new HeapPageId(table.getId(), i), data);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Reads every page directly with HeapFile.readPage
+     */
+    static long readPageScan(HeapFile table) {
+        long start = System.nanoTime();
+        for(int i = 0; i < table.numPages(); i++)
+            table.readPage(new HeapPageId(table.getId(), i));
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Scans every tuple with a SeqScan over an empty BufferPool. The table
+     * is registered in the catalog in place of any other HeapFile over the
+     * same file.
+     */
+    static long seqScan(HeapFile table, int readAhead)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.getCatalog().addTable(table, "scanBenchmark");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.setReadAhead(readAhead);
+        scan.open();
+        while(scan.hasNext())
+            scan.next();
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    static void report(String name, long nanos, HeapFile table) {
+        double seconds = nanos / 1e9;
+        int pages = table.numPages();
+        System.out.println(String.format("%-28s %8.1f ms %10.0f pages/s %8.1f MB/s",
+                name, nanos / 1e6, pages / seconds,
+                (double) pages * table.getPageSize() / (1 << 20) / seconds));
+    }
+
+}
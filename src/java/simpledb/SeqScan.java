@@ -17,6 +17,8 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     
     private DbFileIterator iterator;
+    private int readAhead = PagePrefetcher.DEFAULT_WINDOW;
+    private ArrayList<Predicate> pagePredicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -85,6 +87,17 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Sets how many pages may be read ahead of this scan. Takes effect on
+     * the next open.
+     * 
+     * @param readAhead maximum number of pages to read ahead, 0 to disable
+     * @see PagePrefetcher
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
     /**
      * Opens the Scanner for reading
      * 
@@ -93,11 +106,40 @@ public class SeqScan implements DbIterator {
      * @throws TransactionAbortedException 
      */
     public void open() throws DbException, TransactionAbortedException {
-        DbFile file = Database.getCatalog().getDbFile(tableId);
-        iterator = file.iterator(tid);
+        iterator = iterator(Database.getCatalog().getDbFile(tableId), tid);
         iterator.open();
     }
 
+    /**
+     * Returns the iterator over the tuples of the table that this scan
+     * returns. Other access methods override this to read fewer tuples.
+     * 
+     * @param file the file of the table
+     * @param tid the transaction this scan is running as a part of
+     * @return DbFileIterator the unopened iterator
+     */
+    protected DbFileIterator iterator(DbFile file, TransactionId tid) {
+        if(file instanceof HeapFile)
+            return ((HeapFile) file).iterator(tid, readAhead,
+                    pagePredicates.toArray(new Predicate[0]));
+        return file.iterator(tid);
+    }
+
+    /**
+     * Lets the scan skip the pages of a HeapFile that hold no tuple
+     * satisfying the predicate, as told by the zone map of the file. The
+     * scan may still return tuples that don't satisfy it, so the caller
+     * must filter them; {@link Filter} does both. Takes effect the next
+     * time the scan is opened.
+     * 
+     * @param p a predicate on the tuples of this scan
+     * @see ZoneMap
+     */
+    public void addPagePredicate(Predicate p) {
+        if(!pagePredicates.contains(p))
+            pagePredicates.add(p);
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -45,7 +45,7 @@ public class SimpleDb {
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -68,6 +68,17 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("vacuum")) {
+            // compact a table file and report the pages reclaimed
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            int reclaimed = table.compact();
+            Database.getBufferPool().flushAllPages();
+            table.close();
+            System.out.println("Reclaimed " + reclaimed + " pages, "
+                    + table.numPages() + " pages left");
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
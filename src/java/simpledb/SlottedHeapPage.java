@@ -0,0 +1,475 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a page of a HeapFile storing tuples as variable length
+ * records, so that strings only take the space of their characters.
+ * <p>
+ * The page starts with the number of slots and the offset of the start of
+ * the record area, followed by the slot directory. Each slot holds the
+ * offset and length of its record, or a length of 0 if it is empty. Records
+ * are stored from the end of the page towards the slot directory:
+ * <pre>
+ *   int slotCount | int recordStart | (short offset, short length) * slotCount
+ *   ... free space ... | records
+ * </pre>
+ * A record is the fields of the tuple, integers as 4 bytes and strings as
+ * a 2 byte length followed by their characters. A page of zeroes is an
+ * empty page, as with {@link HeapPage}.
+ * <p>
+ * Slot numbers are kept while the tuple is on the page. Space freed by
+ * deletes is reused by moving the remaining records together when an
+ * insert needs it.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Largest page size slots can address */
+    public static final int MAX_PAGE_SIZE = 65536;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+
+    private HeapPageId pid;
+    private TupleDesc td;
+    private int pageSize;
+    private ByteBuffer data;
+    private boolean copyOnWrite;
+    private ArrayList<Tuple> tuples;
+
+    private ByteBuffer oldData;
+
+    TransactionId dirtyTid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above.
+     *
+     * @throws IOException if the page data is not a valid slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from the bytes remaining in the given buffer.
+     * As with {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}, the page
+     * works on the given bytes until it is first modified.
+     *
+     * @throws IOException if the page data is not a valid slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getDbFile(id.getTableId()).getPageSize();
+        if (data.remaining() >= pageSize) {
+            this.data = HeapPage.readOnlySlice(data, pageSize);
+        } else {
+            byte[] copy = new byte[pageSize];
+            data.duplicate().get(copy, 0,
+                    Math.min(data.remaining(), copy.length));
+            this.data = ByteBuffer.wrap(copy);
+        }
+
+        int slots = getSlotCount();
+        int recordStart = getRecordStart();
+        if (slots < 0 || recordStart < HEADER_SIZE + slots * SLOT_SIZE
+                || recordStart > pageSize)
+            throw new IOException("invalid slotted page " + id.pageNumber());
+        for (int i = 0; i < slots; i++) {
+            int length = getLength(i);
+            if (length > 0 && (getOffset(i) < recordStart
+                    || getOffset(i) + length > pageSize))
+                throw new IOException("invalid slot " + i + " on slotted page "
+                        + id.pageNumber());
+        }
+
+        tuples = new ArrayList<Tuple>(Collections.nCopies(slots, (Tuple) null));
+        oldData = this.data;
+        copyOnWrite = true;
+    }
+
+    private int getSlotCount() {
+        return data.getInt(0);
+    }
+
+    private int getRecordStart() {
+        // An empty page of zeroes has no records
+        int start = data.getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int getOffset(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xffff;
+    }
+
+    private int getLength(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, oldData.duplicate());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = data;
+        copyOnWrite = true;
+    }
+
+    /**
+     * Makes the page bytes private to this page before they are patched,
+     * leaving the bytes shared with the before image untouched.
+     */
+    private void prepareWrite() {
+        if (!copyOnWrite)
+            return;
+        byte[] copy = new byte[pageSize];
+        data.duplicate().get(copy);
+        data = ByteBuffer.wrap(copy);
+        copyOnWrite = false;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in the given slot, decoding it from the page data
+     * on first access.
+     *
+     * @param i The slot index
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        if (tuples.get(i) == null)
+            tuples.set(i, readTuple(i));
+        return tuples.get(i);
+    }
+
+    private Tuple readTuple(int slot) {
+        ByteBuffer bb = data.duplicate();
+        bb.position(getOffset(slot));
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(bb.getInt()));
+            } else {
+                byte[] s = new byte[bb.getShort() & 0xffff];
+                bb.get(s);
+                t.setField(j, new StringField(new String(s), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returns the length of the record of the given tuple
+     */
+    private int recordLength(Tuple t) {
+        int length = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                length += 4;
+            else
+                length += 2 + stringValue(t, j).length();
+        }
+        return length;
+    }
+
+    /**
+     * Returns the string of a field, cut to {@link Type#STRING_LEN}
+     * characters as on a HeapPage
+     */
+    private static String stringValue(Tuple t, int field) {
+        String s = ((StringField) t.getField(field)).getValue();
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    private void writeRecord(Tuple t, int offset) {
+        ByteBuffer bb = data.duplicate();
+        bb.position(offset);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                bb.putInt(((IntField) t.getField(j)).getValue());
+            } else {
+                String s = stringValue(t, j);
+                bb.putShort((short) s.length());
+                for (int k = 0; k < s.length(); k++)
+                    bb.put((byte) s.charAt(k));
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #SlottedHeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] pageData = new byte[pageSize];
+        data.duplicate().get(pageData);
+        return pageData;
+    }
+
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of bytes not used by records or slots
+     */
+    private int getFreeSpace() {
+        int used = HEADER_SIZE + getSlotCount() * SLOT_SIZE;
+        for (int i = 0; i < getSlotCount(); i++)
+            used += getLength(i);
+        return pageSize - used;
+    }
+
+    private int getFirstEmptySlot() {
+        for (int i = 0; i < getSlotCount(); i++)
+            if (!isSlotUsed(i))
+                return i;
+        return -1;
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (!this.pid.equals(recordId.getPageId()))
+            throw new DbException("Tuple not in this page!");
+        int slot = recordId.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple not in this page!");
+        prepareWrite();
+        int offset = getOffset(slot);
+        int length = getLength(slot);
+        for (int i = offset; i < offset + length; i++)
+            data.put(i, (byte) 0);
+        if (offset == getRecordStart())
+            data.putInt(4, offset + length);
+        setSlot(slot, 0, 0);
+        tuples.set(slot, null);
+
+        // Drop empty slots from the end of the directory
+        int slots = getSlotCount();
+        while (slots > 0 && !isSlotUsed(slots - 1))
+            slots--;
+        data.putInt(0, slots);
+        while (tuples.size() > slots)
+            tuples.remove(tuples.size() - 1);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("Tuple Description mismatch.");
+        if (!hasRoomFor(t))
+            throw new DbException("No room to insert");
+        prepareWrite();
+        int slot = getFirstEmptySlot();
+        int slots = getSlotCount();
+        if (slot == -1) {
+            slot = slots;
+            slots++;
+        }
+        int length = recordLength(t);
+        if (getRecordStart() - length < HEADER_SIZE + slots * SLOT_SIZE)
+            compact();
+
+        int offset = getRecordStart() - length;
+        writeRecord(t, offset);
+        data.putInt(0, slots);
+        data.putInt(4, offset);
+        setSlot(slot, offset, length);
+
+        while (tuples.size() < slots)
+            tuples.add(null);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+    }
+
+    /**
+     * Moves the records together at the end of the page, so that all the
+     * free space is between the slot directory and the records.
+     */
+    private void compact() {
+        byte[] records = new byte[pageSize];
+        int end = pageSize;
+        for (int i = 0; i < getSlotCount(); i++) {
+            int length = getLength(i);
+            if (length == 0)
+                continue;
+            end -= length;
+            ByteBuffer bb = data.duplicate();
+            bb.position(getOffset(i));
+            bb.get(records, end, length);
+            setSlot(i, end, length);
+        }
+        // Copy back, clearing the space the records no longer use
+        int start = getRecordStart();
+        ByteBuffer bb = data.duplicate();
+        bb.position(start);
+        bb.put(records, start, pageSize - start);
+        data.putInt(4, end);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = (dirty) ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTid;
+    }
+
+    /**
+     * Returns the smallest number of bytes a record of this table takes
+     */
+    private int minRecordLength() {
+        return minRecordLength(td);
+    }
+
+    private static int minRecordLength(TupleDesc td) {
+        int length = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            length += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        return length;
+    }
+
+    /**
+     * Returns the most slots a page of the given size can have: each slot
+     * is used by a record when it is added to the directory, and records
+     * are at least as long as the smallest tuple of the tuple desc.
+     */
+    static int maxSlots(int pageSize, TupleDesc td) {
+        return (pageSize - HEADER_SIZE) / (SLOT_SIZE + minRecordLength(td));
+    }
+
+    /**
+     * Returns the number of tuples of the smallest possible size that can
+     * still be added to this page.
+     */
+    public int getNumEmptySlots() {
+        int free = getFreeSpace();
+        int min = minRecordLength();
+        int emptySlots = 0;
+        for (int i = 0; i < getSlotCount(); i++)
+            if (!isSlotUsed(i))
+                emptySlots++;
+        if (free <= emptySlots * min)
+            return free / min;
+        return emptySlots + (free - emptySlots * min) / (min + SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordLength(t);
+        if (getFirstEmptySlot() == -1)
+            needed += SLOT_SIZE;
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < getSlotCount() && getLength(i) > 0;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new TupleSlotIterator();
+    }
+
+    /**
+     * Iterator over the slots used when it was created, decoding each tuple
+     * only when it is reached. Slots emptied in the meantime are skipped.
+     */
+    private class TupleSlotIterator implements Iterator<Tuple> {
+
+        private final boolean[] usedSlots;
+        private int next;
+
+        TupleSlotIterator() {
+            usedSlots = new boolean[getSlotCount()];
+            for (int i = 0; i < usedSlots.length; i++)
+                usedSlots[i] = isSlotUsed(i);
+            next = findNext(0);
+        }
+
+        private int findNext(int from) {
+            for (int i = from; i < usedSlots.length; i++)
+                if (usedSlots[i] && isSlotUsed(i))
+                    return i;
+            return usedSlots.length;
+        }
+
+        public boolean hasNext() {
+            next = findNext(next);
+            return next < usedSlots.length;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple tuple = getTuple(next);
+            next++;
+            return tuple;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    /**
+     * Adds a record to the page in the given bytes, as the next slot. Used
+     * by bulk loads building pages without a catalog.
+     *
+     * @param page Bytes of the page, from its position to its limit
+     * @param record Bytes holding the record
+     * @param length Length of the record
+     * @return false if the page has no room for the record
+     */
+    static boolean appendRecord(ByteBuffer page, byte[] record, int length) {
+        ByteBuffer bb = page.slice();
+        int slots = bb.getInt(0);
+        int start = bb.getInt(4) == 0 ? bb.capacity() : bb.getInt(4);
+        int offset = start - length;
+        if (offset < HEADER_SIZE + (slots + 1) * SLOT_SIZE)
+            return false;
+        bb.position(offset);
+        bb.put(record, 0, length);
+        bb.putShort(HEADER_SIZE + slots * SLOT_SIZE, (short) offset);
+        bb.putShort(HEADER_SIZE + slots * SLOT_SIZE + 2, (short) length);
+        bb.putInt(0, slots + 1);
+        bb.putInt(4, offset);
+        return true;
+    }
+
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -29,8 +30,7 @@ public class TableStats {
     
     private int tableId;
     private int ioCostPerPage;
-    private HeapFile file;
-    private DbFileIterator iterator;
+    private DbFile file;
     
     private Tuple minTuple, maxTuple;
     private int numTuples;
@@ -55,9 +55,9 @@ public class TableStats {
         // in a single scan of the table.
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        file = (HeapFile) Database.getCatalog().getDbFile(tableid);
-        Transaction transaction = new Transaction();
-        iterator = file.iterator(transaction.getId());
+        file = Database.getCatalog().getDbFile(tableid);
+        TransactionId tid = new TransactionId();
+        DbFileIterator iterator = file.iterator(tid);
         minTuple = new Tuple(file.getTupleDesc());
         maxTuple = new Tuple(file.getTupleDesc());
         try {
@@ -89,6 +89,21 @@ public class TableStats {
             e.printStackTrace();
         } catch (NoSuchElementException e) {
             e.printStackTrace();
+        } finally {
+            close(iterator, tid);
+        }
+    }
+
+    /**
+     * Closes a scan of the table and completes its transaction, so that
+     * the scan leaves no page pinned or locked in the BufferPool
+     */
+    private static void close(DbFileIterator iterator, TransactionId tid) {
+        iterator.close();
+        try {
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -146,7 +161,9 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return file.numPages() * ioCostPerPage;
+        if(file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages() * ioCostPerPage;
+        return ((HeapFile) file).numPages() * ioCostPerPage;
     }
 
     /**
@@ -199,8 +216,10 @@ public class TableStats {
                     nbins,  
                     ((IntField) minTuple.getField(field)).getValue(), 
                     ((IntField) maxTuple.getField(field)).getValue() );
+            TransactionId tid = new TransactionId();
+            DbFileIterator iterator = file.iterator(tid);
             try {
-                iterator.rewind();
+                iterator.open();
                 while(iterator.hasNext()){
                     Tuple tuple = iterator.next();
                     hist.addValue(
@@ -210,13 +229,17 @@ public class TableStats {
                 Logger.getLogger(TableStats.class.getName()).log(Level.SEVERE, null, ex);
             } catch (TransactionAbortedException ex) {
                 Logger.getLogger(TableStats.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                close(iterator, tid);
             }
             return hist.estimateSelectivity(op, 
                     ((IntField) constant).getValue());
         }
         StringHistogram hist = new StringHistogram(NUM_HIST_BINS);
+        TransactionId tid = new TransactionId();
+        DbFileIterator iterator = file.iterator(tid);
         try {
-            iterator.rewind();
+            iterator.open();
             while(iterator.hasNext()){
                 Tuple tuple = iterator.next();
                 hist.addValue(
@@ -226,6 +249,8 @@ public class TableStats {
             Logger.getLogger(TableStats.class.getName()).log(Level.SEVERE, null, ex);
         } catch (TransactionAbortedException ex) {
             Logger.getLogger(TableStats.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            close(iterator, tid);
         }
         return hist.estimateSelectivity(op, 
                 ((StringField) constant).getValue());
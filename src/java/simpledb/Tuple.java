@@ -35,6 +35,21 @@ public class Tuple implements Serializable {
             fieldValues.add(null);
     }
 
+    /**
+     * Create a new tuple with the specified schema over the given list of
+     * fields. Used by pages that decode fields only when they are read.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param fields
+     *            list of the fields, one per field of td.
+     * @see PaxPage
+     */
+    Tuple(TupleDesc td, List<Field> fields) {
+        this.tupleDesc = td;
+        this.fieldValues = fields;
+    }
+
     /**
      * @author hrily
      * @return The TupleDesc representing the schema of this tuple.
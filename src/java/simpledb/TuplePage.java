@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface of the pages of a HeapFile. It is implemented
+ * by the page formats a HeapFile can use: {@link HeapPage}, with fixed size
+ * slots, and {@link SlottedHeapPage}, with variable length records.
+ *
+ * @see HeapFile
+ */
+public interface TuplePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * Returns the tuple in the given slot.
+     *
+     * @param i The slot index
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int i);
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page has no room for the tuple or the
+     *         tupledesc is mismatched.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be added to this page.
+     * For pages with variable length records this counts tuples of the
+     * smallest possible size.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns true if the given tuple can be added to this page
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns a read-only view of the bytes of this page, in the format
+     * returned by {@link #getPageData}, without copying them.
+     */
+    public ByteBuffer getPageBuffer();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * TwoQueuePolicy is the 2Q policy. Pages enter a first-in first-out queue
+ * holding a quarter of the pool, and are evicted from it in that order
+ * whatever their hits. The ids of the pages evicted from it are kept for
+ * half a pool; a page read again while its id is kept goes to the main
+ * queue, which is managed as LRU. A scan thus only goes through the first
+ * queue, and the pages in regular use stay in the main one.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int inPages;
+    private final int outPages;
+
+    // Pages seen once, oldest first
+    private final LinkedHashMap<PageId, Boolean> in = new LinkedHashMap<PageId, Boolean>();
+    // Ids of the pages evicted from in, oldest first
+    private final LinkedHashMap<PageId, Boolean> out = new LinkedHashMap<PageId, Boolean>();
+    // Pages seen again, least recently used first
+    private final LinkedHashMap<PageId, Boolean> main
+        = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /**
+     * @param numPages number of pages in the pool
+     */
+    public TwoQueuePolicy(int numPages) {
+        this.inPages = Math.max(1, numPages / 4);
+        this.outPages = Math.max(1, numPages / 2);
+    }
+
+    public void admit(PageId pid) {
+        if(in.containsKey(pid) || main.containsKey(pid)){
+            access(pid);
+        }else if(out.remove(pid) != null){
+            main.put(pid, Boolean.TRUE);
+        }else{
+            in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void access(PageId pid) {
+        // Hits on pages in the first queue don't move them
+        main.get(pid);
+    }
+
+    public void remove(PageId pid) {
+        in.remove(pid);
+        main.remove(pid);
+    }
+
+    public PageId evict(Filter filter) {
+        PageId pid = null;
+        if(in.size() > inPages || main.isEmpty())
+            pid = evict(in, filter);
+        if(pid == null)
+            pid = evict(main, filter);
+        if(pid == null)
+            pid = evict(in, filter);
+        return pid;
+    }
+
+    private PageId evict(LinkedHashMap<PageId, Boolean> queue, Filter filter) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while(it.hasNext()){
+            PageId pid = it.next();
+            if(filter.canEvict(pid)){
+                it.remove();
+                if(queue == in){
+                    out.put(pid, Boolean.TRUE);
+                    trim(out, outPages);
+                }
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    static void trim(LinkedHashMap<PageId, Boolean> queue, int size) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while(queue.size() > size){
+            it.next();
+            it.remove();
+        }
+    }
+
+    public int size() {
+        return in.size() + main.size();
+    }
+
+}
@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * ZoneMap records the smallest and largest value of every field on each
+ * page of a HeapFile, so that scans with a predicate can skip the pages
+ * where no tuple can satisfy it.
+ * <p>
+ * Unlike the {@link FreeSpaceMap} the zones must never be too narrow. A
+ * page starts with an unknown zone and is always read. Its zone becomes
+ * known when the page is created, or when a scan reads it while it is not
+ * dirty. Inserts widen the zone before the tuple reaches the page, deletes
+ * leave it as it is, so a known zone always covers the tuples on the page.
+ * <p>
+ * The map is saved next to the file, in a file with the suffix
+ * {@link #SUFFIX}, when the HeapFile is closed. Like the free space map it
+ * is deleted again when loaded, and ignored if the file was changed after
+ * it was saved, so after a crash all zones are unknown again.
+ *
+ * @see HeapFile#iterator(TransactionId, int, Predicate[])
+ */
+public class ZoneMap {
+
+    /** Suffix appended to the name of the file to name its map */
+    public static final String SUFFIX = ".zm";
+
+    private final HeapFile file;
+    private final File mapFile;
+    private ArrayList<Zone> zones;
+
+    /**
+     * The range of values of each field on a page. A page without tuples
+     * has no range.
+     */
+    private static class Zone {
+        Field[] min;
+        Field[] max;
+    }
+
+    /**
+     * Creates the map of the given file. Nothing is read until the map is
+     * first used.
+     *
+     * @param file File whose pages are tracked
+     */
+    public ZoneMap(HeapFile file) {
+        this.file = file;
+        this.mapFile = new File(file.getFile().getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns whether a page may hold a tuple that satisfies all the given
+     * predicates.
+     *
+     * @param pageNumber Number of the page
+     * @param preds Predicates on the tuples of the file
+     * @return false if the zone of the page is known and rules out a
+     *         predicate
+     */
+    public synchronized boolean mayMatch(int pageNumber, Predicate[] preds) {
+        load();
+        Zone zone = pageNumber < zones.size() ? zones.get(pageNumber) : null;
+        if(zone == null)
+            return true;
+        if(zone.min == null)
+            return false;
+        for(Predicate p : preds)
+            if(!mayMatch(zone, p))
+                return false;
+        return true;
+    }
+
+    private static boolean mayMatch(Zone zone, Predicate p) {
+        Field min = zone.min[p.getField()];
+        Field max = zone.max[p.getField()];
+        Field value = p.getOperand();
+        switch(p.getOp()){
+        case EQUALS:
+            return min.compare(Predicate.Op.LESS_THAN_OR_EQ, value)
+                    && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, value);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return max.compare(p.getOp(), value);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return min.compare(p.getOp(), value);
+        case NOT_EQUALS:
+            return !min.equals(value) || !max.equals(value);
+        default:
+            // LIKE can't be decided from a range
+            return true;
+        }
+    }
+
+    /**
+     * Widens the zone of a page to cover a tuple that is added to it. An
+     * unknown zone stays unknown.
+     *
+     * @param pageNumber Number of the page
+     * @param t The tuple
+     */
+    public synchronized void add(int pageNumber, Tuple t) {
+        load();
+        if(pageNumber >= zones.size())
+            return;
+        Zone zone = zones.get(pageNumber);
+        if(zone != null)
+            widen(zone, t);
+    }
+
+    private static void widen(Zone zone, Tuple t) {
+        int n = t.getTupleDesc().numFields();
+        if(zone.min == null){
+            zone.min = new Field[n];
+            zone.max = new Field[n];
+        }
+        for(int i = 0; i < n; i++){
+            Field f = t.getField(i);
+            if(zone.min[i] == null || f.compare(Predicate.Op.LESS_THAN, zone.min[i]))
+                zone.min[i] = f;
+            if(zone.max[i] == null || f.compare(Predicate.Op.GREATER_THAN, zone.max[i]))
+                zone.max[i] = f;
+        }
+    }
+
+    /**
+     * Sets the zone of a page to the range of the given tuples, which must
+     * be all the tuples on the page.
+     *
+     * @param pageNumber Number of the page
+     * @param tuples The tuples on the page
+     */
+    public synchronized void set(int pageNumber, Iterator<Tuple> tuples) {
+        load();
+        while(zones.size() <= pageNumber)
+            zones.add(null);
+        Zone zone = new Zone();
+        while(tuples.hasNext())
+            widen(zone, tuples.next());
+        zones.set(pageNumber, zone);
+    }
+
+    /**
+     * @param pageNumber Number of the page
+     * @return true if the zone of the page is known
+     */
+    public synchronized boolean isKnown(int pageNumber) {
+        load();
+        return pageNumber < zones.size() && zones.get(pageNumber) != null;
+    }
+
+    /**
+     * Forgets the pages removed from the end of the file.
+     *
+     * @param numPages Number of pages left in the file
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        while(zones.size() > numPages)
+            zones.remove(zones.size() - 1);
+    }
+
+    /**
+     * Saves the map next to the file, if it was loaded and the file is still
+     * on disk. The map is kept in memory and can still be used afterwards.
+     */
+    public synchronized void save() {
+        if(zones == null)
+            return;
+        // A deleted table leaves no map behind
+        if(!file.exists()){
+            mapFile.delete();
+            return;
+        }
+        TupleDesc td = file.getTupleDesc();
+        try{
+            DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mapFile)));
+            try{
+                dos.writeLong(file.length());
+                dos.writeLong(file.lastModified());
+                dos.writeInt(zones.size());
+                for(Zone zone : zones){
+                    if(zone == null){
+                        dos.writeByte(0);
+                    }else if(zone.min == null){
+                        dos.writeByte(1);
+                    }else{
+                        dos.writeByte(2);
+                        for(int i = 0; i < td.numFields(); i++){
+                            zone.min[i].serialize(dos);
+                            zone.max[i].serialize(dos);
+                        }
+                    }
+                }
+            }finally{
+                dos.close();
+            }
+        }catch(IOException ioe){
+            // The zones are learned again when the map can't be read back
+            ioe.printStackTrace();
+            mapFile.delete();
+        }
+    }
+
+    /**
+     * Loads the saved map, or starts with all zones unknown if there is
+     * none or it no longer matches the file.
+     */
+    private void load() {
+        if(zones != null)
+            return;
+        if(!read())
+            zones = new ArrayList<Zone>();
+        // From now on the saved map is out of date until saved again
+        mapFile.delete();
+    }
+
+    private boolean read() {
+        if(!mapFile.exists())
+            return false;
+        TupleDesc td = file.getTupleDesc();
+        try{
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mapFile)));
+            try{
+                if(dis.readLong() != file.length()
+                        || dis.readLong() != file.lastModified())
+                    return false;
+                int pages = dis.readInt();
+                ArrayList<Zone> read = new ArrayList<Zone>(pages);
+                for(int i = 0; i < pages; i++){
+                    byte known = dis.readByte();
+                    Zone zone = null;
+                    if(known > 0)
+                        zone = new Zone();
+                    if(known == 2){
+                        zone.min = new Field[td.numFields()];
+                        zone.max = new Field[td.numFields()];
+                        for(int j = 0; j < td.numFields(); j++){
+                            zone.min[j] = td.getFieldType(j).parse(dis);
+                            zone.max[j] = td.getFieldType(j).parse(dis);
+                        }
+                    }
+                    read.add(zone);
+                }
+                zones = read;
+                return true;
+            }finally{
+                dis.close();
+            }
+        }catch(IOException ioe){
+            return false;
+        }catch(ParseException pe){
+            return false;
+        }
+    }
+
+}
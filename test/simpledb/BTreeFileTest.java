@@ -0,0 +1,223 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    // 30 tuples per leaf and 30 keys per internal page, so a few thousand
+    // tuples make a tree of three levels
+    private static final int PAGE_SIZE = 256;
+
+    private File data;
+    private BTreeFile tree;
+    private List<Integer> keys;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        data = File.createTempFile("btree", ".dat");
+        data.deleteOnExit();
+        tree = new BTreeFile(data, Utility.getTupleDesc(2), 0, PAGE_SIZE);
+        Database.getCatalog().addTable(tree, SystemTestUtil.getUUID());
+        keys = new ArrayList<Integer>();
+    }
+
+    /**
+     * Inserts each of count random keys three times, through the Insert
+     * operator
+     */
+    private void insertRandom(int count) throws Exception {
+        Random random = new Random(1);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < count; i++) {
+            int key = random.nextInt(count * 2);
+            for (int j = 0; j < 3; j++) {
+                tuples.add(Utility.getHeapTuple(new int[] { key, j }));
+                keys.add(key);
+            }
+        }
+        Collections.shuffle(tuples, random);
+        Collections.sort(keys);
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(
+                Utility.getTupleDesc(2), tuples), tree.getId());
+        insert.open();
+        assertEquals(new IntField(tuples.size()), insert.next().getField(0));
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<Integer> scan(DbIterator it) throws Exception {
+        List<Integer> found = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return found;
+    }
+
+    private List<Integer> expected(IndexPredicate... preds) {
+        List<Integer> matches = new ArrayList<Integer>();
+        for (int key : keys) {
+            boolean match = true;
+            for (IndexPredicate pred : preds)
+                match &= pred.matches(new IntField(key));
+            if (match)
+                matches.add(key);
+        }
+        return matches;
+    }
+
+    /**
+     * A scan of the whole tree returns all tuples in key order, after the
+     * root has been split a few times
+     */
+    @Test public void insertAndScan() throws Exception {
+        insertRandom(1000);
+        assertTrue(tree.numPages() > 100);
+        TransactionId tid = new TransactionId();
+        assertEquals(keys, scan(new SeqScan(tid, tree.getId(), "t")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Index scans return the tuples that match equality and range
+     * predicates, duplicates included
+     */
+    @Test public void indexScan() throws Exception {
+        insertRandom(1000);
+        TransactionId tid = new TransactionId();
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+        for (Predicate.Op op : ops) {
+            for (int key : new int[] { -1, keys.get(0), keys.get(1500), 1000, 5000 }) {
+                IndexPredicate pred = new IndexPredicate(op, new IntField(key));
+                assertEquals(pred.toString(), expected(pred),
+                        scan(new IndexScan(tid, tree.getId(), "t", pred)));
+            }
+        }
+        IndexPredicate low = new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(500));
+        IndexPredicate high = new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, new IntField(700));
+        assertEquals(expected(low, high),
+                scan(new IndexScan(tid, tree.getId(), "t", low, high)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples found by an index scan are deleted by the Delete operator, and
+     * the tree is read back from disk afterwards
+     */
+    @Test public void deleteAndReopen() throws Exception {
+        insertRandom(1000);
+        IndexPredicate range = new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(1000));
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new IndexScan(tid, tree.getId(), "t", range));
+        delete.open();
+        assertEquals(new IntField(expected(range).size()), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        keys.removeAll(expected(range));
+
+        Database.getBufferPool().flushAllPages();
+        tree.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BTreeFile reopened = new BTreeFile(data, Utility.getTupleDesc(2), 0, PAGE_SIZE);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        assertEquals(keys, scan(new SeqScan(tid, reopened.getId(), "t")));
+        assertEquals(0, scan(new IndexScan(tid, reopened.getId(), "t", range)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aborting a transaction that split pages leaves the tree as it was,
+     * and adds no pages to the file
+     */
+    @Test public void abortSplit() throws Exception {
+        insertRandom(100);
+        Database.getBufferPool().flushAllPages();
+        long length = data.length();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, tree.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+        assertTrue(tree.numPages() > length / PAGE_SIZE);
+        Database.getBufferPool().transactionComplete(tid, false);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(length, data.length());
+        tid = new TransactionId();
+        assertEquals(keys, scan(new SeqScan(tid, tree.getId(), "t")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A table declared as a btree in the schema is planned with an index
+     * scan for filters on its key
+     */
+    @Test public void catalogAndPlan() throws Exception {
+        File dir = File.createTempFile("btree", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        new File(dir, "indexed.dat").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("indexed (a int, b int pk) btree\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("indexed");
+        BTreeFile indexed = (BTreeFile) Database.getCatalog().getDbFile(tableId);
+        assertEquals(1, indexed.getKeyField());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, tableId,
+                    Utility.getHeapTuple(new int[] { i, i % 100 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("indexed", new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "indexed");
+        lp.addFilter("indexed.b", Predicate.Op.EQUALS, "42");
+        lp.addProjectField("indexed.a", null);
+        tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator)
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof IndexScan);
+
+        List<Integer> found = scan(plan);
+        assertEquals(10, found.size());
+        for (int a : found)
+            assertEquals(42, a % 100);
+        assertFalse(found.contains(43));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
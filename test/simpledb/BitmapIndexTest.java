@@ -0,0 +1,291 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    // tuples (i, i % 4, i / 1000); 337 tuples of 3 ints fit on a page
+    private static final int TUPLES = 6000;
+    private static final int TUPLES_PER_PAGE = 337;
+
+    private HeapFile table;
+    private BitmapIndex status;
+    private BitmapIndex category;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("bitmap", ".dat");
+        HeapFile.deleteOnExit(f);
+        table = Utility.createEmptyHeapFile(f.getPath(), 3);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TUPLES; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i % 4, i / 1000 }));
+        Database.getBufferPool().transactionComplete(tid);
+        status = addIndex(1);
+        category = addIndex(2);
+    }
+
+    private BitmapIndex addIndex(int field) throws Exception {
+        File f = File.createTempFile("bitmap", ".bmi");
+        f.delete();
+        f.deleteOnExit();
+        BitmapIndex index = new BitmapIndex(f, table, field);
+        Database.getCatalog().addBitmapIndex(index);
+        return index;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * @return the first fields of the tuples returned by a bitmap scan
+     */
+    private List<Integer> scan(Predicate[]... clauses) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new BitmapScan(tid, table.getId(), "t", clauses);
+        List<Integer> found = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext())
+            found.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return found;
+    }
+
+    /**
+     * Containers switch between arrays and bitmaps, and AND, OR and
+     * serialization keep the values
+     */
+    @Test public void roaringBitmap() throws Exception {
+        RoaringBitmap even = new RoaringBitmap();
+        RoaringBitmap thirds = new RoaringBitmap();
+        for (int i = 0; i < 200000; i += 2)
+            even.add(i);
+        for (int i = 0; i < 200000; i += 3)
+            thirds.add(i);
+        thirds.add(1 << 30);
+        assertEquals(100000, even.getCardinality());
+        // dense chunks take 8KB each, not 2 bytes per value
+        assertTrue(even.getSizeInBytes() < 4 * 8192 + 100);
+
+        RoaringBitmap both = even.and(thirds);
+        RoaringBitmap either = even.or(thirds);
+        int count = 0;
+        for (int x = both.nextValue(0); x >= 0; x = both.nextValue(x + 1)) {
+            assertEquals(0, x % 6);
+            count++;
+        }
+        assertEquals(33334, count);
+        assertEquals(100000 + 66667 + 1 - 33334, either.getCardinality());
+        assertTrue(either.contains(1 << 30));
+        assertFalse(either.contains(1));
+
+        for (int i = 0; i < 200000; i += 2)
+            if (i % 1000 != 0)
+                even.remove(i);
+        assertEquals(200, even.getCardinality());
+        assertEquals(1000, even.nextValue(1));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        either.serialize(new DataOutputStream(bytes));
+        assertEquals(either.getSizeInBytes(), bytes.size());
+        assertEquals(either, RoaringBitmap.deserialize(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    /**
+     * Clauses are combined before any page is read, and only the pages
+     * with matching tuples are read
+     */
+    @Test public void combine() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Integer> found = scan(
+                new Predicate[] { pred(1, Predicate.Op.EQUALS, 1) },
+                new Predicate[] { pred(2, Predicate.Op.EQUALS, 5) });
+        assertEquals(250, found.size());
+        for (int i = 0; i < found.size(); i++)
+            assertEquals(5001 + 4 * i, (int) found.get(i));
+        for (int i = 0; i < table.numPages(); i++)
+            assertEquals("page " + i, i >= 5000 / TUPLES_PER_PAGE
+                    && i <= 5999 / TUPLES_PER_PAGE, Database.getBufferPool()
+                    .isCached(new HeapPageId(table.getId(), i)));
+
+        found = scan(new Predicate[] { pred(1, Predicate.Op.EQUALS, 0),
+                pred(1, Predicate.Op.EQUALS, 2) },
+                new Predicate[] { pred(2, Predicate.Op.GREATER_THAN_OR_EQ, 4) });
+        assertEquals(1000, found.size());
+        for (int i = 0; i < found.size(); i++)
+            assertEquals(4000 + 2 * i, (int) found.get(i));
+
+        assertEquals(0, scan(new Predicate[] { pred(2, Predicate.Op.EQUALS, 6) })
+                .size());
+    }
+
+    /**
+     * Deleted tuples and aborted inserts are not returned, and scans clear
+     * their positions from the bitmaps
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new BitmapScan(tid, table.getId(), "t",
+                new Predicate[][] { { pred(1, Predicate.Op.EQUALS, 3) } }));
+        delete.open();
+        assertEquals(new IntField(1500), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1500, status.lookup(Predicate.Op.EQUALS, new IntField(3))
+                .getCardinality());
+        assertEquals(0, scan(new Predicate[] { pred(1, Predicate.Op.EQUALS, 3) })
+                .size());
+        assertTrue(status.lookup(Predicate.Op.EQUALS, new IntField(3)).isEmpty());
+
+        tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, 9, 9 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, scan(new Predicate[] { pred(2, Predicate.Op.EQUALS, 9) })
+                .size());
+        assertEquals(6, category.numValues());
+        assertEquals(4, status.numValues());
+        assertEquals(1500, scan(new Predicate[] { pred(1, Predicate.Op.EQUALS, 1) })
+                .size());
+    }
+
+    /**
+     * Compaction adds the new positions of the moved tuples
+     */
+    @Test public void compact() throws Exception {
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new BitmapScan(tid, table.getId(), "t",
+                new Predicate[][] { { pred(2, Predicate.Op.LESS_THAN, 5) } }));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.compact() > 0);
+        List<Integer> found = scan(new Predicate[] { pred(1, Predicate.Op.EQUALS, 2) });
+        assertEquals(250, found.size());
+        Collections.sort(found);
+        for (int i = 0; i < found.size(); i++)
+            assertEquals(5002 + 4 * i, (int) found.get(i));
+    }
+
+    /**
+     * Tuples appended by a bulk load are found by bitmap scans, and are in
+     * the bitmaps saved afterwards
+     */
+    @Test public void bulkLoad() throws Exception {
+        File text = File.createTempFile("bitmap", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 500; i++)
+            w.write(i + "," + (i % 4) + ",7\n");
+        w.close();
+        new HeapFileLoader(Utility.getTypes(3), ',').append(text, table);
+        assertEquals(500, scan(new Predicate[] { pred(2, Predicate.Op.EQUALS, 7) })
+                .size());
+
+        category.close();
+        BitmapIndex reloaded = new BitmapIndex(category.getFile(), table, 2);
+        reloaded.load();
+        assertEquals(500, reloaded.lookup(Predicate.Op.EQUALS, new IntField(7))
+                .getCardinality());
+    }
+
+    /**
+     * A table declared with bitmap indexes in the schema is planned with a
+     * bitmap scan for filters on several indexed fields, and the bitmaps
+     * are saved when the catalog is cleared
+     */
+    @Test public void catalogAndPlan() throws Exception {
+        File dir = File.createTempFile("bitmap", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        File data = new File(dir, "orders.dat");
+        HeapFile.deleteOnExit(data);
+        File indexFile = new File(dir, "orders.status.bmi");
+        indexFile.deleteOnExit();
+        new File(dir, "orders.region.bmi").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("orders (id int pk, status int, region int) bitmap=status bitmap=region\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("orders");
+        assertEquals(2, Database.getCatalog().getBitmapIndexes(tableId).size());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, tableId,
+                    Utility.getHeapTuple(new int[] { i, i % 3, i % 5 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(67, plan(tableId).size());
+
+        // Saved when the catalog is cleared, and loaded again
+        Database.getBufferPool().flushAllPages();
+        Database.getCatalog().clear();
+        assertTrue(indexFile.exists());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertFalse(indexFile.exists());
+        List<Integer> found = plan(tableId);
+        assertEquals(67, found.size());
+        for (int id : found)
+            assertEquals(7, id % 15);
+    }
+
+    /**
+     * Plans a query for the orders with status 1 and region 2, checks that
+     * it uses a bitmap scan and returns the ids
+     */
+    private List<Integer> plan(int tableId) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("orders", new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "orders");
+        lp.addFilter("orders.status", Predicate.Op.EQUALS, "1");
+        lp.addFilter("orders.region", Predicate.Op.EQUALS, "2");
+        lp.addProjectField("orders.id", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator)
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof BitmapScan);
+
+        List<Integer> found = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            found.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return found;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
@@ -0,0 +1,299 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 20;
+    private static final int POOL_PAGES = 10;
+
+    private HeapFile table;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, table.numPages());
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private HeapPageId pid(int pageNumber) {
+        return new HeapPageId(table.getId(), pageNumber);
+    }
+
+    /**
+     * Hits, noted without locking the BufferPool, still decide which page
+     * is evicted
+     */
+    @Test public void evictLeastRecentlyUsed() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+        assertTrue(bp.isCached(pid(0)));
+        assertFalse(bp.isCached(pid(1)));
+        assertTrue(bp.isCached(pid(POOL_PAGES)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Threads fetching pages at once get the pages they ask for, and the
+     * BufferPool holds no more pages than it has room for
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final Exception[] failed = new Exception[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int t = 0; t < 200; t++) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < 20; j++) {
+                                HeapPageId pid = pid(random.nextInt(PAGES));
+                                Page page = bp.getPage(tid, pid,
+                                        Permissions.READ_ONLY);
+                                if (!page.getId().equals(pid))
+                                    throw new DbException("Got " + page.getId());
+                            }
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        failed[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (failed[0] != null)
+            throw failed[0];
+        int cached = 0;
+        for (int i = 0; i < PAGES; i++)
+            if (bp.isCached(pid(i)))
+                cached++;
+        assertTrue(cached <= POOL_PAGES);
+    }
+
+    /**
+     * A scan of a table larger than the pool recycles a ring of pages, and
+     * leaves the pages other transactions read in the pool
+     */
+    @Test public void scanUsesRing() throws Exception {
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * 100,
+                null, null);
+        BufferPool bp = Database.resetBufferPool(40);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES / 2; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = large.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        assertEquals(504 * 100, count);
+        for (int i = 0; i < PAGES / 2; i++)
+            assertTrue("page " + i, bp.isCached(pid(i)));
+        int ring = AccessStrategy.forScan(100, PagePrefetcher.DEFAULT_WINDOW)
+                .getRingPages();
+        int cached = 0;
+        for (int i = 0; i < 100; i++)
+            if (bp.isCached(new HeapPageId(large.getId(), i)))
+                cached++;
+        assertTrue(cached + " pages cached", cached <= ring);
+
+        // small scans go through the pool as before
+        assertEquals(null, AccessStrategy.forScan(10, 0));
+    }
+
+    /**
+     * Pages of a pool kept off the heap are read from frames of its arena,
+     * go back to their frame once their changes commit, and stay readable
+     * by whoever holds them after they are evicted
+     */
+    @Test public void offHeapFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, "lru", true);
+        FrameArena arena = bp.getArena();
+        assertEquals(POOL_PAGES, arena.getNumFrames());
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertTrue(first.getPageBuffer().isDirect());
+        Tuple t = first.getTuple(0);
+        assertEquals(pid(0), t.getRecordId().getPageId());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(1), Permissions.READ_WRITE);
+        Tuple deleted = page.getTuple(0);
+        bp.deleteTuple(tid, deleted);
+        assertFalse(page.getPageBuffer().isDirect());
+        assertTrue(page.getBeforeImage().isSlotUsed(0));
+        bp.transactionComplete(tid);
+        assertTrue(page.getPageBuffer().isDirect());
+        assertFalse(page.isSlotUsed(0));
+        assertEquals(POOL_PAGES - 2, arena.getNumFree());
+
+        // fill the pool so the first page is evicted
+        tid = new TransactionId();
+        for (int i = 2; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertFalse(bp.isCached(pid(0)));
+        assertEquals(0, arena.getNumFree());
+        assertFalse(first.getPageBuffer().isDirect());
+        assertEquals(t, first.getTuple(0));
+    }
+
+    /**
+     * A pinned page is not evicted, scans release their pins, and pins
+     * left when a transaction completes are counted as leaks
+     */
+    @Test public void pinnedPagesStay() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY, null);
+        assertTrue(bp.isPinned(pid(0)));
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertTrue(bp.isCached(pid(0)));
+        assertTrue(bp.unpinPage(tid, pid(0)));
+        assertFalse(bp.unpinPage(tid, pid(0)));
+        assertEquals(0, bp.getNumPinned());
+
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getNumPinned());
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertEquals(0, bp.getNumPinned());
+
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY, null);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getNumPinned());
+        assertEquals(1, bp.getNumPinLeaks());
+    }
+
+    private int deleteAll(TransactionId tid) throws Exception {
+        Delete delete = new Delete(tid, new SeqScan(tid, table.getId(), "t"));
+        delete.open();
+        int deleted = ((IntField) delete.next().getField(0)).getValue();
+        delete.close();
+        return deleted;
+    }
+
+    private int countAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds, and the
+     * pages written out before it completes are restored from the log when
+     * it aborts
+     */
+    @Test public void stealDirtyPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(504 * PAGES, deleteAll(t.getId()));
+        t.abort();
+        assertEquals(504 * PAGES, countAll());
+
+        // without a BEGIN record
+        TransactionId tid = new TransactionId();
+        assertEquals(504 * PAGES, deleteAll(tid));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(504 * PAGES, countAll());
+
+        tid = new TransactionId();
+        assertEquals(504 * PAGES, deleteAll(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, countAll());
+    }
+
+    /**
+     * Evicting a page drops only the cached copy; the transaction that
+     * locked it keeps its lock until it completes
+     */
+    @Test public void evictionKeepsLocks() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, pid(0), Permissions.READ_WRITE);
+        TransactionId reader = new TransactionId();
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(reader, pid(i), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(pid(0)));
+        assertTrue(bp.holdsLock(writer, pid(0)));
+        try {
+            bp.getPage(reader, pid(0), Permissions.READ_ONLY);
+            fail("read a page locked by another transaction");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+        assertFalse(bp.holdsLock(writer, pid(0)));
+    }
+
+    /**
+     * Pages stolen from a transaction that never completed are restored
+     * from the log on recovery
+     */
+    @Test public void recoverStolenPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(504 * PAGES, deleteAll(t.getId()));
+
+        // stop without completing the transaction
+        Database.reset();
+        table = new HeapFile(table.getFile(), table.getTupleDesc());
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertTrue(countAll() < 504 * PAGES);
+        Database.getLogFile().recover();
+        assertEquals(504 * PAGES, countAll());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
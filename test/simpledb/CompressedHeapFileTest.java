@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import com.jcraft.jzlib.JZlib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private File data;
+    private CompressedHeapFile table;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        data = File.createTempFile("compressed", ".dat");
+        HeapFile.deleteOnExit(data);
+        new File(data.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        table = new CompressedHeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are read back from a smaller
+     * file, also after the file is opened again.
+     */
+    @Test public void insertAndReopen() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 4; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i % 10 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, table.numPages());
+        assertTrue(table.getStoredSize() < 4 * BufferPool.PAGE_SIZE / 2);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        table.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(4, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A page that no longer fits in its space moves to the end of the file
+     */
+    @Test public void rewritePages() throws Exception {
+        HeapPageId pid0 = new HeapPageId(table.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(table.getId(), 1);
+        table.writePage(new HeapPage(pid0, HeapPage.createEmptyPageData()));
+        table.writePage(new HeapPage(pid1, HeapPage.createEmptyPageData()));
+        long small = data.length();
+
+        Random random = new Random(1);
+        HeapPage page = new HeapPage(pid0, HeapPage.createEmptyPageData());
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(Utility.getHeapTuple(
+                    new int[] { random.nextInt(), random.nextInt() }));
+        table.writePage(page);
+        assertTrue(data.length() > small + BufferPool.PAGE_SIZE / 2);
+        assertArrayEquals(page.getPageData(), table.readPage(pid0).getPageData());
+        assertArrayEquals(HeapPage.createEmptyPageData(),
+                table.readPage(pid1).getPageData());
+        assertEquals(2, table.numPages());
+    }
+
+    /**
+     * Pages that don't get smaller are stored as they are
+     */
+    @Test public void uncompressedPages() throws Exception {
+        File raw = File.createTempFile("uncompressed", ".dat");
+        HeapFile.deleteOnExit(raw);
+        new File(raw.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        CompressedHeapFile stored = new CompressedHeapFile(raw, Utility.getTupleDesc(2),
+                BufferPool.PAGE_SIZE, false, JZlib.Z_NO_COMPRESSION);
+        Database.getCatalog().addTable(stored, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(stored.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        stored.writePage(page);
+        assertEquals(BufferPool.PAGE_SIZE, raw.length());
+        assertArrayEquals(page.getPageData(), stored.readPage(pid).getPageData());
+    }
+
+    /**
+     * The bulk loader appends compressed pages
+     */
+    @Test public void loaderAppend() throws Exception {
+        File text = File.createTempFile("compressed", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < 1000; i++)
+            bw.write(i + "," + (i % 3) + "\n");
+        bw.close();
+        assertEquals(2, new HeapFileLoader(Utility.getTypes(2), ',').append(text, table));
+        assertEquals(2, table.numPages());
+
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(count), it.next().getField(0));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+    }
+
+    /**
+     * Compacting drops the removed pages from the index
+     */
+    @Test public void compact() throws Exception {
+        HeapFileWriteTest.fillSparse(table);
+        assertEquals(3, table.compact());
+        assertEquals(1, table.numPages());
+        HeapFileWriteTest.checkSparse(table);
+
+        Database.getBufferPool().flushAllPages();
+        table.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(1, reopened.numPages());
+        HeapFileWriteTest.checkSparse(reopened);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
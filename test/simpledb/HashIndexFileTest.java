@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashIndexFileTest extends TestUtil.CreateHeapFile {
+
+    // 20 entries per bucket and a directory of at most 32 buckets, so a
+    // few thousand entries need overflow pages
+    private static final int PAGE_SIZE = 256;
+
+    private HashIndexFile index;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        index = addIndex(1);
+    }
+
+    private HashIndexFile addIndex(int field) throws Exception {
+        File f = File.createTempFile("hash", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        HashIndexFile index = new HashIndexFile(f, empty.getId(),
+                empty.getTupleDesc(), field, PAGE_SIZE);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * Inserts 2000 tuples with keys from 0 to 299, and 100 tuples with the
+     * key -1
+     */
+    private void insert() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(new int[] { i, i % 300 }));
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(new int[] { i, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the first fields of the tuples whose indexed field is key
+     */
+    private List<Integer> lookup(int field, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new HashIndexScan(tid, empty.getId(), "t", field,
+                new IntField(key));
+        List<Integer> found = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(key), t.getField(field));
+            found.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(found);
+        return found;
+    }
+
+    private int countEntries(HashIndexFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Lookups return the tuples with the key, after buckets were split and
+     * a bucket of a single key overflowed
+     */
+    @Test public void insertAndLookup() throws Exception {
+        insert();
+        assertEquals(2100, countEntries(index));
+        // Buckets are split, and the duplicates overflow
+        assertTrue(index.numPages() > 2100 / 20);
+        for (int key = 0; key < 300; key++) {
+            List<Integer> found = lookup(1, key);
+            assertEquals(key < 200 ? 7 : 6, found.size());
+            for (int i = 0; i < found.size(); i++)
+                assertEquals(key + 300 * i, (int) found.get(i));
+        }
+        assertEquals(100, lookup(1, -1).size());
+        assertEquals(0, lookup(1, 300).size());
+    }
+
+    /**
+     * Deletes remove the entries of the tuples, and aborted inserts leave
+     * no entries or pages behind
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        insert();
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new HashIndexScan(tid, empty.getId(),
+                "t", 1, new IntField(7)));
+        delete.open();
+        assertEquals(new IntField(7), delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, lookup(1, 7).size());
+        assertEquals(2093, countEntries(index));
+
+        Database.getBufferPool().flushAllPages();
+        long length = index.getFile().length();
+        tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(new int[] { i, 7 }));
+        assertTrue(index.numPages() > length / PAGE_SIZE);
+        Database.getBufferPool().transactionComplete(tid, false);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(length, index.getFile().length());
+        assertEquals(0, lookup(1, 7).size());
+        assertEquals(2093, countEntries(index));
+        assertEquals(7, lookup(1, 8).size());
+    }
+
+    /**
+     * Compaction points the entries of the moved tuples to their new place
+     */
+    @Test public void compact() throws Exception {
+        HashIndexFile first = addIndex(0);
+        HeapFileWriteTest.fillSparse(empty);
+        assertEquals(504, countEntries(first));
+        assertEquals(3, empty.compact());
+        HeapFileWriteTest.checkSparse(empty);
+        assertEquals(504, countEntries(first));
+        for (int i = 0; i < 504 * 4; i++)
+            assertEquals(i % 4 == 0 ? 1 : 0, lookup(0, i).size());
+    }
+
+    /**
+     * Tuples appended by a bulk load are found through the index
+     */
+    @Test public void bulkLoad() throws Exception {
+        File text = File.createTempFile("hash", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 1000; i++)
+            w.write(i + "," + (i % 300) + "\n");
+        w.close();
+        new HeapFileLoader(Utility.getTypes(2), ',').append(text, empty);
+        assertEquals(Arrays.asList(7, 307, 607, 907), lookup(1, 7));
+        assertEquals(1000, countEntries(index));
+    }
+
+    /**
+     * A table declared with a hash index in the schema is planned with an
+     * index scan for equality filters on the field, and the index is
+     * built from the table when its file is missing
+     */
+    @Test public void catalogAndPlan() throws Exception {
+        File dir = File.createTempFile("hash", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        File data = new File(dir, "hashed.dat");
+        HeapFile.deleteOnExit(data);
+        File indexFile = new File(dir, "hashed.b.idx");
+        indexFile.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("hashed (a int pk, b int) hash=b\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("hashed");
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, tableId,
+                    Utility.getHeapTuple(new int[] { i, i % 100 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, plan(tableId, "42").size());
+
+        // Rebuilt from the table when the catalog is loaded again
+        Database.getBufferPool().flushAllPages();
+        Database.getCatalog().clear();
+        assertTrue(indexFile.delete());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertTrue(indexFile.exists());
+        List<Integer> found = plan(tableId, "43");
+        assertEquals(10, found.size());
+        for (int a : found)
+            assertEquals(43, a % 100);
+    }
+
+    /**
+     * Plans a query for the tuples with a value of b, checks that it uses
+     * the hash index and returns the values of a
+     */
+    private List<Integer> plan(int tableId, String b) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("hashed", new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "hashed");
+        lp.addFilter("hashed.b", Predicate.Op.EQUALS, b);
+        lp.addProjectField("hashed.a", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = plan;
+        while (node instanceof Operator)
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof HashIndexScan);
+
+        List<Integer> found = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            found.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return found;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File text;
+
+    /**
+     * Writes a text file of random tuples spanning a few pages
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random random = new Random(42);
+        for (int i = 0; i < 504 * 3 + 10; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(random.nextInt());
+            tuple.add(random.nextInt(100));
+            tuples.add(tuple);
+        }
+        text = writeText(tuples);
+    }
+
+    private static File writeText(ArrayList<ArrayList<Integer>> tuples)
+            throws IOException {
+        File text = File.createTempFile("loader", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (ArrayList<Integer> tuple : tuples)
+            bw.write(tuple.get(0) + "," + tuple.get(1) + "\n");
+        bw.close();
+        return text;
+    }
+
+    private static File tempData() throws IOException {
+        File data = File.createTempFile("loader", ".dat");
+        HeapFile.deleteOnExit(data);
+        return data;
+    }
+
+    /**
+     * Text parsed in many small chunks on several threads must give the
+     * same pages as the list of tuples.
+     */
+    @Test public void convertInChunks() throws Exception {
+        Type[] types = Utility.getTypes(2);
+        File expected = tempData();
+        File actual = tempData();
+        new HeapFileLoader(types, ',').convert(tuples, expected);
+        int pages = new HeapFileLoader(types, ',', BufferPool.PAGE_SIZE, 4, 1000)
+                .convert(text, actual);
+
+        assertEquals(4, pages);
+        assertEquals(4 * BufferPool.PAGE_SIZE, actual.length());
+        assertArrayEquals(readBytes(expected), readBytes(actual));
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, actual), tuples);
+    }
+
+    /**
+     * Blank lines, Windows line endings, spaces and bad lines
+     */
+    @Test public void convertUnusualLines() throws Exception {
+        File input = File.createTempFile("loader", ".txt");
+        input.deleteOnExit();
+        Writer w = new FileWriter(input);
+        w.write("1,2\r\n\n 3 , -4 \nfive,6\n7\n2147483648,8\n9,10");
+        w.close();
+        File data = tempData();
+        new HeapFileLoader(Utility.getTypes(2), ',').convert(input, data);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        int[][] values = { { 1, 2 }, { 3, -4 }, { 9, 10 } };
+        for (int[] value : values) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(value[0]);
+            tuple.add(value[1]);
+            expected.add(tuple);
+        }
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, data), expected);
+    }
+
+    /**
+     * Appending to a table in the catalog keeps its tuples and adds the new
+     * ones in new pages.
+     */
+    @Test public void append() throws Exception {
+        ArrayList<ArrayList<Integer>> existing = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, null, existing);
+        int numPages = table.numPages();
+
+        int appended = new HeapFileLoader(Utility.getTypes(2), ',').append(text, table);
+        assertEquals(4, appended);
+        assertEquals(numPages + 4, table.numPages());
+
+        existing.addAll(tuples);
+        SystemTestUtil.matchTuples(table, existing);
+    }
+
+    /**
+     * Loading strings into slotted pages
+     */
+    @Test public void convertSlotted() throws Exception {
+        File input = File.createTempFile("loader", ".txt");
+        input.deleteOnExit();
+        Writer w = new FileWriter(input);
+        for (int i = 0; i < 1000; ++i)
+            w.write(i + ",s" + i + "\n");
+        w.close();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File data = tempData();
+        int pages = new HeapFileLoader(types, ',', BufferPool.PAGE_SIZE, 2, 1000, true)
+                .convert(input, data);
+        assertEquals(4, pages);
+
+        HeapFile hf = new HeapFile(data, new TupleDesc(types), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("s" + i, Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    private static byte[] readBytes(File f) throws IOException {
+        byte[] bytes = new byte[(int) f.length()];
+        DataInputStream dis = new DataInputStream(new FileInputStream(f));
+        dis.readFully(bytes);
+        dis.close();
+        return bytes;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
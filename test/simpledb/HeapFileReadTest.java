@@ -77,6 +77,51 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory mapped file
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+
+        // read from the mapping without a copy, and copied on first change
+        assertTrue(page.getPageBuffer().isDirect());
+        byte[] onDisk = hf.readPage(pid).getPageData();
+        page.deleteTuple(page.iterator().next());
+        assertFalse(page.getPageBuffer().isDirect());
+        assertArrayEquals(onDisk, page.getBeforeImage().getPageData());
+        assertArrayEquals(onDisk, mapped.readPage(pid).getPageData());
+    }
+
+    /**
+     * The mapping of a memory mapped file should follow the file as it grows
+     */
+    @Test
+    public void memoryMappedGrows() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        mapped.readPage(new HeapPageId(mapped.getId(), 0));
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 1);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        mapped.writePage(page);
+
+        assertEquals(2, mapped.numPages());
+        HeapPage read = (HeapPage) mapped.readPage(pid);
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(42, 2),
+                read.iterator().next()));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,11 +1,15 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +47,250 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() reusing slots freed by deletes
+     */
+    @Test public void insertAfterDelete() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        // the free slot on the first page is found without a new page
+        empty.deleteTuple(tid, first);
+        ArrayList<Page> pages = empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for saving and loading the free space map of a HeapFile
+     */
+    @Test public void freeSpaceMapSaved() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504 + 1; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+
+        File mapFile = new File(empty.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        mapFile.deleteOnExit();
+        empty.close();
+        assertTrue(mapFile.exists());
+
+        // the saved map is used, and removed until the file is closed again
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        ArrayList<Page> pages = reopened.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1, pages.get(0).getId().pageNumber());
+        assertFalse(mapFile.exists());
+    }
+
+    /**
+     * Unit test for closing a HeapFile after its file was deleted
+     */
+    @Test public void noMapsForDeletedFile() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504 + 1; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+
+        String path = empty.getFile().getPath();
+        empty.close();
+        assertTrue(new File(path + FreeSpaceMap.SUFFIX).exists());
+        assertTrue(new File(path + ZoneMap.SUFFIX).exists());
+
+        // the saved maps go with the file, and are not written again
+        empty.getFile().delete();
+        empty.close();
+        assertFalse(new File(path + FreeSpaceMap.SUFFIX).exists());
+        assertFalse(new File(path + ZoneMap.SUFFIX).exists());
+    }
+
+    /**
+     * Unit test for a HeapFile with pages larger than the default
+     */
+    @Test public void largePages() throws Exception {
+        HeapFile large = new HeapFile(empty.getFile(), empty.getTupleDesc(),
+                32768, false, false);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        BufferPool bp = Database.getBufferPool();
+        // a page 8 times larger holds 8 times 504 tuples
+        for (int i = 0; i < 504 * 8 + 1; ++i)
+            bp.insertTuple(tid, large.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        assertEquals(2, large.numPages());
+        assertEquals(HeapFile.EXTENT_PAGES * 32768, large.getFile().length());
+
+        DbFileIterator it = large.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(count), it.next().getField(0));
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 8 + 1, count);
+    }
+
+    /**
+     * The file grows by whole extents, new pages are written when their
+     * transaction commits, and the empty pages at the end of the file are
+     * not counted when it is opened again
+     */
+    @Test public void growByExtents() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504 * 3; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        assertEquals(HeapFile.EXTENT_PAGES * BufferPool.PAGE_SIZE,
+                empty.getFile().length());
+        for (byte b : TestUtil.readFileBytes(empty.getFile().getPath()))
+            assertEquals(0, b);
+        bp.transactionComplete(tid);
+
+        // an aborted insert leaves an empty page behind
+        TransactionId aborted = new TransactionId();
+        for (int i = 0; i < 504; ++i)
+            bp.insertTuple(aborted, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(aborted, false);
+        assertEquals(4, empty.numPages());
+
+        bp.flushAllPages();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(3, reopened.numPages());
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 3, count);
+    }
+
+    /**
+     * The BufferPool holds as many bytes of large pages as of default ones
+     */
+    @Test public void bufferPoolHoldsBytes() throws Exception {
+        HeapFile large = new HeapFile(empty.getFile(), empty.getTupleDesc(),
+                32768, false, false);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        for (int i = 0; i < 504 * 8 + 1; ++i)
+            Database.getBufferPool().insertTuple(tid, large.getId(),
+                    Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // room for 8 default pages is room for one large page
+        Database.resetBufferPool(8);
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId first = new HeapPageId(large.getId(), 0);
+        HeapPageId second = new HeapPageId(large.getId(), 1);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertTrue(bp.isCached(first));
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+        assertTrue(bp.isCached(second));
+        assertFalse(bp.isCached(first));
+    }
+
+    /**
+     * Fills four pages of the file and deletes three quarters of the
+     * tuples, leaving those with a multiple of 4 as first field.
+     */
+    static void fillSparse(HeapFile file) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 4; ++i)
+            bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        assertEquals(4, file.numPages());
+
+        tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0)
+                deleted.add(t);
+        }
+        it.close();
+        for (Tuple t : deleted)
+            bp.deleteTuple(tid, t);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Checks the file holds the tuples left by fillSparse
+     */
+    static void checkSparse(HeapFile file) throws Exception {
+        TransactionId tid = new TransactionId();
+        boolean[] seen = new boolean[504];
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            int value = ((IntField) it.next().getField(0)).getValue();
+            assertEquals(0, value % 4);
+            assertFalse(seen[value / 4]);
+            seen[value / 4] = true;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        for (boolean s : seen)
+            assertTrue(s);
+    }
+
+    /**
+     * Unit test for HeapFile.compact()
+     */
+    @Test public void compact() throws Exception {
+        fillSparse(empty);
+        assertEquals(3, empty.compact());
+        assertEquals(1, empty.numPages());
+        checkSparse(empty);
+
+        // the file takes tuples again, on a new page once the first is full
+        Database.getBufferPool().flushAllPages();
+        assertEquals(BufferPool.PAGE_SIZE, empty.getFile().length());
+        ArrayList<Page> pages = empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(1, pages.get(0).getId().pageNumber());
+        // the new page is locked like any other until the insert completes
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, empty.compact());
+    }
+
+    /**
+     * Compacting a memory mapped file waits for the locks of other
+     * transactions
+     */
+    @Test public void compactMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        fillSparse(mapped);
+        // a reader keeps the last page until it completes
+        Database.getBufferPool().getPage(tid, new HeapPageId(mapped.getId(), 3),
+                Permissions.READ_ONLY);
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        assertEquals(3, mapped.compact());
+        reader.join();
+        assertEquals(1, mapped.numPages());
+        checkSparse(mapped);
+    }
+
     /**
      * JUnit suite target
      */
@@ -10,8 +10,10 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -99,6 +101,22 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        Tuple tup = page.getTuple(3);
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[3][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(new RecordId(pid, 3), tup.getRecordId());
+        assertNull(page.getTuple(20));
+
+        // untouched slots serialize to the bytes they were read from
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
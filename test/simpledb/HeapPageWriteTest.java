@@ -1,5 +1,6 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,32 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after changes made in place
+     */
+    @Test public void pageDataAfterChanges() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, original);
+        page.setBeforeImage();
+
+        Tuple addition = Utility.getHeapTuple(42, 2);
+        page.insertTuple(addition);
+        page.deleteTuple(page.iterator().next());
+
+        // the changes survive a round trip through the page bytes
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(addition,
+                copy.getTuple(addition.getRecordId().tupleno())));
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        // while the bytes the page was read from and its before image are
+        // left alone
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, original);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,279 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageFlusherTest extends SimpleDbTestBase {
+
+    private File data;
+    private HeapFile table;
+    private List<Integer> written;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        data = File.createTempFile("flusher", ".dat");
+        HeapFile.deleteOnExit(data);
+        written = new ArrayList<Integer>();
+        table = new HeapFile(data, Utility.getTupleDesc(2)) {
+            public void writePage(Page page) throws IOException {
+                synchronized (written) {
+                    written.add(page.getId().pageNumber());
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    private HeapPage page(int pageNumber, int value) throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), pageNumber),
+                HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { value, value }));
+        return page;
+    }
+
+    /**
+     * Pending pages are written in order of page number, and only the
+     * newest copy of a page is written
+     */
+    @Test public void sortedBatch() throws Exception {
+        PageFlusher flusher = new PageFlusher(100);
+        flusher.add(table, page(3, 3));
+        flusher.add(table, page(1, 1));
+        flusher.add(table, page(2, 0));
+        HeapPage newer = page(2, 2);
+        flusher.add(table, newer);
+        assertEquals(3, flusher.getNumPending());
+        assertTrue(flusher.isPending(newer.getId()));
+
+        flusher.flushAll();
+        assertEquals(0, flusher.getNumPending());
+        assertEquals(3, written.size());
+        assertEquals(1, (int) written.get(0));
+        assertEquals(2, (int) written.get(1));
+        assertEquals(3, (int) written.get(2));
+        assertArrayEquals(newer.getPageData(),
+                table.readPage(newer.getId()).getPageData());
+        flusher.close();
+    }
+
+    /**
+     * Pages handed over after close are written straight away
+     */
+    @Test public void closed() throws Exception {
+        PageFlusher flusher = new PageFlusher(100);
+        flusher.add(table, page(0, 1));
+        flusher.close();
+        assertEquals(1, written.size());
+        flusher.add(table, page(1, 1));
+        assertEquals(0, flusher.getNumPending());
+        assertEquals(2, written.size());
+    }
+
+    /**
+     * A commit logs the pages it changed, and they reach the file later
+     */
+    @Test public void commitWritesBehind() throws Exception {
+        int records = Database.getLogFile().getTotalRecords();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid);
+        // one record per page, and the commit
+        assertEquals(records + 3, Database.getLogFile().getTotalRecords());
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, Database.getBufferPool().getNumPendingWrites());
+        HeapFile reopened = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        HeapPage last = (HeapPage) reopened.readPage(
+                new HeapPageId(reopened.getId(), 1));
+        assertEquals(0, last.getNumEmptySlots());
+    }
+
+    /**
+     * Committed pages that never reached the file are redone from the log
+     * on recovery
+     */
+    @Test public void recoverUnwrittenPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 504 * 2; i++)
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+        t.commit();
+
+        // stop, losing the writes of the flusher
+        Database.reset();
+        RandomAccessFile file = new RandomAccessFile(data, "rw");
+        file.setLength(0);
+        file.close();
+
+        HeapFile reopened = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(504 * 2, count);
+    }
+
+    /**
+     * Loading the schema at startup recovers the log of the last run
+     * before anything is appended to it
+     */
+    @Test public void recoverOnLoadSchema() throws Exception {
+        File dir = File.createTempFile("flusher", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        File loaded = new File(dir, "loaded.dat");
+        HeapFile.deleteOnExit(loaded);
+        FileWriter w = new FileWriter(schema);
+        w.write("loaded (a int, b int)\n");
+        w.close();
+
+        Database.reset();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("loaded");
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 504 * 2; i++)
+            Database.getBufferPool().insertTuple(t.getId(), tableId,
+                    Utility.getHeapTuple(new int[] { i, i }));
+        t.commit();
+
+        // stop, losing the writes of the flusher
+        Database.reset();
+        RandomAccessFile file = new RandomAccessFile(loaded, "rw");
+        file.setLength(0);
+        file.close();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableId).iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(504 * 2, count);
+    }
+
+    /**
+     * Committed pages waiting to be written don't stop eviction
+     */
+    @Test public void evictPendingPages() throws Exception {
+        Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        table.writePage(page(2, 2));
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(504 - 1, page.getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(Database.getBufferPool().getNumPendingWrites() > 1);
+    }
+
+    /**
+     * An abort and a rollback that write the same pending page at once
+     * don't take the log and the flusher in opposite orders
+     */
+    @Test public void abortDuringRollback() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final LogFile log = Database.getLogFile();
+        final List<Exception> errors = new ArrayList<Exception>();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        for (int i = 0; i < 200; i++) {
+            TransactionId committed = new TransactionId();
+            bp.insertTuple(committed, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+            bp.transactionComplete(committed);
+
+            // one transaction changed the pending page in the pool, the
+            // other logged a change to it
+            final TransactionId aborted = new TransactionId();
+            bp.insertTuple(aborted, table.getId(),
+                    Utility.getHeapTuple(new int[] { i, i }));
+            final TransactionId rolledBack = new TransactionId();
+            Page page = table.readPage(pid);
+            log.logWrite(rolledBack, page, page);
+
+            Thread abort = new Thread() {
+                public void run() {
+                    try {
+                        bp.transactionComplete(aborted, false);
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            Thread rollback = new Thread() {
+                public void run() {
+                    try {
+                        log.logAbort(rolledBack);
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            abort.setDaemon(true);
+            rollback.setDaemon(true);
+            abort.start();
+            rollback.start();
+            abort.join(5000);
+            rollback.join(5000);
+            assertFalse("deadlocked", abort.isAlive() || rollback.isAlive());
+            assertEquals(new ArrayList<Exception>(), errors);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFlusherTest.class);
+    }
+}
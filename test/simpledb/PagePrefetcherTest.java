@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PagePrefetcherTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 504 tuples fit on a page of a two column table
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Sequential accesses should bring the following pages into the pool
+     */
+    @Test public void readsAheadOfSequentialAccess() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        PagePrefetcher prefetcher = new PagePrefetcher(tid, hf.getId(),
+                hf.numPages(), 4);
+        prefetcher.access(0);
+        prefetcher.access(1);
+        // page 2 was scheduled by the second sequential access; access
+        // waits for it
+        prefetcher.access(2);
+        assertTrue(bp.isCached(new HeapPageId(hf.getId(), 2)));
+        assertTrue(bp.holdsLock(tid, new HeapPageId(hf.getId(), 2)));
+        prefetcher.close();
+    }
+
+    /**
+     * A random access should not trigger any read ahead
+     */
+    @Test public void noReadAheadOfRandomAccess() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        PagePrefetcher prefetcher = new PagePrefetcher(tid, hf.getId(),
+                hf.numPages(), 4);
+        prefetcher.access(5);
+        prefetcher.access(2);
+        prefetcher.close();
+        for (int i = 0; i < hf.numPages(); i++)
+            assertFalse(bp.isCached(new HeapPageId(hf.getId(), i)));
+    }
+
+    /**
+     * A scan reading ahead should return every tuple exactly once
+     */
+    @Test public void scanWithReadAhead() throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.setReadAhead(8);
+        SystemTestUtil.matchTuples(scan, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePrefetcherTest.class);
+    }
+}
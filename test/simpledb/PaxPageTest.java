@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    // 337 slots of 3 ints, in 43 header bytes
+    private static final int SLOTS = 337;
+    private static final int HEADER = 43;
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(3)),
+                SystemTestUtil.getUUID());
+    }
+
+    private PaxPage fullPage() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < SLOTS; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, i * 2, i * 3 }));
+        assertEquals(0, page.getNumEmptySlots());
+        return page;
+    }
+
+    /**
+     * The values of each column are stored together after the header
+     */
+    @Test public void columnLayout() throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(fullPage().getPageData());
+        for (int i = 0; i < SLOTS; i++) {
+            assertEquals(i, data.getInt(HEADER + i * 4));
+            assertEquals(i * 2, data.getInt(HEADER + SLOTS * 4 + i * 4));
+            assertEquals(i * 3, data.getInt(HEADER + SLOTS * 8 + i * 4));
+        }
+    }
+
+    /**
+     * Tuples are read back from the page data
+     */
+    @Test public void readBack() throws Exception {
+        PaxPage page = new PaxPage(pid, fullPage().getPageData());
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < SLOTS; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i * 3), t.getField(2));
+            assertTrue(TestUtil.compareTuples(
+                    Utility.getHeapTuple(new int[] { i, i * 2, i * 3 }), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A deleted tuple keeps the fields it had, even those not read yet
+     */
+    @Test public void deleteKeepsFields() throws Exception {
+        PaxPage page = new PaxPage(pid, fullPage().getPageData());
+        Tuple t = page.getTuple(7);
+        assertEquals(new IntField(7), t.getField(0));
+        page.deleteTuple(t);
+        assertNull(page.getTuple(7));
+        assertEquals(new IntField(14), t.getField(1));
+        assertEquals(new IntField(21), t.getField(2));
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, -2, -3 }));
+        assertEquals(new IntField(-2), page.getTuple(7).getField(1));
+        assertEquals(new IntField(21), t.getField(2));
+        assertEquals(new IntField(7),
+                page.getBeforeImage().getTuple(7).getField(0));
+    }
+
+    /**
+     * A pax table of the catalog is scanned and aggregated
+     */
+    @Test public void paxTable() throws Exception {
+        File dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        HeapFile.deleteOnExit(new File(dir, "wide.dat"));
+        FileWriter w = new FileWriter(schema);
+        w.write("wide (a int, b int, c int) pax\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("wide");
+        assertTrue(Database.getCatalog().getDbFile(tableId) instanceof PaxFile);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, tableId,
+                    Utility.getHeapTuple(new int[] { i % 10, i, 1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, ((HeapFile) Database.getCatalog().getDbFile(tableId)).numPages());
+
+        tid = new TransactionId();
+        Aggregate sum = new Aggregate(new SeqScan(tid, tableId, "wide"),
+                2, -1, Aggregator.Op.SUM);
+        sum.open();
+        assertTrue(sum.hasNext());
+        assertEquals(new IntField(1000), sum.next().getField(0));
+        assertFalse(sum.hasNext());
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+
+    private static final ReplacementPolicy.Filter ANY_PAGE
+        = new ReplacementPolicy.Filter() {
+            public boolean canEvict(PageId pid) {
+                return true;
+            }
+        };
+
+    private static PageId pid(int pageNumber) {
+        return new HeapPageId(1, pageNumber);
+    }
+
+    /**
+     * Simulates a pool of POOL_PAGES pages using the policy
+     */
+    private static class Pool {
+        final ReplacementPolicy policy;
+        final HashSet<PageId> cached = new HashSet<PageId>();
+
+        Pool(String name) {
+            policy = BufferPool.newPolicy(name, POOL_PAGES);
+        }
+
+        void read(int pageNumber) {
+            PageId pid = pid(pageNumber);
+            if (cached.contains(pid)) {
+                policy.access(pid);
+                return;
+            }
+            if (cached.size() >= POOL_PAGES) {
+                PageId victim = policy.evict(ANY_PAGE);
+                assertTrue(cached.remove(victim));
+            }
+            policy.admit(pid);
+            cached.add(pid);
+            assertEquals(cached.size(), policy.size());
+        }
+    }
+
+    /**
+     * LRU evicts the least recently used page, and CLOCK gives pages hit
+     * since the hand last passed a second chance
+     */
+    @Test public void lruAndClock() {
+        for (String name : new String[] { "lru", "clock" }) {
+            Pool pool = new Pool(name);
+            for (int i = 0; i < POOL_PAGES; i++)
+                pool.read(i);
+            pool.read(0);
+            pool.read(POOL_PAGES);
+            assertTrue(name, pool.cached.contains(pid(0)));
+            assertFalse(name, pool.cached.contains(pid(1)));
+        }
+    }
+
+    /**
+     * A scan of pages read once doesn't push out pages read repeatedly
+     */
+    @Test public void scanResistance() {
+        for (String name : new String[] { "lruk", "2q", "arc" }) {
+            Pool pool = new Pool(name);
+            int hot = POOL_PAGES / 4;
+            // the hot pages are read between the reads of other pages
+            for (int round = 0; round < 4 * POOL_PAGES; round++) {
+                for (int i = 0; i < hot; i++)
+                    pool.read(i);
+                pool.read(100 + round);
+            }
+            for (int i = 1000; i < 1000 + 4 * POOL_PAGES; i++)
+                pool.read(i);
+            for (int i = 0; i < hot; i++)
+                assertTrue(name + " evicted hot page " + i,
+                        pool.cached.contains(pid(i)));
+        }
+
+        // while LRU keeps the pages of the scan
+        Pool lru = new Pool("lru");
+        for (int i = 0; i < POOL_PAGES / 4; i++)
+            lru.read(i);
+        for (int i = 1000; i < 1000 + 4 * POOL_PAGES; i++)
+            lru.read(i);
+        assertFalse(lru.cached.contains(pid(0)));
+    }
+
+    /**
+     * Pages the filter refuses are skipped, and nothing is evicted when it
+     * refuses all
+     */
+    @Test public void filter() {
+        for (String name : BufferPool.POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, POOL_PAGES);
+            for (int i = 0; i < POOL_PAGES; i++)
+                policy.admit(pid(i));
+            assertEquals(pid(1), policy.evict(new ReplacementPolicy.Filter() {
+                public boolean canEvict(PageId pid) {
+                    return pid.equals(pid(1));
+                }
+            }));
+            assertNull(name, policy.evict(new ReplacementPolicy.Filter() {
+                public boolean canEvict(PageId pid) {
+                    return false;
+                }
+            }));
+            policy.remove(pid(2));
+            assertEquals(name, POOL_PAGES - 2, policy.size());
+        }
+    }
+
+    /**
+     * A BufferPool runs queries with each policy
+     */
+    @Test public void bufferPool() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 3 * POOL_PAGES,
+                null, null);
+        for (String name : BufferPool.POLICIES) {
+            Database.resetBufferPool(POOL_PAGES, name);
+            for (int round = 0; round < 2; round++) {
+                TransactionId tid = new TransactionId();
+                DbFileIterator it = table.iterator(tid);
+                it.open();
+                int count = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+                it.close();
+                assertEquals(name, 504 * 3 * POOL_PAGES, count);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        BufferPool.newPolicy("mru", POOL_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SegmentedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_PAGES = HeapFile.EXTENT_PAGES;
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int PAGES = 40;
+
+    private File file;
+    private HeapFile table;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("segmented", ".dat");
+        file.delete();
+        HeapFile.deleteOnExit(file);
+        for (int i = 0; i < 8; i++)
+            new File(file.getPath() + "." + i).deleteOnExit();
+        table = open();
+    }
+
+    private HeapFile open() {
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2),
+                BufferPool.getPageSize(), false, false, SEGMENT_PAGES);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    /**
+     * Fills PAGES pages with tuples numbered in order, committing each
+     * page's worth so the BufferPool never holds them all
+     */
+    private void fill() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int p = 0; p < PAGES; p++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < TUPLES_PER_PAGE; i++)
+                bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(
+                        new int[] { p * TUPLES_PER_PAGE + i, 0 }));
+            bp.transactionComplete(tid);
+        }
+        bp.flushAllPages();
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Pages are written to segment files of SEGMENT_PAGES pages, and the
+     * file is read back whole when opened again
+     */
+    @Test public void segmentFiles() throws Exception {
+        fill();
+        assertEquals(PAGES, table.numPages());
+        assertEquals(3, table.numSegments());
+        assertFalse(file.exists());
+        long segmentBytes = (long) SEGMENT_PAGES * BufferPool.getPageSize();
+        assertEquals(segmentBytes, table.getSegmentFile(0).length());
+        assertEquals(segmentBytes, table.getSegmentFile(1).length());
+        assertEquals(segmentBytes, table.getSegmentFile(2).length());
+
+        table.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table = open();
+        assertEquals(PAGES, table.numPages());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int expected = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(expected), it.next().getField(0));
+            expected++;
+        }
+        assertEquals(PAGES * TUPLES_PER_PAGE, expected);
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The segments are scanned in parallel, each in a transaction of its
+     * own, and together return every tuple once
+     */
+    @Test public void parallelScan() throws Exception {
+        fill();
+        final int[] counts = new int[table.numSegments()];
+        final Exception[] failed = new Exception[1];
+        Thread[] threads = new Thread[counts.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int segment = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        counts[segment] = count(table.segmentIterator(tid, segment));
+                        Database.getBufferPool().transactionComplete(tid);
+                    } catch (Exception e) {
+                        failed[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (failed[0] != null)
+            throw failed[0];
+        assertEquals(SEGMENT_PAGES * TUPLES_PER_PAGE, counts[0]);
+        assertEquals(SEGMENT_PAGES * TUPLES_PER_PAGE, counts[1]);
+        assertEquals((PAGES - 2 * SEGMENT_PAGES) * TUPLES_PER_PAGE, counts[2]);
+    }
+
+    /**
+     * Compaction deletes the segments past the new end of the file and
+     * truncates the last one left
+     */
+    @Test public void truncateSegments() throws Exception {
+        fill();
+        int kept = 30;
+        TransactionId tid = new TransactionId();
+        DbIterator delete = new Delete(tid, new Filter(new Predicate(0,
+                Predicate.Op.GREATER_THAN_OR_EQ, new IntField(kept * TUPLES_PER_PAGE)),
+                new SeqScan(tid, table.getId(), "t")));
+        delete.open();
+        assertEquals(new IntField((PAGES - kept) * TUPLES_PER_PAGE),
+                delete.next().getField(0));
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(PAGES - kept, table.compact());
+        assertEquals(kept, table.numPages());
+        assertEquals(2, table.numSegments());
+        assertFalse(table.getSegmentFile(2).exists());
+        assertEquals((long) (kept - SEGMENT_PAGES) * BufferPool.getPageSize(),
+                table.getSegmentFile(1).length());
+
+        // the file grows into a new segment again
+        fill();
+        assertEquals(kept + PAGES, table.numPages());
+        assertEquals(5, table.numSegments());
+        tid = new TransactionId();
+        assertEquals((kept + PAGES) * TUPLES_PER_PAGE, count(table.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Segments must be whole extents, and can't be memory mapped
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void badSegmentSize() {
+        new HeapFile(file, Utility.getTupleDesc(2), BufferPool.getPageSize(),
+                false, false, HeapFile.EXTENT_PAGES + 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedHeapFileTest.class);
+    }
+}
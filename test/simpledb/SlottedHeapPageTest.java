@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static SlottedHeapPage emptyPage(HeapPageId pid) throws Exception {
+        return new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Short strings take only their own length
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedHeapPage page = emptyPage(pid);
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(inserted, "abc"))) {
+            page.insertTuple(tuple(inserted, "abc"));
+            inserted++;
+        }
+        // 4 byte slot + 4 byte int + 2 byte length + 3 characters
+        assertEquals((BufferPool.PAGE_SIZE - 8) / 13, inserted);
+        assertEquals(0, page.getNumEmptySlots());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < inserted; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("abc", Type.STRING_LEN), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted space and slots are reused, moving records together as needed
+     */
+    @Test public void reuseDeletedSpace() throws Exception {
+        SlottedHeapPage page = emptyPage(pid);
+        int i = 0;
+        while (page.hasRoomFor(tuple(i, "abcdefgh")))
+            page.insertTuple(tuple(i++, "abcdefgh"));
+
+        // free two neighbouring records in the middle of the page
+        page.deleteTuple(page.getTuple(10));
+        page.deleteTuple(page.getTuple(11));
+        assertNull(page.getTuple(10));
+        Tuple longer = tuple(-1, "abcdefghijklmnopqrst");
+        assertTrue(page.hasRoomFor(longer));
+        page.insertTuple(longer);
+        assertEquals(new RecordId(pid, 10), longer.getRecordId());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertTrue(TestUtil.compareTuples(longer, copy.getTuple(10)));
+        assertTrue(TestUtil.compareTuples(tuple(12, "abcdefgh"), copy.getTuple(12)));
+        assertNull(copy.getTuple(11));
+    }
+
+    /**
+     * The before image is left alone by changes
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = emptyPage(pid);
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.insertTuple(tuple(2, "two"));
+        page.deleteTuple(page.getTuple(0));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Slotted pages are written to and read back from the log
+     */
+    @Test public void logPageData() throws Exception {
+        SlottedHeapPage page = emptyPage(pid);
+        page.insertTuple(tuple(1, "one"));
+        File f = File.createTempFile("slotted", ".log");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        LogFile log = Database.getLogFile();
+        log.writePageData(raf, page);
+        raf.seek(0);
+        Page read = log.readPageData(raf);
+        raf.close();
+        assertTrue(read instanceof SlottedHeapPage);
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    /**
+     * A slotted HeapFile holds more short strings per page than HeapPages
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFile hf = new HeapFile(f, TD, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "s" + i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a HeapPage holds 30 such tuples, a slotted page about 260
+        assertEquals(4, hf.numPages());
+        TableStats stats = new TableStats(hf.getId(), 1000);
+        assertEquals(1000, stats.estimateTableCardinality(1.0));
+        assertEquals(4000, stats.estimateScanCost(), 0.1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
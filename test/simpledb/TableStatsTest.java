@@ -86,6 +86,23 @@ public class TableStatsTest extends SimpleDbTestBase {
 		
 	}
 	
+	/**
+	 * Building stats leaves no page pinned, so stats can be built for more
+	 * tables than the BufferPool holds pages
+	 */
+	@Test public void statsForManyTables() throws IOException, DbException, TransactionAbortedException {
+		Database.resetBufferPool(5);
+		for(int i = 0; i < 10; ++i) {
+			HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992, 32, null, null);
+			String tableName = SystemTestUtil.getUUID();
+			Database.getCatalog().addTable(hf, tableName);
+			TableStats s = new TableStats(Database.getCatalog().getTableId(tableName), IO_COST);
+			Assert.assertEquals(992, s.totalTuples());
+			Assert.assertEquals(1.0, s.estimateSelectivity(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(32)), 0.001);
+		}
+		Assert.assertEquals(0, Database.getBufferPool().getNumPinned());
+	}
+	
 	/**
 	 * Verify the table-cardinality estimates based on a selectivity estimate
 	 */
@@ -210,6 +210,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int getPageSize() {
+            return BufferPool.getPageSize();
+        }
+
         public void writePage(Page p) throws IOException {
             throw new RuntimeException("not implemented");
         }
@@ -239,6 +243,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+        public void close() {
+        }
     }
 
     /**
@@ -378,7 +385,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZoneMapTest extends TestUtil.CreateHeapFile {
+
+    private static final int PAGES = 10;
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * Fills the file with tuples whose first field increases with their
+     * position, like the tuples of a time-ordered table
+     */
+    private void insertOrdered() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i++)
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(new int[] { i, -i }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES, empty.numPages());
+    }
+
+    /**
+     * Runs a filtered scan of the file and checks that it returns the
+     * tuples with a first field from low to high, and reads only the
+     * pages with those tuples
+     */
+    private void checkRange(int low, int high, Predicate... preds)
+            throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator it = new SeqScan(tid, empty.getId(), "t");
+        for (Predicate p : preds)
+            it = new Filter(p, it);
+        it.open();
+        int expected = low;
+        while (it.hasNext()) {
+            assertEquals(new IntField(expected), it.next().getField(0));
+            expected++;
+        }
+        it.close();
+        assertEquals(high + 1, expected);
+        for (int i = 0; i < PAGES; i++) {
+            boolean needed = low <= high && i >= low / TUPLES_PER_PAGE
+                    && i <= high / TUPLES_PER_PAGE;
+            assertEquals("page " + i, needed, Database.getBufferPool()
+                    .isCached(new HeapPageId(empty.getId(), i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * Filters on the ordered field skip the pages out of their range
+     */
+    @Test public void skipPages() throws Exception {
+        insertOrdered();
+        // the first scan learns the zone of the page written without an
+        // insert
+        checkRange(0, PAGES * TUPLES_PER_PAGE - 1);
+        checkRange(4000, PAGES * TUPLES_PER_PAGE - 1,
+                pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 4000));
+        checkRange(1000, 1999, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 1000),
+                pred(0, Predicate.Op.LESS_THAN, 2000));
+        checkRange(1234, 1234, pred(0, Predicate.Op.EQUALS, 1234));
+        checkRange(1000, 1200, pred(1, Predicate.Op.LESS_THAN_OR_EQ, -1000),
+                pred(1, Predicate.Op.GREATER_THAN_OR_EQ, -1200));
+        checkRange(0, -1, pred(0, Predicate.Op.LESS_THAN, 0));
+    }
+
+    /**
+     * Zones cover the tuples inserted later, also on pages whose zone was
+     * learned by a scan, and are not narrowed by deletes
+     */
+    @Test public void insertAndDelete() throws Exception {
+        insertOrdered();
+        checkRange(0, PAGES * TUPLES_PER_PAGE - 1);
+        TransactionId tid = new TransactionId();
+        Tuple deleted = null;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (deleted == null) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == 100)
+                deleted = t;
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, deleted);
+        Database.getBufferPool().insertTuple(tid, empty.getId(),
+                Utility.getHeapTuple(new int[] { 100000, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbIterator scan = new Filter(pred(0, Predicate.Op.GREATER_THAN, 99999),
+                new SeqScan(tid, empty.getId(), "t"));
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(new IntField(100000), scan.next().getField(0));
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The zones learned by scanning a loaded file are saved when it is
+     * closed, and used by the next HeapFile opened on it
+     */
+    @Test public void saveAndLoad() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, empty.getFile(), BufferPool.getPageSize(), 2);
+        empty = Utility.openHeapFile(2, empty.getFile());
+
+        // all zones are unknown until a scan reads the pages
+        checkRange(0, PAGES * TUPLES_PER_PAGE - 1);
+        empty.close();
+        File map = new File(empty.getFile().getPath() + ZoneMap.SUFFIX);
+        assertTrue(map.exists());
+        empty = Utility.openHeapFile(2, empty.getFile());
+        checkRange(3000, 3999, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 3000),
+                pred(0, Predicate.Op.LESS_THAN_OR_EQ, 3999));
+        assertFalse(map.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}